@@ -0,0 +1,75 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.BookmanagerApplication;
+import com.melih.bookmanager.api.model.Book;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+// Starts the application on a random port with a private in-memory H2 database
+final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    static ConfigurableApplicationContext start(Map<String, Object> extraProperties,
+                                                ApplicationContextInitializer<?>... initializers) {
+        Map<String, Object> properties = new HashMap<>(Map.of(
+                "spring.datasource.url", "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "spring.jpa.hibernate.ddl-auto", "create-drop",
+                "spring.jpa.show-sql", "false",
+                "spring.jpa.properties.hibernate.format_sql", "false",
+                "spring.h2.console.enabled", "false",
+                "server.port", "0",
+                "logging.level.root", "WARN",
+                "bookmanager.changes.path", "./build/jmh/changes-" + UUID.randomUUID(),
+                "bookmanager.catalog.snapshot.path", "./build/jmh/catalog-" + UUID.randomUUID() + ".snapshot"));
+        properties.putAll(extraProperties);
+
+        // Passed as command line arguments, they have to win over application.properties
+        String[] args = properties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new);
+        return new SpringApplicationBuilder(BookmanagerApplication.class)
+                .initializers(initializers)
+                .run(args);
+    }
+
+    static ConfigurableApplicationContext start() {
+        return start(Map.of());
+    }
+
+    // Starts with the given profiles and their datasource, a file database ends up under build/jmh
+    static ConfigurableApplicationContext startWithProfiles(String profiles, boolean fileDatabase) {
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.profiles.active=" + profiles,
+                "--server.port=0",
+                "--logging.level.root=WARN",
+                "--bookmanager.changes.path=./build/jmh/changes-" + UUID.randomUUID(),
+                "--bookmanager.catalog.snapshot.path=./build/jmh/catalog-" + UUID.randomUUID() + ".snapshot"));
+        if (fileDatabase) {
+            args.add("--spring.datasource.url=jdbc:h2:file:./build/jmh/bookdb-" + UUID.randomUUID());
+            args.add("--spring.jpa.hibernate.ddl-auto=create-drop");
+        }
+        return new SpringApplicationBuilder(BookmanagerApplication.class).run(args.toArray(String[]::new));
+    }
+
+    // 13 digit isbns, unique per index
+    static String isbn(long index) {
+        return String.format("978%010d", index);
+    }
+
+    static List<Book> books(long firstIndex, int count) {
+        List<Book> books = new ArrayList<>(count);
+        for (long i = firstIndex; i < firstIndex + count; i++) {
+            books.add(new Book(isbn(i), "Title " + i, "Author " + (i % 1000), (int) (100 + i % 900)));
+        }
+        return books;
+    }
+}
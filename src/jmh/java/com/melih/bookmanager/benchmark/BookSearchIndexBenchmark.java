@@ -0,0 +1,76 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.service.BookSearchIndex;
+import com.melih.bookmanager.service.OffHeapCatalog;
+import com.melih.bookmanager.utils.BookSearchResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Search latency on a synthetic catalog, titles and authors are drawn from a fixed vocabulary.
+// With the off-heap catalog the hits are read from there instead of copies on the heap.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookSearchIndexBenchmark {
+    private static final int VOCABULARY_SIZE = 50_000;
+    private static final int AUTHOR_COUNT = 20_000;
+
+    @Param({"1000000"})
+    private int catalogSize;
+
+    @Param({"false", "true"})
+    private boolean offHeap;
+
+    private BookSearchIndex bookSearchIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        List<Book> books = new ArrayList<>(catalogSize);
+        for (int i = 0; i < catalogSize; i++) {
+            String title = word(random.nextInt(VOCABULARY_SIZE)) + " " + word(random.nextInt(VOCABULARY_SIZE))
+                    + " " + word(random.nextInt(VOCABULARY_SIZE));
+            String author = "author " + word(random.nextInt(AUTHOR_COUNT));
+            books.add(new Book(BenchmarkContext.isbn(i), title, author, 100));
+        }
+        OffHeapCatalog catalog = new OffHeapCatalog(offHeap, 10_000, DataSize.ofGigabytes(1), new SimpleMeterRegistry());
+        catalog.rebuild(books::forEach);
+        bookSearchIndex = new BookSearchIndex(catalog);
+        books.forEach(bookSearchIndex::put);
+    }
+
+    @Benchmark
+    public BookSearchResponse singleTerm() {
+        return bookSearchIndex.search(word(1234), 0, 20);
+    }
+
+    @Benchmark
+    public BookSearchResponse prefix() {
+        return bookSearchIndex.search(word(1234).substring(0, 3), 0, 20);
+    }
+
+    @Benchmark
+    public BookSearchResponse authorAndTitle() {
+        return bookSearchIndex.search(word(77) + " " + word(1234), 0, 20);
+    }
+
+    // Base 26 spelling of the number, e.g. 1234 -> "bvm"
+    private static String word(int number) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append((char) ('a' + number % 26));
+            number /= 26;
+        } while (number > 0);
+        return word.reverse().toString();
+    }
+}
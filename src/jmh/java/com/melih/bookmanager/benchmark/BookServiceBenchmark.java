@@ -0,0 +1,115 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.service.BookService;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookServiceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Catalog {
+        @Param({"10000", "100000"})
+        int catalogSize;
+
+        @Param({"100", "1000"})
+        int batchSize;
+
+        ConfigurableApplicationContext context;
+        BookService bookService;
+
+        // Isbns of benchmark batches start behind the catalog, so they never collide with it
+        final AtomicLong nextIsbn = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            context = BenchmarkContext.start();
+            bookService = context.getBean(BookService.class);
+            for (int from = 0; from < catalogSize; from += 10_000) {
+                bookService.addBooksBulk(BenchmarkContext.books(from, Math.min(10_000, catalogSize - from)));
+            }
+            nextIsbn.set(catalogSize);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            context.close();
+        }
+
+        String randomIsbn() {
+            return BenchmarkContext.isbn(ThreadLocalRandom.current().nextInt(catalogSize));
+        }
+
+        List<Book> newBatch() {
+            return BenchmarkContext.books(nextIsbn.getAndAdd(batchSize), batchSize);
+        }
+    }
+
+    // Books that are inserted by the benchmark and removed again afterwards
+    @State(Scope.Thread)
+    public static class InsertBatch {
+        List<Book> books;
+
+        @Setup(Level.Invocation)
+        public void prepare(Catalog catalog) {
+            books = catalog.newBatch();
+        }
+
+        @TearDown(Level.Invocation)
+        public void cleanUp(Catalog catalog) {
+            catalog.bookService.removeBooksBulk(books.stream().map(Book::getIsbn).toList());
+        }
+    }
+
+    // Books that are inserted up front and removed by the benchmark
+    @State(Scope.Thread)
+    public static class DeleteBatch {
+        List<String> isbns;
+
+        @Setup(Level.Invocation)
+        public void prepare(Catalog catalog) {
+            List<Book> books = catalog.newBatch();
+            catalog.bookService.addBooksBulk(books);
+            isbns = books.stream().map(Book::getIsbn).toList();
+        }
+    }
+
+    @Benchmark
+    public Book getBookByIsbn(Catalog catalog) {
+        return catalog.bookService.getBookByIsbn(catalog.randomIsbn());
+    }
+
+    @Benchmark
+    public void addBooksBulk(Catalog catalog, InsertBatch batch, Blackhole blackhole) {
+        blackhole.consume(catalog.bookService.addBooksBulk(batch.books));
+    }
+
+    @Benchmark
+    public void removeBooksBulk(Catalog catalog, DeleteBatch batch, Blackhole blackhole) {
+        blackhole.consume(catalog.bookService.removeBooksBulk(batch.isbns));
+    }
+
+    @Benchmark
+    public void updateBooksBulk(Catalog catalog, Blackhole blackhole) {
+        int start = ThreadLocalRandom.current().nextInt(Math.max(1, catalog.catalogSize - catalog.batchSize));
+        int pages = ThreadLocalRandom.current().nextInt(100, 1000);
+        List<BookUpdateRequest> updates = new ArrayList<>(catalog.batchSize);
+        for (int i = start; i < start + catalog.batchSize; i++) {
+            updates.add(new BookUpdateRequest(BenchmarkContext.isbn(i), null, null, pages));
+        }
+        blackhole.consume(catalog.bookService.updateBooksBulk(updates));
+    }
+}
@@ -0,0 +1,82 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.repository.book.BookRepository;
+import com.melih.bookmanager.service.BookService;
+import com.melih.bookmanager.utils.BookFilter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Same service and repository calls against the database (jpa) and InMemoryBookRepository (memory)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookStorageBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"jpa", "memory"})
+    private String storage;
+
+    @Param({"100000"})
+    private int catalogSize;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private BookRepository bookRepository;
+    private final AtomicLong nextIsbn = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(Map.of("bookmanager.storage", storage));
+        bookService = context.getBean(BookService.class);
+        bookRepository = context.getBean(BookRepository.class);
+        for (int from = 0; from < catalogSize; from += 10_000) {
+            bookService.addBooksBulk(BenchmarkContext.books(from, Math.min(10_000, catalogSize - from)));
+        }
+        nextIsbn.set(catalogSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    // Bypasses the books cache of BookService, the database path still has the second-level cache
+    @Benchmark
+    public Optional<Book> findById() {
+        return bookRepository.findById(randomIsbn());
+    }
+
+    @Benchmark
+    public List<Book> readPage() {
+        return bookService.getBooksPage(randomIsbn(), PAGE_SIZE);
+    }
+
+    // One of the 1000 authors, so every 1000th book matches
+    @Benchmark
+    public List<Book> readFilteredPage() {
+        BookFilter filter = new BookFilter("Author " + ThreadLocalRandom.current().nextInt(1000), null, null, null);
+        return bookService.getBooksPage(filter, null, 20);
+    }
+
+    @Benchmark
+    public int insertAndDelete() {
+        List<Book> books = BenchmarkContext.books(nextIsbn.getAndAdd(PAGE_SIZE), PAGE_SIZE);
+        bookService.addBooksBulk(books);
+        return bookService.removeBooksBulk(books.stream().map(Book::getIsbn).toList()).getAffected();
+    }
+
+    private String randomIsbn() {
+        return BenchmarkContext.isbn(ThreadLocalRandom.current().nextInt(catalogSize));
+    }
+}
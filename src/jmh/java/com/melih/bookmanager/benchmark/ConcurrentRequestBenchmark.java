@@ -0,0 +1,106 @@
+package com.melih.bookmanager.benchmark;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.Ordered;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Time to answer a burst of concurrent requests that each block for a while, e.g. on a remote database.
+// With the default 200 Tomcat threads a burst of 1000 needs five rounds, with virtual threads one.
+// The blocking filter answers the request itself, so the result shows the capacity of the web tier
+// and not the CPU time of the application code.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ConcurrentRequestBenchmark {
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param({"1000"})
+    private int concurrentRequests;
+
+    // Blocking time of every request
+    @Param({"200"})
+    private long latencyMillis;
+
+    private ConfigurableApplicationContext context;
+    private ExecutorService clientExecutor;
+    private HttpClient httpClient;
+    private HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(
+                // The accept queue has to hold the whole burst, otherwise the client waits for SYN retransmits.
+                Map.of("spring.threads.virtual.enabled", virtualThreads,
+                        "server.tomcat.accept-count", concurrentRequests),
+                applicationContext -> ((GenericApplicationContext) applicationContext)
+                        .registerBean("blockingFilter", FilterRegistrationBean.class, this::blockingFilter));
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+
+        clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        httpClient = HttpClient.newBuilder()
+                .executor(clientExecutor)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/blocking")).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clientExecutor.close();
+        context.close();
+    }
+
+    @Benchmark
+    public int burst() {
+        List<CompletableFuture<HttpResponse<Void>>> responses = new ArrayList<>(concurrentRequests);
+        for (int i = 0; i < concurrentRequests; i++) {
+            responses.add(httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+        }
+        int ok = 0;
+        for (CompletableFuture<HttpResponse<Void>> response : responses) {
+            if (response.join().statusCode() == HttpServletResponse.SC_NO_CONTENT) {
+                ok++;
+            }
+        }
+        return ok;
+    }
+
+    // Holds the request thread like a JDBC call to a remote database would, then answers with 204
+    private FilterRegistrationBean<Filter> blockingFilter() {
+        Filter filter = (servletRequest, servletResponse, chain) -> {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ((HttpServletResponse) servletResponse).setStatus(HttpServletResponse.SC_NO_CONTENT);
+        };
+        // In front of the security filter chain, which is not part of the measurement
+        FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>(filter);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return registration;
+    }
+}
@@ -0,0 +1,61 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.service.BookService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Same service calls with the development settings (file database, SQL printed to stdout)
+// and the production settings on the different databases
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DatabaseProfileBenchmark {
+    private static final int CATALOG_SIZE = 20_000;
+    private static final int BATCH_SIZE = 100;
+
+    // "default" and "prod" use the H2 file database
+    @Param({"default", "prod", "prod,h2mem", "prod,h2pg"})
+    private String profiles;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+    private final AtomicLong nextIsbn = new AtomicLong(CATALOG_SIZE);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean fileDatabase = !profiles.contains("h2mem") && !profiles.contains("h2pg");
+        context = BenchmarkContext.startWithProfiles(profiles, fileDatabase);
+        bookService = context.getBean(BookService.class);
+        for (int from = 0; from < CATALOG_SIZE; from += 10_000) {
+            bookService.addBooksBulk(BenchmarkContext.books(from, 10_000));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Book> readPage() {
+        String after = BenchmarkContext.isbn(ThreadLocalRandom.current().nextInt(CATALOG_SIZE - BATCH_SIZE));
+        return bookService.getBooksPage(after, BATCH_SIZE);
+    }
+
+    // Insert and delete of a batch, both bulk paths in one measurement
+    @Benchmark
+    public int insertAndDelete() {
+        List<Book> books = BenchmarkContext.books(nextIsbn.getAndAdd(BATCH_SIZE), BATCH_SIZE);
+        bookService.addBooksBulk(books);
+        return bookService.removeBooksBulk(books.stream().map(Book::getIsbn).toList()).getAffected();
+    }
+}
@@ -0,0 +1,59 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.service.BookService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// GET /books/{isbn} and GET /books through BookService, with and without the off-heap catalog
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OffHeapCatalogBenchmark {
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"false", "true"})
+    private String offHeap;
+
+    @Param({"100000"})
+    private int catalogSize;
+
+    private ConfigurableApplicationContext context;
+    private BookService bookService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start(Map.of("bookmanager.catalog.off-heap.enabled", offHeap));
+        bookService = context.getBean(BookService.class);
+        for (int from = 0; from < catalogSize; from += 10_000) {
+            bookService.addBooksBulk(BenchmarkContext.books(from, Math.min(10_000, catalogSize - from)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Book getBookByIsbn() {
+        return bookService.getBookByIsbn(randomIsbn());
+    }
+
+    @Benchmark
+    public List<Book> readPage() {
+        return bookService.getBooksPage(randomIsbn(), PAGE_SIZE);
+    }
+
+    private String randomIsbn() {
+        return BenchmarkContext.isbn(ThreadLocalRandom.current().nextInt(catalogSize));
+    }
+}
@@ -0,0 +1,49 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.service.AuthenticationCache;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Cost of one HTTP Basic check with and without the authentication cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PasswordEncoderBenchmark {
+    private static final String USERNAME = "user";
+    private static final String PASSWORD = "Spring123!";
+
+    private PasswordEncoder passwordEncoder;
+    private String encodedPassword;
+    private AuthenticationCache authenticationCache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        passwordEncoder = new BCryptPasswordEncoder();
+        encodedPassword = passwordEncoder.encode(PASSWORD);
+
+        authenticationCache = new AuthenticationCache(Duration.ofHours(1), 100);
+        authenticationCache.put(USERNAME, PASSWORD,
+                UsernamePasswordAuthenticationToken.authenticated(USERNAME, null, List.of()),
+                authenticationCache.generation(USERNAME));
+    }
+
+    @Benchmark
+    public boolean bcryptMatches() {
+        return passwordEncoder.matches(PASSWORD, encodedPassword);
+    }
+
+    @Benchmark
+    public Authentication cachedAuthentication() {
+        return authenticationCache.get(USERNAME, PASSWORD);
+    }
+}
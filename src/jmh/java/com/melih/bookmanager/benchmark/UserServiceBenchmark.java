@@ -0,0 +1,63 @@
+package com.melih.bookmanager.benchmark;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.api.model.User;
+import com.melih.bookmanager.repository.user.UserRepository;
+import com.melih.bookmanager.service.BookService;
+import com.melih.bookmanager.service.UserService;
+import com.melih.bookmanager.utils.UserResponse;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UserServiceBenchmark {
+    private static final String USERNAME = "reader";
+
+    // Length of the reading history of the benchmark user
+    @Param({"10", "1000", "5000"})
+    int readBooks;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = BenchmarkContext.start();
+        userService = context.getBean(UserService.class);
+
+        List<Book> books = BenchmarkContext.books(0, readBooks);
+        context.getBean(BookService.class).addBooksBulk(books);
+
+        User reader = new User(USERNAME, "not-used");
+        reader.setRole("ROLE_USER");
+        reader.getReadBooks().addAll(books);
+        context.getBean(UserRepository.class).save(reader);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public UserResponse getUserProfile() {
+        return userService.getUserProfile(USERNAME);
+    }
+
+    // Moves a random book through both lists, which costs two single row changes
+    @Benchmark
+    public void markAsRead() {
+        String isbn = BenchmarkContext.isbn(ThreadLocalRandom.current().nextInt(readBooks));
+        userService.markAsCurrentlyReading(USERNAME, isbn);
+        userService.markAsRead(USERNAME, isbn);
+    }
+}
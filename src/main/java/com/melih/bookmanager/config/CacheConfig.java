@@ -0,0 +1,56 @@
+package com.melih.bookmanager.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+    public static final String BOOKS_CACHE = "books";
+    public static final String BOOK_ETAGS_CACHE = "book-etags";
+
+    @Value("${bookmanager.cache.books.maximum-size:10000}")
+    private long booksMaximumSize;
+
+    @Value("${bookmanager.cache.books.expire-after-write:10m}")
+    private Duration booksExpireAfterWrite;
+
+    // Also remember isbns that don't exist, referenced by BookRepository#findBookByIsbn
+    @Getter
+    @Value("${bookmanager.cache.books.cache-missing:false}")
+    private boolean cacheMissingBooks;
+
+    // Only the ETag strings, so far more entries fit than books, see BookEtags
+    @Value("${bookmanager.cache.book-etags.maximum-size:100000}")
+    private long bookEtagsMaximumSize;
+
+    @Bean
+    public CacheManager cacheManager() {
+        CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager(BOOKS_CACHE);
+        caffeineCacheManager.setCaffeine(Caffeine.newBuilder()
+                .maximumSize(booksMaximumSize)
+                .expireAfterWrite(booksExpireAfterWrite)
+                // Hit, miss and eviction counters for the actuator metrics
+                .recordStats());
+        caffeineCacheManager.setAllowNullValues(cacheMissingBooks);
+        caffeineCacheManager.registerCustomCache(BOOK_ETAGS_CACHE, Caffeine.newBuilder()
+                .maximumSize(bookEtagsMaximumSize)
+                .expireAfterWrite(booksExpireAfterWrite)
+                .recordStats()
+                .build());
+
+        // Evictions inside a transaction are applied after the commit, so reads during the transaction
+        // don't cache the old row again. A read that loaded it before the commit can still put it back
+        // after the eviction; BookEtags drops such puts, cached books rely on the TTL.
+        return new TransactionAwareCacheManagerProxy(caffeineCacheManager);
+    }
+}
@@ -0,0 +1,43 @@
+package com.melih.bookmanager.config;
+
+import com.melih.bookmanager.service.AuthenticationCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+
+// Puts the AuthenticationCache in front of the BCrypt based provider
+@RequiredArgsConstructor
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+    private final AuthenticationProvider delegate;
+    private final AuthenticationCache authenticationCache;
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        String username = authentication.getName();
+        String password = String.valueOf(authentication.getCredentials());
+
+        Authentication cached = authenticationCache.get(username, password);
+        if (cached != null) {
+            return cached;
+        }
+
+        // Read before the user is loaded, a password change during the BCrypt check must win
+        long generation = authenticationCache.generation(username);
+
+        // Failed logins throw here and are never cached
+        Authentication result = delegate.authenticate(authentication);
+        if (result != null) {
+            authenticationCache.put(username, password,
+                    UsernamePasswordAuthenticationToken.authenticated(result.getPrincipal(), null, result.getAuthorities()),
+                    generation);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+}
@@ -0,0 +1,16 @@
+package com.melih.bookmanager.config;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MetricsConfig {
+
+    // Hibernate uses the Spring managed inspector instead of creating its own instance
+    @Bean
+    public HibernatePropertiesCustomizer queryCountCustomizer(QueryCountInspector queryCountInspector) {
+        return hibernateProperties -> hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, queryCountInspector);
+    }
+}
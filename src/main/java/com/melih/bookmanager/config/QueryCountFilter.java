@@ -0,0 +1,46 @@
+package com.melih.bookmanager.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+// Records how many SQL statements every request needed, including the ones of the authentication.
+// Work that runs on other threads (streaming responses, JDBC batches) is not part of the count.
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@RequiredArgsConstructor
+public class QueryCountFilter extends OncePerRequestFilter {
+    private final QueryCountInspector queryCountInspector;
+    private final MeterRegistry meterRegistry;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        queryCountInspector.start();
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            int queries = queryCountInspector.stop();
+            // Uri template instead of the raw path, otherwise every isbn becomes its own time series
+            Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            DistributionSummary.builder("bookmanager.http.db.queries")
+                    .description("SQL statements executed per request")
+                    .tag("method", request.getMethod())
+                    .tag("uri", uri == null ? "UNKNOWN" : uri.toString())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(queries);
+        }
+    }
+}
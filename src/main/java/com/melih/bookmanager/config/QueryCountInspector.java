@@ -0,0 +1,30 @@
+package com.melih.bookmanager.config;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.stereotype.Component;
+
+// Counts the SQL statements Hibernate prepares on the current thread while counting is active
+@Component
+public class QueryCountInspector implements StatementInspector {
+    private final ThreadLocal<int[]> queryCount = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        int[] count = queryCount.get();
+        if (count != null) {
+            count[0]++;
+        }
+        return sql;
+    }
+
+    public void start() {
+        queryCount.set(new int[1]);
+    }
+
+    // Returns the number of statements since start() and stops counting
+    public int stop() {
+        int[] count = queryCount.get();
+        queryCount.remove();
+        return count == null ? 0 : count[0];
+    }
+}
@@ -0,0 +1,58 @@
+package com.melih.bookmanager.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.hibernate.autoconfigure.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+import static org.hibernate.cache.jcache.ConfigSettings.CACHE_MANAGER;
+
+@Configuration
+public class SecondLevelCacheConfig {
+    // Regions of the @Cache and @NaturalIdCache annotations on Book and User
+    public static final String BOOK_REGION = "book";
+    public static final String USER_REGION = "user";
+    public static final String USER_BY_USERNAME_REGION = "user-by-username";
+    public static final String USER_CURRENTLY_READING_REGION = "user-currently-reading";
+    public static final String USER_READ_BOOKS_REGION = "user-read-books";
+
+    private static final List<String> REGIONS = List.of(BOOK_REGION, USER_REGION, USER_BY_USERNAME_REGION,
+            USER_CURRENTLY_READING_REGION, USER_READ_BOOKS_REGION);
+
+    @Value("${bookmanager.cache.entities.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${bookmanager.cache.entities.expire-after-write:30m}")
+    private Duration expireAfterWrite;
+
+    // Every region is bounded, Hibernate is configured to fail on regions that aren't created here
+    @Bean
+    public HibernatePropertiesCustomizer secondLevelCacheCustomizer() {
+        return hibernateProperties -> hibernateProperties.put(CACHE_MANAGER, createCacheManager());
+    }
+
+    private CacheManager createCacheManager() {
+        // Own manager per application context, contexts on different databases must not share entries.
+        // Hibernate closes it together with the session factory.
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create("bookmanager:" + UUID.randomUUID()), getClass().getClassLoader());
+
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maximumSize));
+        configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+        for (String region : REGIONS) {
+            cacheManager.createCache(region, configuration);
+        }
+        return cacheManager;
+    }
+}
@@ -1,5 +1,9 @@
 package com.melih.bookmanager.security;
 
+import com.melih.bookmanager.config.CachingAuthenticationProvider;
+import com.melih.bookmanager.repository.user.UserRepository;
+import com.melih.bookmanager.service.AuthenticationCache;
+import com.melih.bookmanager.service.CustomUserDetailsService;
 import io.swagger.v3.oas.models.Components;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Info;
@@ -8,6 +12,8 @@ import io.swagger.v3.oas.models.security.SecurityScheme;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
@@ -26,6 +32,9 @@ public class SecurityConfig {
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/user/register", "/user/login", "/error","/v3/api-docs",
                                 "/v3/api-docs/**", "/swagger-ui/**", "/swagger-ui.html", "/h2-console/**").permitAll()
+                        .requestMatchers("/actuator/health").permitAll()
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
+                        .requestMatchers("/books/bulk/jobs/**").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.POST, "/books/**").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.PATCH, "/books/**").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.DELETE, "/books/**").hasRole("ADMIN")
@@ -43,6 +52,17 @@ public class SecurityConfig {
         return new BCryptPasswordEncoder();
     }
 
+    // BCrypt is only checked when the user isn't in the short-lived authentication cache
+    @Bean
+    public AuthenticationProvider authenticationProvider(UserRepository userRepository,
+                                                         PasswordEncoder passwordEncoder,
+                                                         AuthenticationCache authenticationCache) {
+        DaoAuthenticationProvider daoAuthenticationProvider =
+                new DaoAuthenticationProvider(new CustomUserDetailsService(userRepository));
+        daoAuthenticationProvider.setPasswordEncoder(passwordEncoder);
+        return new CachingAuthenticationProvider(daoAuthenticationProvider, authenticationCache);
+    }
+
     @Bean
     public OpenAPI customOpenAPI() {
         return new OpenAPI()
@@ -2,36 +2,213 @@ package com.melih.bookmanager.api.controller;
 
 import com.melih.bookmanager.api.model.Book;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import com.melih.bookmanager.service.BookChangeLog;
+import com.melih.bookmanager.service.BookEtags;
+import com.melih.bookmanager.service.BookImportJob;
+import com.melih.bookmanager.service.BookImportService;
 import com.melih.bookmanager.service.BookService;
+import com.melih.bookmanager.service.CatalogVersion;
+import com.melih.bookmanager.utils.BookBulkResponse;
+import com.melih.bookmanager.utils.BookChange;
+import com.melih.bookmanager.utils.BookFilter;
+import com.melih.bookmanager.utils.BookImportStatus;
+import com.melih.bookmanager.utils.BookSearchResponse;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.ObjectReader;
+import tools.jackson.databind.ObjectWriter;
+import tools.jackson.databind.SequenceWriter;
+import tools.jackson.dataformat.csv.CsvMapper;
+import tools.jackson.dataformat.csv.CsvSchema;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequiredArgsConstructor
 @RequestMapping("/books")
 public class BookController {
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+    private static final String TEXT_CSV = "text/csv";
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+    private static final CsvMapper CSV_MAPPER = new CsvMapper();
+    private static final ObjectReader CSV_BOOK_READER = CSV_MAPPER
+            .readerFor(Book.class)
+            .with(CsvSchema.emptySchema().withHeader());
+    // Same columns as expected by the CSV import, which ignores the version
+    private static final ObjectWriter CSV_BOOK_WRITER = CSV_MAPPER
+            .writerFor(Book.class)
+            .with(CsvSchema.builder()
+                    .addColumn("isbn")
+                    .addColumn("title")
+                    .addColumn("author")
+                    .addNumberColumn("pages")
+                    .addNumberColumn("version")
+                    .setUseHeader(true)
+                    .build());
+
     private final BookService bookService;
+    private final BookImportService bookImportService;
+    private final CatalogVersion catalogVersion;
+    private final BookEtags bookEtags;
+    private final BookChangeLog bookChangeLog;
+    private final ObjectMapper objectMapper;
 
-    // Get all books
+    // Get books page by page, the Link header points to the next page.
+    // Optional filters: author (exact), titlePrefix, minPages and maxPages
     @GetMapping
-    public ResponseEntity<List<Book>> getAllBooks() {
-        List<Book> books = bookService.getAllBooks();
+    public ResponseEntity<List<Book>> getAllBooks(
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "" + BookService.DEFAULT_PAGE_SIZE) int limit,
+            @RequestParam(required = false) String author,
+            @RequestParam(required = false) String titlePrefix,
+            @RequestParam(required = false) Integer minPages,
+            @RequestParam(required = false) Integer maxPages,
+            WebRequest webRequest) {
+        // Same catalog version, same page: answered before any query runs
+        String etag = catalogVersion.etag();
+        long lastModified = catalogVersion.lastModified().toEpochMilli();
+        if (webRequest.checkNotModified(etag, lastModified)) {
+            return null;
+        }
+
+        int pageSize = Math.clamp(limit, 1, BookService.MAX_PAGE_SIZE);
+        BookFilter filter = new BookFilter(author, titlePrefix, minPages, maxPages);
+        List<Book> books = bookService.getBooksPage(filter, after, pageSize);
 
         if (books.isEmpty()) {
-            return ResponseEntity.noContent().build();
+            return ResponseEntity.noContent().eTag(etag).lastModified(lastModified).build();
+        }
+        if (books.size() < pageSize) {
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .lastModified(lastModified)
+                    .cacheControl(CacheControl.noCache())
+                    .body(books);
+        }
+        URI next = ServletUriComponentsBuilder
+                .fromCurrentRequest()
+                .replaceQueryParam("after", books.getLast().getIsbn())
+                .replaceQueryParam("limit", pageSize)
+                .build()
+                .toUri();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"")
+                .eTag(etag)
+                .lastModified(lastModified)
+                .cacheControl(CacheControl.noCache())
+                .body(books);
+    }
+
+    // Get the whole catalog as one JSON array, written to the response book by book
+    @GetMapping(params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamAllBooks() {
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+                generator.writeStartArray();
+                bookService.streamAllBooks(generator::writePOJO);
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    // Changes after the given sequence, one JSON object per line in sequence order.
+    // Consumers continue with the sequence of the last line; 410 if those changes aren't kept anymore.
+    @GetMapping("/changes")
+    public ResponseEntity<StreamingResponseBody> streamChanges(
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(defaultValue = "" + BookChangeLog.DEFAULT_LIMIT) int limit) {
+        bookChangeLog.checkAvailable(since);
+        ObjectWriter writer = objectMapper.writerFor(BookChange.class).withRootValueSeparator("\n");
+        StreamingResponseBody body = outputStream -> {
+            try (SequenceWriter changes = writer.writeValues(outputStream)) {
+                bookChangeLog.read(since, Math.clamp(limit, 1, BookChangeLog.MAX_LIMIT), changes::write);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON))
+                .body(body);
+    }
+
+    // Search title and author, every word has to match as a whole word or as its beginning
+    @GetMapping("/search")
+    public BookSearchResponse searchBooks(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "" + BookService.DEFAULT_SEARCH_SIZE) int size) {
+        return bookService.searchBooks(q, Math.max(page, 0), Math.clamp(size, 1, BookService.MAX_SEARCH_SIZE));
+    }
+
+    // Export the whole catalog as NDJSON or CSV for backups, optionally gzip compressed.
+    // Books are written while the database cursor moves, memory use doesn't depend on the catalog size.
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportBooks(
+            @RequestParam(defaultValue = "ndjson") String format,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        boolean csv = format.equalsIgnoreCase("csv");
+        ObjectWriter writer = csv ? CSV_BOOK_WRITER : objectMapper.writerFor(Book.class).withRootValueSeparator("\n");
+
+        StreamingResponseBody body = outputStream -> {
+            OutputStream target = gzip ? new GZIPOutputStream(outputStream, EXPORT_BUFFER_SIZE) : outputStream;
+            try (SequenceWriter books = writer.writeValues(target)) {
+                bookService.streamAllBooks(books::write);
+            }
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(csv ? TEXT_CSV : APPLICATION_NDJSON))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(csv ? "books.csv" : "books.ndjson")
+                        .build()
+                        .toString());
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
         }
-        return ResponseEntity.ok(books);
+        return response.body(body);
     }
 
-    // Get a specific book with its ISBN
+    // Get a specific book with its ISBN. A revalidation whose ETag is still known is answered with 304
+    // before the book is loaded, see BookEtags. Last-Modified is the last change of the whole catalog,
+    // never earlier than the last change of the book.
     @GetMapping("/{isbn}")
-    public Book getBookByIsbn(@PathVariable String isbn) {
-        return bookService.getBookByIsbn(isbn);
+    public ResponseEntity<Book> getBookByIsbn(@PathVariable String isbn, WebRequest webRequest) {
+        long lastModified = catalogVersion.lastModified().toEpochMilli();
+        Book book = null;
+        String etag = bookEtags.find(isbn);
+        if (etag == null) {
+            long generation = bookEtags.generation(isbn);
+            book = bookService.getBookByIsbn(isbn);
+            etag = bookEtags.remember(book, generation);
+        }
+        if (webRequest.checkNotModified(etag, lastModified)) {
+            return null;
+        }
+        if (book == null) {
+            book = bookService.getBookByIsbn(isbn);
+        }
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .lastModified(lastModified)
+                .cacheControl(CacheControl.noCache())
+                .body(book);
     }
 
     // Add a new Book
@@ -46,13 +223,56 @@ public class BookController {
         return ResponseEntity.created(location).body(newBook);
     }
 
-    // Add a list of books at once
+    // Add a list of books at once, already existing isbns are skipped and reported
     @PostMapping("/bulk")
-    public ResponseEntity<String> createBooksBulk(@RequestBody List<Book> books) {
-        bookService.addBooksBulk(books);
-        // Only number of added books in body to save performance
+    public ResponseEntity<BookBulkResponse> createBooksBulk(@RequestBody List<Book> books) {
+        // Only the count and the conflicting isbns in body to save performance
         return ResponseEntity.status(HttpStatus.CREATED)
-                .body(String.format("Successfully added %d books", books.size()));
+                .body(bookService.addBooksBulk(books));
+    }
+
+    // Start an import in the background and return at once, the Location header points to the job
+    @PostMapping("/bulk/jobs")
+    public ResponseEntity<BookImportStatus> startImportJob(@RequestBody List<Book> books) {
+        BookImportStatus status = bookImportService.submit(books);
+        URI location = ServletUriComponentsBuilder
+                .fromCurrentRequest()
+                .path("/{id}")
+                .buildAndExpand(status.getId())
+                .toUri();
+        return ResponseEntity.accepted().location(location).body(status);
+    }
+
+    // Progress of an import job
+    @GetMapping("/bulk/jobs/{id}")
+    public BookImportStatus getImportJob(@PathVariable UUID id) {
+        return bookImportService.getStatus(id);
+    }
+
+    // Cancel an import job, chunks that are already imported stay
+    @DeleteMapping("/bulk/jobs/{id}")
+    public BookImportStatus cancelImportJob(@PathVariable UUID id) {
+        return bookImportService.cancel(id);
+    }
+
+    // Import an upload with one JSON book per line, the books are written while the upload is still running
+    @PostMapping(value = "/import", consumes = APPLICATION_NDJSON)
+    public ResponseEntity<BookImportStatus> importNdjson(InputStream body) {
+        return importResponse(bookImportService.ingest(objectMapper.readerFor(Book.class).readValues(body)));
+    }
+
+    // Import a CSV upload, the header line names the columns (isbn,title,author,pages)
+    @PostMapping(value = "/import", consumes = TEXT_CSV)
+    public ResponseEntity<BookImportStatus> importCsv(InputStream body) {
+        return importResponse(bookImportService.ingest(CSV_BOOK_READER.readValues(body)));
+    }
+
+    // Chunks before a broken line stay imported, the body tells how far the import got
+    private ResponseEntity<BookImportStatus> importResponse(BookImportStatus status) {
+        HttpStatus httpStatus = status.getState().equals(BookImportJob.State.FAILED.name())
+                ? HttpStatus.UNPROCESSABLE_CONTENT
+                : HttpStatus.OK;
+        return ResponseEntity.status(httpStatus).body(status);
     }
 
     // Delete a specific book by isbn
@@ -62,24 +282,35 @@ public class BookController {
         return ResponseEntity.noContent().build();
     }
 
-    // Delete bulk of books
+    // Delete bulk of books, unknown isbns are skipped and reported
     @DeleteMapping("/bulk")
-    public ResponseEntity<String> deleteBooksBulk(@RequestBody List<String> isbn) {
-        bookService.removeBooksBulk(isbn);
-        return ResponseEntity.ok(String.format("Successfully deleted %d books", isbn.size()));
+    public ResponseEntity<BookBulkResponse> deleteBooksBulk(@RequestBody List<String> isbn) {
+        return ResponseEntity.ok(bookService.removeBooksBulk(isbn));
     }
 
-    // Update one book
+    // Update one book. With the ETag of GET /books/{isbn} in If-Match the update fails with 412
+    // if somebody changed the book in the meantime, the response carries the new ETag.
     @PatchMapping
-    public ResponseEntity<String> updateBook(@RequestBody Book book) {
-        bookService.updateBook(book);
-        return ResponseEntity.noContent().build();
+    public ResponseEntity<String> updateBook(
+            @RequestBody Book book,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Book updated = bookService.updateBook(book, expectedEtag(ifMatch));
+        // Not remembered, a later update may have committed already; the next GET caches the current one
+        return ResponseEntity.noContent().eTag(BookEtags.etagOf(updated)).build();
+    }
+
+    // The ETag from BookEtags as sent, lists and weak ETags never equal it and fail the update
+    private static String expectedEtag(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        return ifMatch.trim();
     }
 
-    // Update bulk of books
+    // Update bulk of books, only the given fields are changed. Unknown isbns are reported as missing,
+    // books whose version differs from the one in the request as conflicts.
     @PatchMapping("/bulk")
-    public ResponseEntity<String> updateBooksBulk(@RequestBody List<Book> books) {
-        bookService.updateBooksBulk(books);
-        return ResponseEntity.ok(String.format("Successfully updated %d books", books.size()));
+    public ResponseEntity<BookBulkResponse> updateBooksBulk(@RequestBody List<BookUpdateRequest> books) {
+        return ResponseEntity.ok(bookService.updateBooksBulk(books));
     }
 }
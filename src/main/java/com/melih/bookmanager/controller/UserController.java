@@ -56,26 +56,34 @@ public class UserController {
     }
 
     @GetMapping("{username}/currently-reading")
-    public ResponseEntity<List<Book>> getCurrentlyReadingBooks(@PathVariable String username) {
-        List<Book> currentlyReading = userService.getUserByUsername(username).getCurrentlyReading();
+    public ResponseEntity<List<Book>> getCurrentlyReadingBooks(
+            @PathVariable String username,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "" + UserService.DEFAULT_PAGE_SIZE) int size) {
+        List<Book> currentlyReading = userService.getCurrentlyReadingBooks(
+                username, Math.max(page, 0), Math.clamp(size, 1, UserService.MAX_PAGE_SIZE));
         return ResponseEntity.ok(currentlyReading);
     }
 
     @GetMapping("/{username}/read")
-    public ResponseEntity<List<Book>> getMarkedAsReadBook(@PathVariable String username) {
-        List<Book> readBooks = userService.getUserByUsername(username).getReadBooks();
+    public ResponseEntity<List<Book>> getMarkedAsReadBook(
+            @PathVariable String username,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "" + UserService.DEFAULT_PAGE_SIZE) int size) {
+        List<Book> readBooks = userService.getReadBooks(
+                username, Math.max(page, 0), Math.clamp(size, 1, UserService.MAX_PAGE_SIZE));
         return ResponseEntity.ok(readBooks);
     }
 
     @PostMapping("/currently-reading/{isbn}")
     public ResponseEntity<String> markCurrentlyReadingBook(@PathVariable String isbn, @RequestBody String username) {
-        userService.markAsCurrentlyReading(isbn, username);
+        userService.markAsCurrentlyReading(username, isbn);
         return ResponseEntity.ok("Book successfully marked as currently reading");
     }
 
     @PostMapping("/read/{isbn}")
     public ResponseEntity<String> markReadBook(@PathVariable String isbn, @RequestBody String username) {
-        userService.markAsRead(isbn, username);
+        userService.markAsRead(username, isbn);
         return ResponseEntity.ok("Book successfully marked as read");
     }
 
@@ -0,0 +1,11 @@
+package com.melih.bookmanager.exception.Book;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class BookVersionMismatchException extends RuntimeException {
+    public BookVersionMismatchException(String isbn) {
+        super("Book with isbn " + isbn + " was changed in the meantime");
+    }
+}
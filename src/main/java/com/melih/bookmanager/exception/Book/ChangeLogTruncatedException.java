@@ -0,0 +1,12 @@
+package com.melih.bookmanager.exception.Book;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.GONE)
+public class ChangeLogTruncatedException extends RuntimeException {
+    public ChangeLogTruncatedException(long since, long firstSequence) {
+        super("Changes after " + since + " are not available anymore, the change log starts at " + firstSequence
+                + ", reload the whole catalog");
+    }
+}
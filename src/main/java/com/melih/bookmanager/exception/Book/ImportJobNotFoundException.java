@@ -0,0 +1,13 @@
+package com.melih.bookmanager.exception.Book;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.UUID;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class ImportJobNotFoundException extends RuntimeException {
+    public ImportJobNotFoundException(UUID id) {
+        super("Import job " + id + " not found");
+    }
+}
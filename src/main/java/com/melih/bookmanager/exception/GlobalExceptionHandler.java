@@ -2,9 +2,15 @@ package com.melih.bookmanager.exception;
 
 import com.melih.bookmanager.exception.Book.BookAlreadyExistsException;
 import com.melih.bookmanager.exception.Book.BookNotFoundException;
+import com.melih.bookmanager.exception.Book.BookVersionMismatchException;
+import com.melih.bookmanager.exception.Book.ChangeLogTruncatedException;
+import com.melih.bookmanager.exception.Book.ImportJobNotFoundException;
 import com.melih.bookmanager.exception.User.BadCredentialsException;
 import com.melih.bookmanager.exception.User.InactiveAccountException;
 import com.melih.bookmanager.exception.User.UsernameAlreadyExistsException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -15,18 +21,45 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 @RestControllerAdvice
+@RequiredArgsConstructor
 public class GlobalExceptionHandler {
+    private final MeterRegistry meterRegistry;
 
     @ExceptionHandler(BookNotFoundException.class)
     public ResponseEntity<Object> handleBookNotFoundException(BookNotFoundException ex) {
+        countBookError(ex);
         return buildExceptionResponseBody(ex.getMessage(), HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(BookAlreadyExistsException.class)
     public ResponseEntity<Object> handleBookAlreadyExistsException(BookAlreadyExistsException ex) {
+        countBookError(ex);
         return buildExceptionResponseBody(ex.getMessage(), HttpStatus.CONFLICT);
     }
 
+    @ExceptionHandler(BookVersionMismatchException.class)
+    public ResponseEntity<Object> handleBookVersionMismatchException(BookVersionMismatchException ex) {
+        countBookError(ex);
+        return buildExceptionResponseBody(ex.getMessage(), HttpStatus.PRECONDITION_FAILED);
+    }
+
+    // Concurrent update between reading the book and committing the change
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Object> handleOptimisticLockingFailure(OptimisticLockingFailureException ex) {
+        countBookError(ex);
+        return buildExceptionResponseBody("The book was changed concurrently, please retry", HttpStatus.CONFLICT);
+    }
+
+    @ExceptionHandler(ImportJobNotFoundException.class)
+    public ResponseEntity<Object> handleImportJobNotFoundException(ImportJobNotFoundException ex) {
+        return buildExceptionResponseBody(ex.getMessage(), HttpStatus.NOT_FOUND);
+    }
+
+    @ExceptionHandler(ChangeLogTruncatedException.class)
+    public ResponseEntity<Object> handleChangeLogTruncatedException(ChangeLogTruncatedException ex) {
+        return buildExceptionResponseBody(ex.getMessage(), HttpStatus.GONE);
+    }
+
     @ExceptionHandler(BadCredentialsException.class)
     public ResponseEntity<Object> handleBadCredentials(BadCredentialsException ex) {
         return buildExceptionResponseBody(ex.getMessage(), HttpStatus.UNAUTHORIZED);
@@ -42,6 +75,10 @@ public class GlobalExceptionHandler {
         return buildExceptionResponseBody(ex.getMessage(), HttpStatus.CONFLICT);
     }
 
+    private void countBookError(RuntimeException ex) {
+        meterRegistry.counter("bookmanager.books.errors", "exception", ex.getClass().getSimpleName()).increment();
+    }
+
     private ResponseEntity<Object> buildExceptionResponseBody(String message, HttpStatus status) {
         Map<String, Object> body = new LinkedHashMap<>();
         body.put("timestamp", LocalDateTime.now());
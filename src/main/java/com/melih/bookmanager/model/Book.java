@@ -1,21 +1,54 @@
 package com.melih.bookmanager.api.model;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 
+import static com.melih.bookmanager.config.SecondLevelCacheConfig.BOOK_REGION;
+
 
 @Entity
+// Indexes for the filters of GET /books, the isbn in the author index keeps the keyset order without a sort
+@Table(indexes = {
+        @Index(name = "idx_book_author_isbn", columnList = "author, isbn"),
+        @Index(name = "idx_book_title", columnList = "title"),
+        @Index(name = "idx_book_pages", columnList = "pages")
+})
+// Read-write keeps the cache consistent with concurrent transactions, writes lock the entry until the commit
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = BOOK_REGION)
 @Getter @Setter
-@AllArgsConstructor @NoArgsConstructor
+@NoArgsConstructor
+// Identity is the isbn, needed for the reading list sets in User
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
 public class Book {
     @Id
+    @EqualsAndHashCode.Include
     private String isbn;
     private String title;
     private String author;
     private int pages;
+
+    // Incremented with every change, the default fills rows that existed before the column
+    @Version
+    @ColumnDefault("0")
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private long version;
+
+    public Book(String isbn, String title, String author, int pages) {
+        this.isbn = isbn;
+        this.title = title;
+        this.author = author;
+        this.pages = pages;
+    }
 }
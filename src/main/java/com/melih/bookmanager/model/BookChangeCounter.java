@@ -0,0 +1,25 @@
+package com.melih.bookmanager.api.model;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+// Single row holding the last sequence handed out to a BookChangeEntry. Writers lock it until their commit,
+// so sequences become visible in order and a rolled back transaction leaves no gap.
+@Entity
+@Table(name = "book_change_counter")
+@Getter @Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookChangeCounter {
+    public static final int ID = 1;
+
+    @Id
+    private int id;
+
+    private long lastSequence;
+}
@@ -0,0 +1,35 @@
+package com.melih.bookmanager.api.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// One changed book in the outbox behind GET /books/changes, written in the transaction of the change.
+// The sequence comes from BookChangeCounter, so it is the same on every instance.
+@Entity
+@Table(name = "book_change")
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookChangeEntry {
+    @Id
+    private long sequence;
+
+    @Column(nullable = false)
+    private Instant changedAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false)
+    private BookChangeType type;
+
+    @Column(nullable = false)
+    private String isbn;
+}
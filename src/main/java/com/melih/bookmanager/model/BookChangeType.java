@@ -0,0 +1,8 @@
+package com.melih.bookmanager.api.model;
+
+// Kind of a book change, in BookChangedEvent and in the change outbox
+public enum BookChangeType {
+    INSERTED,
+    UPDATED,
+    DELETED
+}
@@ -2,14 +2,23 @@ package com.melih.bookmanager.api.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.CollectionIdJdbcTypeCode;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
 
+import static com.melih.bookmanager.config.SecondLevelCacheConfig.*;
+
 @Entity
 @Table(name = "app_user")
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = USER_REGION)
+// Lookups by username resolve the id from this cache and then hit the entity cache
+@NaturalIdCache(region = USER_BY_USERNAME_REGION)
 @Getter @Setter
 @NoArgsConstructor
 public class User {
@@ -17,6 +26,7 @@ public class User {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private long id;
 
+    @NaturalId
     @Column(unique = true, nullable = false)
     private String username;
 
@@ -27,21 +37,29 @@ public class User {
 
     private boolean active = true;
 
+    // Sets instead of bags: Hibernate only inserts or deletes the changed row
+    // instead of rewriting the whole join table, duplicates are rejected by the database
     @ManyToMany
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = USER_CURRENTLY_READING_REGION)
     @JoinTable(
             name = "user_currently_reading",
             joinColumns = @JoinColumn(name = "user_id"),
-            inverseJoinColumns = @JoinColumn(name = "book_isbn")
+            inverseJoinColumns = @JoinColumn(name = "book_isbn"),
+            uniqueConstraints = @UniqueConstraint(name = "uk_user_currently_reading", columnNames = {"user_id", "book_isbn"}),
+            indexes = @Index(name = "idx_user_currently_reading_book", columnList = "book_isbn")
     )
-    private List<Book> currentlyReading = new ArrayList<>();
+    private Set<Book> currentlyReading = new HashSet<>();
 
     @ManyToMany
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = USER_READ_BOOKS_REGION)
     @JoinTable(
             name = "user_read_books",
             joinColumns = @JoinColumn(name = "user_id"),
-            inverseJoinColumns = @JoinColumn(name = "book_isbn")
+            inverseJoinColumns = @JoinColumn(name = "book_isbn"),
+            uniqueConstraints = @UniqueConstraint(name = "uk_user_read_books", columnNames = {"user_id", "book_isbn"}),
+            indexes = @Index(name = "idx_user_read_books_book", columnList = "book_isbn")
     )
-    private List<Book> readBooks = new ArrayList<>();
+    private Set<Book> readBooks = new HashSet<>();
 
     public User(String username, String password) {
         this.username = username;
@@ -0,0 +1,103 @@
+package com.melih.bookmanager.repository.book;
+
+import com.melih.bookmanager.api.model.BookChangeCounter;
+import com.melih.bookmanager.api.model.BookChangeEntry;
+import com.melih.bookmanager.api.model.BookChangeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Outbox of the book changes in the database, BookChangeLog copies it into its segment files.
+// Also used with bookmanager.storage=memory, the database then only holds the outbox and the users.
+@Repository
+@RequiredArgsConstructor
+public class BookChangeRepository {
+    private static final int BATCH_SIZE = 500;
+    private static final String LOCK_COUNTER_SQL = "select last_sequence from book_change_counter where id = ? for update";
+    private static final String UPDATE_COUNTER_SQL = "update book_change_counter set last_sequence = ? where id = ?";
+    private static final String INSERT_SQL = "insert into book_change (sequence, changed_at, change_type, isbn) values (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Called in the transaction of the change. The counter row stays locked until the commit,
+    // which serializes the book writes of all instances for that short moment.
+    // Plain JDBC like the bulk writes of BookRepositoryCustomImpl: this runs right before the commit of
+    // the caller and must not flush or clear the persistence context under its feet.
+    @Transactional
+    public void append(BookChangeType type, Collection<String> isbns) {
+        if (isbns.isEmpty()) {
+            return;
+        }
+        long lastSequence;
+        try {
+            lastSequence = jdbcTemplate.queryForObject(LOCK_COUNTER_SQL, Long.class, BookChangeCounter.ID);
+        } catch (EmptyResultDataAccessException e) {
+            throw new IllegalStateException("The change counter is missing, see createCounter()", e);
+        }
+        jdbcTemplate.update(UPDATE_COUNTER_SQL, lastSequence + isbns.size(), BookChangeCounter.ID);
+        Instant now = Instant.now();
+        List<BookChangeEntry> entries = new ArrayList<>(isbns.size());
+        for (String isbn : isbns) {
+            entries.add(new BookChangeEntry(lastSequence + entries.size() + 1, now, type, isbn));
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, entries, BATCH_SIZE, (statement, entry) -> {
+            statement.setLong(1, entry.getSequence());
+            statement.setObject(2, OffsetDateTime.ofInstant(entry.getChangedAt(), ZoneOffset.UTC));
+            statement.setString(3, entry.getType().name());
+            statement.setString(4, entry.getIsbn());
+        });
+    }
+
+    // Once per database, instances starting at the same time may both try
+    @Transactional
+    public void createCounter() {
+        if (entityManager.find(BookChangeCounter.class, BookChangeCounter.ID) == null) {
+            entityManager.persist(new BookChangeCounter(BookChangeCounter.ID, 0));
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public long lastSequence() {
+        BookChangeCounter counter = entityManager.find(BookChangeCounter.class, BookChangeCounter.ID);
+        return counter == null ? 0 : counter.getLastSequence();
+    }
+
+    @Transactional(readOnly = true)
+    public List<BookChangeEntry> findAfter(long sequence, int limit) {
+        return entityManager.createQuery(
+                        "select c from BookChangeEntry c where c.sequence > :sequence order by c.sequence", BookChangeEntry.class)
+                .setParameter("sequence", sequence)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    // First sequence changed at or after the given time, null if there is none
+    @Transactional(readOnly = true)
+    public Long firstSequenceSince(Instant changedAt) {
+        return entityManager.createQuery("select min(c.sequence) from BookChangeEntry c where c.changedAt >= :changedAt", Long.class)
+                .setParameter("changedAt", changedAt)
+                .getSingleResult();
+    }
+
+    // Retention of the outbox, instances that fall further behind start their log over
+    @Transactional
+    public int deleteOlderThan(Instant changedAt) {
+        return entityManager.createQuery("delete from BookChangeEntry c where c.changedAt < :changedAt")
+                .setParameter("changedAt", changedAt)
+                .executeUpdate();
+    }
+}
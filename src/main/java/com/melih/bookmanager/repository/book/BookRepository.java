@@ -1,8 +1,75 @@
 package com.melih.bookmanager.repository.book;
 
 import com.melih.bookmanager.api.model.Book;
-import org.springframework.data.jpa.repository.JpaRepository;
+import com.melih.bookmanager.config.CacheConfig;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.Repository;
 
-public interface BookRepository extends JpaRepository<Book, String> {
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
+// Only the operations the application uses instead of all of JpaRepository, so InMemoryBookRepository
+// can implement every one of them. Spring Data implements the CRUD methods below like in JpaRepository.
+public interface BookRepository extends Repository<Book, String>, BookRepositoryCustom {
+
+    Optional<Book> findById(String isbn);
+
+    boolean existsById(String isbn);
+
+    List<Book> findAllById(Iterable<String> isbns);
+
+    List<Book> findAll();
+
+    long count();
+
+    // Inserts unknown isbns and updates known ones, an existing book needs the version it was read with
+    <S extends Book> S save(S book);
+
+    <S extends Book> List<S> saveAll(Iterable<S> books);
+
+    void deleteById(String isbn);
+
+    void deleteAllById(Iterable<? extends String> isbns);
+
+    void deleteAll();
+
+    // Cached lookup for the read path, writes in BookService evict the entries.
+    // Unknown isbns are only cached when bookmanager.cache.books.cache-missing is enabled.
+    @Cacheable(cacheNames = CacheConfig.BOOKS_CACHE, unless = "#result == null and !@cacheConfig.cacheMissingBooks")
+    Optional<Book> findBookByIsbn(String isbn);
+
+    // First page of the catalog, ordered by the primary key
+    List<Book> findAllByOrderByIsbnAsc(Limit limit);
+
+    // Keyset pagination: next page starts right after the last isbn of the previous one
+    List<Book> findByIsbnGreaterThanOrderByIsbnAsc(String isbn, Limit limit);
+
+    // One round trip to find out which of the given isbns are already taken
+    @Query("select b.isbn from Book b where b.isbn in :isbns")
+    List<String> findExistingIsbns(Collection<String> isbns);
+
+    // Reading list entries have to go before the books they point to.
+    // The table as query space limits the cache invalidation to that reading list,
+    // without it Hibernate clears every second-level cache region after a native statement.
+    @Modifying
+    @Query(value = "delete from user_currently_reading where book_isbn in :isbns", nativeQuery = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "user_currently_reading"))
+    int deleteCurrentlyReadingEntries(Collection<String> isbns);
+
+    @Modifying
+    @Query(value = "delete from user_read_books where book_isbn in :isbns", nativeQuery = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "user_read_books"))
+    int deleteReadBookEntries(Collection<String> isbns);
+
+    // Single statement delete, unlike deleteAllById it doesn't load the entities first
+    @Modifying(clearAutomatically = true)
+    @Query("delete from Book b where b.isbn in :isbns")
+    int deleteBooksByIsbnIn(Collection<String> isbns);
 }
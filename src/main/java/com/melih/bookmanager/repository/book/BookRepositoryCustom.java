@@ -0,0 +1,29 @@
+package com.melih.bookmanager.repository.book;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.utils.BookFilter;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// Operations that need direct access to the EntityManager
+public interface BookRepositoryCustom {
+
+    // Keyset page of the books matching the filter, ordered by isbn.
+    // Only the given filters end up in the query, so the database can pick the matching index.
+    List<Book> findPage(BookFilter filter, String after, int limit);
+
+    // Walks the whole catalog ordered by isbn with a forward-only cursor.
+    // Every book is detached after the action ran, so memory stays constant.
+    void forEachBook(Consumer<? super Book> action);
+
+    // Persists new books as one JDBC batch without the merge select of save().
+    // The caller has to make sure that none of the isbns exist yet.
+    void insertAll(List<Book> books);
+
+    // Applies only the provided fields as one JDBC batch of UPDATE statements.
+    // Returns the updated row count per request in the same order, 0 for unknown isbns
+    // and for requests whose version doesn't match anymore.
+    int[] updateAll(List<BookUpdateRequest> updates);
+}
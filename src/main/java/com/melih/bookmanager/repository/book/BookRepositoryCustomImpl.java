@@ -0,0 +1,190 @@
+package com.melih.bookmanager.repository.book;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.utils.BookFilter;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+@RequiredArgsConstructor
+@Slf4j
+public class BookRepositoryCustomImpl implements BookRepositoryCustom {
+    // Same statement for every row so the driver can batch it, null keeps the current value.
+    // The version is raised like Hibernate would and checked when the request has one,
+    // a stale row is simply not matched instead of being locked.
+    private static final String PARTIAL_UPDATE_SQL =
+            "update book set title = coalesce(?, title), author = coalesce(?, author), " +
+            "pages = coalesce(?, pages), version = version + 1 where isbn = ? and version = coalesce(?, version)";
+
+    private final JdbcTemplate jdbcTemplate;
+    // Whether the driver reports update counts for batched statements, null until the first batch ran
+    private volatile Boolean batchCountsKnown;
+
+    // Rows per round trip while walking the catalog. Drivers like PostgreSQL only use a cursor
+    // inside a transaction, otherwise they load the whole result at once.
+    @Value("${bookmanager.export.fetch-size:1000}")
+    private int streamFetchSize = 1000;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Book> findPage(BookFilter filter, String after, int limit) {
+        // Built per request instead of one query with "(:author is null or ...)" conditions,
+        // those optional conditions keep the database from using the indexes
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Book> query = cb.createQuery(Book.class);
+        Root<Book> book = query.from(Book.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (StringUtils.hasText(filter.getAuthor())) {
+            predicates.add(cb.equal(book.get("author"), filter.getAuthor()));
+        }
+        if (StringUtils.hasText(filter.getTitlePrefix())) {
+            predicates.add(cb.like(book.get("title"), escapeLike(filter.getTitlePrefix()) + "%", '\\'));
+        }
+        if (filter.getMinPages() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(book.get("pages"), filter.getMinPages()));
+        }
+        if (filter.getMaxPages() != null) {
+            predicates.add(cb.lessThanOrEqualTo(book.get("pages"), filter.getMaxPages()));
+        }
+        if (StringUtils.hasText(after)) {
+            predicates.add(cb.greaterThan(book.get("isbn"), after));
+        }
+
+        query.select(book)
+                .where(predicates.toArray(Predicate[]::new))
+                .orderBy(cb.asc(book.get("isbn")));
+        return entityManager.createQuery(query)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void forEachBook(Consumer<? super Book> action) {
+        try (Stream<Book> books = entityManager
+                .createQuery("select b from Book b order by b.isbn", Book.class)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, streamFetchSize)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream()) {
+            books.forEach(book -> {
+                action.accept(book);
+                // Keep the persistence context empty while walking millions of rows
+                entityManager.detach(book);
+            });
+        }
+    }
+
+    // A title prefix like "100%" must not turn into a wildcard
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    @Override
+    @Transactional
+    public void insertAll(List<Book> books) {
+        for (Book book : books) {
+            entityManager.persist(book);
+        }
+        // Send the batch and drop the managed copies, otherwise the context grows with every chunk
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Override
+    @Transactional
+    public int[] updateAll(List<BookUpdateRequest> updates) {
+        // Pending changes must reach the database before the plain JDBC statements run
+        entityManager.flush();
+        int[] counts = Boolean.FALSE.equals(batchCountsKnown) ? updateOneByOne(updates) : updateBatched(updates);
+        // Managed books would still show the old values
+        entityManager.clear();
+        evictAfterCompletion(updates.stream().map(BookUpdateRequest::getIsbn).toList());
+        return counts;
+    }
+
+    // A count of 0 is a version conflict, so SUCCESS_NO_INFO can't be taken as a match. Until the driver showed
+    // whether it reports batch counts, the batch runs after a savepoint and is undone and run row by row if it doesn't.
+    private int[] updateBatched(List<BookUpdateRequest> updates) {
+        Savepoint savepoint = batchCountsKnown == null
+                ? jdbcTemplate.execute((ConnectionCallback<Savepoint>) Connection::setSavepoint)
+                : null;
+        int[] counts = Arrays.stream(jdbcTemplate.batchUpdate(PARTIAL_UPDATE_SQL, updates, updates.size(),
+                        BookRepositoryCustomImpl::bind))
+                .flatMapToInt(Arrays::stream)
+                .toArray();
+        boolean known = Arrays.stream(counts).noneMatch(count -> count == Statement.SUCCESS_NO_INFO);
+        if (savepoint != null) {
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                if (known) {
+                    connection.releaseSavepoint(savepoint);
+                } else {
+                    connection.rollback(savepoint);
+                }
+                return null;
+            });
+            batchCountsKnown = known;
+        }
+        if (!known) {
+            log.info("The JDBC driver doesn't report update counts of batches, bulk updates run one statement per book");
+            return updateOneByOne(updates);
+        }
+        return counts;
+    }
+
+    private int[] updateOneByOne(List<BookUpdateRequest> updates) {
+        return updates.stream()
+                .mapToInt(update -> jdbcTemplate.update(PARTIAL_UPDATE_SQL, statement -> bind(statement, update)))
+                .toArray();
+    }
+
+    private static void bind(PreparedStatement statement, BookUpdateRequest update) throws SQLException {
+        statement.setString(1, update.getTitle());
+        statement.setString(2, update.getAuthor());
+        statement.setObject(3, update.getPages());
+        statement.setString(4, update.getIsbn());
+        statement.setObject(5, update.getVersion(), Types.BIGINT);
+    }
+
+    // The JDBC statements bypass Hibernate, so the second-level cache doesn't know about them.
+    // Evicting after the commit keeps a concurrent load from putting the old row back.
+    private void evictAfterCompletion(List<String> isbns) {
+        Cache cache = entityManager.getEntityManagerFactory().getCache();
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                isbns.forEach(isbn -> cache.evict(Book.class, isbn));
+            }
+        });
+    }
+}
@@ -1,48 +1,806 @@
 package com.melih.bookmanager.repository.book;
 
 import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.utils.BookFilter;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Repository;
-import static com.melih.bookmanager.service.BookService.generateDummyBooks;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
 
 import java.util.*;
-/*
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Keeps the catalog in memory instead of the database, enabled with bookmanager.storage=memory.
+// Books are spread over stripes by their packed isbn. Every stripe keeps its books sorted in parallel
+// arrays and has its own lock, so writers of different stripes don't wait for each other.
+// Scans hold the read locks of all stripes and see the catalog in one consistent state.
+// Reading lists stay in the database and can't reference the books stored here.
+// Writes inside a transaction take effect at once, other readers see them before the commit. The books as they
+// were before the first write are kept per transaction and put back if it rolls back, e.g. because the outbox
+// entry of the change couldn't be written. A write of another transaction to the same book in between is
+// undone with them, memory mode has no isolation between transactions.
 @Repository
+@Primary
+@ConditionalOnProperty(name = "bookmanager.storage", havingValue = "memory")
 public class InMemoryBookRepository implements BookRepository {
-    private Map<String, Book> books = new HashMap<>();
+    private static final int STRIPE_BITS = 4;
+    private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+    // Lock index of the isbns that don't fit into a packed key
+    private static final int OVERFLOW = STRIPE_COUNT;
+
+    private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+    // Isbns that can't be packed, e.g. longer than 17 characters. Compared as strings.
+    // A stored book is never changed, updates put a new one, so snapshots of the map can share them.
+    private final NavigableMap<String, Book> overflow = new TreeMap<>();
+    // One lock per stripe plus the overflow lock, always taken in ascending order
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[STRIPE_COUNT + 1];
 
-    // For testing
     public InMemoryBookRepository() {
-        List<Book> dummyBooks = generateDummyBooks();
-        for(Book book : dummyBooks) {
-            this.books.put(book.getISBN(), book);
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe();
+        }
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // ----- Lookups -----
+
+    @Override
+    public Optional<Book> findById(String isbn) {
+        long key = IsbnKey.encode(isbn);
+        int lockIndex = lockIndexOf(key);
+        Lock lock = locks[lockIndex].readLock();
+        lock.lock();
+        try {
+            if (lockIndex == OVERFLOW) {
+                return Optional.ofNullable(overflow.get(isbn)).map(InMemoryBookRepository::copyOf);
+            }
+            Stripe stripe = stripes[lockIndex];
+            int index = stripe.indexOf(key);
+            return index >= 0 ? Optional.of(stripe.bookAt(index)) : Optional.empty();
+        } finally {
+            lock.unlock();
         }
     }
 
+    @Override
+    public Optional<Book> findBookByIsbn(String isbn) {
+        return findById(isbn);
+    }
+
+    @Override
+    public boolean existsById(String isbn) {
+        return findById(isbn).isPresent();
+    }
+
+    @Override
+    public List<Book> findAllById(Iterable<String> isbns) {
+        List<Book> books = new ArrayList<>();
+        for (String isbn : isbns) {
+            findById(isbn).ifPresent(books::add);
+        }
+        return books;
+    }
+
+    @Override
+    public List<String> findExistingIsbns(Collection<String> isbns) {
+        return isbns.stream().filter(this::existsById).toList();
+    }
+
+    @Override
+    public long count() {
+        lockAll(false);
+        try {
+            long count = overflow.size();
+            for (Stripe stripe : stripes) {
+                count += stripe.size;
+            }
+            return count;
+        } finally {
+            unlockAll(false);
+        }
+    }
+
+    // ----- Ordered scans -----
+
+    @Override
+    public List<Book> findAllByOrderByIsbnAsc(Limit limit) {
+        return findPage(new BookFilter(), null, limitOf(limit));
+    }
+
+    @Override
+    public List<Book> findByIsbnGreaterThanOrderByIsbnAsc(String isbn, Limit limit) {
+        return findPage(new BookFilter(), isbn, limitOf(limit));
+    }
+
+    @Override
+    public List<Book> findPage(BookFilter filter, String after, int limit) {
+        Predicate<Cursor> matches = matcherOf(filter);
+        List<Book> page = new ArrayList<>(Math.min(limit, 1024));
+        lockAll(false);
+        try {
+            scan(stripes, overflow, after, cursor -> {
+                if (matches.test(cursor)) {
+                    page.add(cursor.toBook());
+                }
+                return page.size() < limit;
+            });
+        } finally {
+            unlockAll(false);
+        }
+        return page;
+    }
+
+    @Override
+    public void forEachBook(Consumer<? super Book> action) {
+        // The action may write to a slow client, it works on a copy instead of holding the locks
+        Stripe[] snapshot = new Stripe[STRIPE_COUNT];
+        NavigableMap<String, Book> overflowSnapshot;
+        lockAll(false);
+        try {
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                snapshot[i] = stripes[i].copy();
+            }
+            overflowSnapshot = new TreeMap<>(overflow);
+        } finally {
+            unlockAll(false);
+        }
+        scan(snapshot, overflowSnapshot, null, cursor -> {
+            action.accept(cursor.toBook());
+            return true;
+        });
+    }
+
     @Override
     public List<Book> findAll() {
-        return new ArrayList<>(books.values());
+        List<Book> books = new ArrayList<>();
+        forEachBook(books::add);
+        return books;
+    }
+
+    // ----- Writes -----
+
+    // Like the merge of JPA: an unknown isbn is inserted, an existing book can only be saved with the version
+    // it was read with. New books that must not replace a concurrently added one go through insertAll.
+    @Override
+    public <S extends Book> S save(S book) {
+        long key = IsbnKey.encode(book.getIsbn());
+        int lockIndex = lockIndexOf(key);
+        Lock lock = locks[lockIndex].writeLock();
+        lock.lock();
+        try {
+            Undo undo = undo();
+            if (undo != null) {
+                undo.remember(book.getIsbn(), storedLocked(book.getIsbn()));
+            }
+            if (lockIndex == OVERFLOW) {
+                Book stored = overflow.get(book.getIsbn());
+                long version = nextVersion(stored == null ? null : stored.getVersion(), book);
+                book.setVersion(version);
+                overflow.put(book.getIsbn(), copyOf(book));
+                return book;
+            }
+            Stripe stripe = stripes[lockIndex];
+            int index = stripe.indexOf(key);
+            if (index >= 0) {
+                book.setVersion(nextVersion(stripe.versions[index], book));
+                stripe.set(index, book);
+            } else {
+                book.setVersion(0);
+                stripe.insertAt(-index - 1, key, book);
+            }
+            return book;
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public void save(Book book) {
-        books.put(book.getISBN(), book);
+    public <S extends Book> List<S> saveAll(Iterable<S> books) {
+        List<S> saved = new ArrayList<>();
+        for (S book : books) {
+            saved.add(save(book));
+        }
+        return saved;
+    }
+
+    // All books are added or none, like the single transaction of the JPA version
+    @Override
+    public void insertAll(List<Book> books) {
+        Map<Integer, List<Book>> byStripe = groupByStripe(books, Book::getIsbn);
+        lock(byStripe.keySet(), true);
+        try {
+            Set<String> seen = new HashSet<>();
+            for (Book book : books) {
+                if (!seen.add(book.getIsbn()) || containsLocked(book.getIsbn())) {
+                    throw new DuplicateKeyException("Book " + book.getIsbn() + " already exists");
+                }
+            }
+            Undo undo = undo();
+            if (undo != null) {
+                books.forEach(book -> undo.remember(book.getIsbn(), null));
+            }
+            byStripe.forEach((lockIndex, stripeBooks) -> {
+                if (lockIndex == OVERFLOW) {
+                    stripeBooks.forEach(book -> {
+                        book.setVersion(0);
+                        overflow.put(book.getIsbn(), copyOf(book));
+                    });
+                } else {
+                    stripes[lockIndex].insertSorted(stripeBooks);
+                }
+            });
+        } finally {
+            unlock(byStripe.keySet(), true);
+        }
+    }
+
+    @Override
+    public int[] updateAll(List<BookUpdateRequest> updates) {
+        Map<Integer, List<BookUpdateRequest>> byStripe = groupByStripe(updates, BookUpdateRequest::getIsbn);
+        int[] counts = new int[updates.size()];
+        lock(byStripe.keySet(), true);
+        try {
+            Undo undo = undo();
+            for (int i = 0; i < updates.size(); i++) {
+                String isbn = updates.get(i).getIsbn();
+                Book stored = undo == null ? null : storedLocked(isbn);
+                counts[i] = applyLocked(updates.get(i)) ? 1 : 0;
+                if (undo != null && counts[i] == 1) {
+                    undo.remember(isbn, stored);
+                }
+            }
+        } finally {
+            unlock(byStripe.keySet(), true);
+        }
+        return counts;
     }
 
     @Override
-    public void delete(String isbn) {
-        books.remove(isbn);
+    public int deleteBooksByIsbnIn(Collection<String> isbns) {
+        Map<Integer, List<String>> byStripe = groupByStripe(isbns, Function.identity());
+        lock(byStripe.keySet(), true);
+        try {
+            Undo undo = undo();
+            if (undo != null) {
+                for (String isbn : isbns) {
+                    Book stored = storedLocked(isbn);
+                    if (stored != null) {
+                        undo.remember(isbn, stored);
+                    }
+                }
+            }
+            int deleted = 0;
+            for (Map.Entry<Integer, List<String>> entry : byStripe.entrySet()) {
+                if (entry.getKey() == OVERFLOW) {
+                    for (String isbn : entry.getValue()) {
+                        deleted += overflow.remove(isbn) != null ? 1 : 0;
+                    }
+                } else {
+                    deleted += stripes[entry.getKey()].removeAll(entry.getValue());
+                }
+            }
+            return deleted;
+        } finally {
+            unlock(byStripe.keySet(), true);
+        }
     }
 
-    public Optional<Book> findByIsbn(String isbn) {
-        return Optional.ofNullable(books.get(isbn));
+    // Reading lists can only point to books in the database, there is nothing to delete
+    @Override
+    public int deleteCurrentlyReadingEntries(Collection<String> isbns) {
+        return 0;
     }
 
-    public boolean existsByISBN(String isbn) {
-        return books.containsKey(isbn);
+    @Override
+    public int deleteReadBookEntries(Collection<String> isbns) {
+        return 0;
     }
 
-    public void clear() {
-        this.books.clear();
+    @Override
+    public void deleteById(String isbn) {
+        deleteBooksByIsbnIn(List.of(isbn));
+    }
+
+    @Override
+    public void deleteAllById(Iterable<? extends String> isbns) {
+        List<String> list = new ArrayList<>();
+        isbns.forEach(list::add);
+        deleteBooksByIsbnIn(list);
+    }
+
+    @Override
+    public void deleteAll() {
+        lockAll(true);
+        try {
+            Undo undo = undo();
+            if (undo != null) {
+                scan(stripes, overflow, null, cursor -> {
+                    undo.remember(cursor.isbn(), cursor.toBook());
+                    return true;
+                });
+            }
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                stripes[i] = new Stripe();
+            }
+            overflow.clear();
+        } finally {
+            unlockAll(true);
+        }
+    }
+
+    // ----- Rollback -----
+
+    // The undo log of the current transaction, null outside of one
+    private Undo undo() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        Undo undo = (Undo) TransactionSynchronizationManager.getResource(this);
+        if (undo == null) {
+            undo = new Undo();
+            TransactionSynchronizationManager.bindResource(this, undo);
+            TransactionSynchronizationManager.registerSynchronization(undo);
+        }
+        return undo;
+    }
+
+    // Puts the books back as they were, null removes a book that didn't exist
+    private void restore(Map<String, Book> before) {
+        Map<Integer, List<String>> byStripe = groupByStripe(before.keySet(), Function.identity());
+        lock(byStripe.keySet(), true);
+        try {
+            for (Map.Entry<Integer, List<String>> entry : byStripe.entrySet()) {
+                List<String> removed = new ArrayList<>();
+                for (String isbn : entry.getValue()) {
+                    Book book = before.get(isbn);
+                    if (book == null) {
+                        removed.add(isbn);
+                    } else if (entry.getKey() == OVERFLOW) {
+                        overflow.put(isbn, book);
+                    } else {
+                        Stripe stripe = stripes[entry.getKey()];
+                        long key = IsbnKey.encode(isbn);
+                        int index = stripe.indexOf(key);
+                        if (index >= 0) {
+                            stripe.set(index, book);
+                        } else {
+                            stripe.insertAt(-index - 1, key, book);
+                        }
+                    }
+                }
+                if (entry.getKey() == OVERFLOW) {
+                    removed.forEach(overflow::remove);
+                } else if (!removed.isEmpty()) {
+                    stripes[entry.getKey()].removeAll(removed);
+                }
+            }
+        } finally {
+            unlock(byStripe.keySet(), true);
+        }
+    }
+
+    // Books of one transaction as they were before its first write to them
+    private final class Undo implements TransactionSynchronization {
+        private final Map<String, Book> before = new HashMap<>();
+
+        void remember(String isbn, Book stored) {
+            if (!before.containsKey(isbn)) {
+                before.put(isbn, stored);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(InMemoryBookRepository.this);
+            if (status == STATUS_ROLLED_BACK && !before.isEmpty()) {
+                restore(before);
+            }
+        }
+    }
+
+    // ----- Helpers, the callers hold the locks -----
+
+    // The stored book or null. Overflow books are never changed and can be shared.
+    private Book storedLocked(String isbn) {
+        long key = IsbnKey.encode(isbn);
+        if (key == IsbnKey.NOT_ENCODABLE) {
+            return overflow.get(isbn);
+        }
+        Stripe stripe = stripes[stripeOf(key)];
+        int index = stripe.indexOf(key);
+        return index >= 0 ? stripe.bookAt(index) : null;
+    }
+
+    private static int stripeOf(long key) {
+        // Fibonacci hashing, the top bits of the product are spread well even for sequential isbns
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - STRIPE_BITS));
+    }
+
+    private static int lockIndexOf(long key) {
+        return key == IsbnKey.NOT_ENCODABLE ? OVERFLOW : stripeOf(key);
+    }
+
+    private static <T> Map<Integer, List<T>> groupByStripe(Collection<T> items, Function<T, String> isbnOf) {
+        Map<Integer, List<T>> byStripe = new TreeMap<>();
+        for (T item : items) {
+            int lockIndex = lockIndexOf(IsbnKey.encode(isbnOf.apply(item)));
+            byStripe.computeIfAbsent(lockIndex, index -> new ArrayList<>()).add(item);
+        }
+        return byStripe;
+    }
+
+    private void lock(Set<Integer> lockIndexes, boolean write) {
+        // Ascending order, the key set comes from a TreeMap
+        for (int lockIndex : lockIndexes) {
+            lockOf(lockIndex, write).lock();
+        }
+    }
+
+    private void unlock(Set<Integer> lockIndexes, boolean write) {
+        for (int lockIndex : lockIndexes) {
+            lockOf(lockIndex, write).unlock();
+        }
+    }
+
+    private void lockAll(boolean write) {
+        for (int i = 0; i < locks.length; i++) {
+            lockOf(i, write).lock();
+        }
+    }
+
+    private void unlockAll(boolean write) {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            lockOf(i, write).unlock();
+        }
+    }
+
+    private Lock lockOf(int lockIndex, boolean write) {
+        return write ? locks[lockIndex].writeLock() : locks[lockIndex].readLock();
+    }
+
+    private boolean containsLocked(String isbn) {
+        long key = IsbnKey.encode(isbn);
+        return key == IsbnKey.NOT_ENCODABLE ? overflow.containsKey(isbn) : stripes[stripeOf(key)].indexOf(key) >= 0;
+    }
+
+    // Same semantics as the SQL update: null keeps the value, a given version has to match
+    private boolean applyLocked(BookUpdateRequest update) {
+        long key = IsbnKey.encode(update.getIsbn());
+        if (key == IsbnKey.NOT_ENCODABLE) {
+            Book stored = overflow.get(update.getIsbn());
+            if (stored == null || (update.getVersion() != null && update.getVersion() != stored.getVersion())) {
+                return false;
+            }
+            Book updated = copyOf(stored);
+            if (update.getTitle() != null) updated.setTitle(update.getTitle());
+            if (update.getAuthor() != null) updated.setAuthor(update.getAuthor());
+            if (update.getPages() != null) updated.setPages(update.getPages());
+            updated.setVersion(stored.getVersion() + 1);
+            overflow.put(update.getIsbn(), updated);
+            return true;
+        }
+        Stripe stripe = stripes[stripeOf(key)];
+        int index = stripe.indexOf(key);
+        if (index < 0 || (update.getVersion() != null && update.getVersion() != stripe.versions[index])) {
+            return false;
+        }
+        if (update.getTitle() != null) stripe.titles[index] = update.getTitle();
+        if (update.getAuthor() != null) stripe.authors[index] = update.getAuthor();
+        if (update.getPages() != null) stripe.pages[index] = update.getPages();
+        stripe.versions[index]++;
+        return true;
+    }
+
+    private static long nextVersion(Long storedVersion, Book book) {
+        if (storedVersion == null) {
+            return 0;
+        }
+        if (storedVersion != book.getVersion()) {
+            throw new ObjectOptimisticLockingFailureException(Book.class, book.getIsbn());
+        }
+        return storedVersion + 1;
+    }
+
+    private static Predicate<Cursor> matcherOf(BookFilter filter) {
+        Predicate<Cursor> matcher = cursor -> true;
+        if (StringUtils.hasText(filter.getAuthor())) {
+            matcher = matcher.and(cursor -> filter.getAuthor().equals(cursor.author()));
+        }
+        if (StringUtils.hasText(filter.getTitlePrefix())) {
+            matcher = matcher.and(cursor -> cursor.title() != null && cursor.title().startsWith(filter.getTitlePrefix()));
+        }
+        if (filter.getMinPages() != null) {
+            matcher = matcher.and(cursor -> cursor.pages() >= filter.getMinPages());
+        }
+        if (filter.getMaxPages() != null) {
+            matcher = matcher.and(cursor -> cursor.pages() <= filter.getMaxPages());
+        }
+        return matcher;
+    }
+
+    private static int limitOf(Limit limit) {
+        return limit.isUnlimited() ? Integer.MAX_VALUE : limit.max();
+    }
+
+    private static Book copyOf(Book book) {
+        Book copy = new Book(book.getIsbn(), book.getTitle(), book.getAuthor(), book.getPages());
+        copy.setVersion(book.getVersion());
+        return copy;
+    }
+
+    // Merges the sorted stripes and the overflow into one isbn order, starting behind 'after'.
+    // Stops as soon as the action returns false.
+    private static void scan(Stripe[] stripes, NavigableMap<String, Book> overflow, String after,
+                             Predicate<Cursor> action) {
+        PriorityQueue<Cursor> cursors = new PriorityQueue<>(STRIPE_COUNT + 1, Cursor.ORDER);
+        long afterKey = after == null ? IsbnKey.NOT_ENCODABLE : IsbnKey.encode(after);
+        for (Stripe stripe : stripes) {
+            int start = after == null ? 0 : stripe.firstAfter(afterKey, after);
+            if (start < stripe.size) {
+                cursors.add(new StripeCursor(stripe, start));
+            }
+        }
+        Iterator<Book> overflowBooks = (after == null ? overflow : overflow.tailMap(after, false)).values().iterator();
+        if (overflowBooks.hasNext()) {
+            cursors.add(new OverflowCursor(overflowBooks));
+        }
+
+        while (!cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            if (!action.test(cursor)) {
+                return;
+            }
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+    }
+
+    // Sorted parallel arrays, a book costs its two strings plus 20 bytes of primitives
+    private static final class Stripe {
+        private static final int INITIAL_CAPACITY = 16;
+
+        long[] keys = new long[INITIAL_CAPACITY];
+        String[] titles = new String[INITIAL_CAPACITY];
+        String[] authors = new String[INITIAL_CAPACITY];
+        int[] pages = new int[INITIAL_CAPACITY];
+        long[] versions = new long[INITIAL_CAPACITY];
+        int size;
+
+        // Binary search like Arrays.binarySearch
+        int indexOf(long key) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int comparison = IsbnKey.compare(keys[mid], key);
+                if (comparison < 0) {
+                    low = mid + 1;
+                } else if (comparison > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        // Index of the first key behind 'after', which doesn't have to be encodable itself
+        int firstAfter(long afterKey, String after) {
+            if (afterKey != IsbnKey.NOT_ENCODABLE) {
+                int index = indexOf(afterKey);
+                return index >= 0 ? index + 1 : -index - 1;
+            }
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (IsbnKey.decode(keys[mid]).compareTo(after) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        Book bookAt(int index) {
+            Book book = new Book(IsbnKey.decode(keys[index]), titles[index], authors[index], pages[index]);
+            book.setVersion(versions[index]);
+            return book;
+        }
+
+        void set(int index, Book book) {
+            titles[index] = book.getTitle();
+            authors[index] = book.getAuthor();
+            pages[index] = book.getPages();
+            versions[index] = book.getVersion();
+        }
+
+        void insertAt(int index, long key, Book book) {
+            ensureCapacity(size + 1);
+            int moved = size - index;
+            System.arraycopy(keys, index, keys, index + 1, moved);
+            System.arraycopy(titles, index, titles, index + 1, moved);
+            System.arraycopy(authors, index, authors, index + 1, moved);
+            System.arraycopy(pages, index, pages, index + 1, moved);
+            System.arraycopy(versions, index, versions, index + 1, moved);
+            keys[index] = key;
+            set(index, book);
+            size++;
+        }
+
+        // One merge pass from the back instead of shifting the arrays for every book.
+        // None of the books may exist yet.
+        void insertSorted(List<Book> books) {
+            long[] newKeys = new long[books.size()];
+            Book[] sorted = books.toArray(Book[]::new);
+            Arrays.sort(sorted, Comparator.comparing(Book::getIsbn));
+            for (int i = 0; i < sorted.length; i++) {
+                newKeys[i] = IsbnKey.encode(sorted[i].getIsbn());
+                sorted[i].setVersion(0);
+            }
+
+            ensureCapacity(size + sorted.length);
+            int existing = size - 1;
+            int target = size + sorted.length - 1;
+            for (int added = sorted.length - 1; added >= 0; target--) {
+                if (existing >= 0 && IsbnKey.compare(keys[existing], newKeys[added]) > 0) {
+                    move(existing--, target);
+                } else {
+                    keys[target] = newKeys[added];
+                    set(target, sorted[added--]);
+                }
+            }
+            size += sorted.length;
+        }
+
+        // Compacts the arrays in one pass, returns the number of removed books
+        int removeAll(Collection<String> isbns) {
+            long[] removed = isbns.stream()
+                    .mapToLong(IsbnKey::encode)
+                    .sorted()
+                    .distinct()
+                    .toArray();
+            int kept = 0;
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                long key = keys[i];
+                while (next < removed.length && removed[next] < key) {
+                    next++;
+                }
+                if (next < removed.length && removed[next] == key) {
+                    continue;
+                }
+                if (kept != i) {
+                    move(i, kept);
+                }
+                kept++;
+            }
+            int count = size - kept;
+            for (int i = kept; i < size; i++) {
+                clear(i);
+            }
+            size = kept;
+            return count;
+        }
+
+        Stripe copy() {
+            Stripe copy = new Stripe();
+            copy.keys = Arrays.copyOf(keys, size);
+            copy.titles = Arrays.copyOf(titles, size);
+            copy.authors = Arrays.copyOf(authors, size);
+            copy.pages = Arrays.copyOf(pages, size);
+            copy.versions = Arrays.copyOf(versions, size);
+            copy.size = size;
+            return copy;
+        }
+
+        private void move(int from, int to) {
+            keys[to] = keys[from];
+            titles[to] = titles[from];
+            authors[to] = authors[from];
+            pages[to] = pages[from];
+            versions[to] = versions[from];
+        }
+
+        // Drops the string references of a slot that is no longer used
+        private void clear(int index) {
+            titles[index] = null;
+            authors[index] = null;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= keys.length) {
+                return;
+            }
+            int newCapacity = Math.max(capacity, keys.length + (keys.length >> 1));
+            keys = Arrays.copyOf(keys, newCapacity);
+            titles = Arrays.copyOf(titles, newCapacity);
+            authors = Arrays.copyOf(authors, newCapacity);
+            pages = Arrays.copyOf(pages, newCapacity);
+            versions = Arrays.copyOf(versions, newCapacity);
+        }
+    }
+
+    // Position in a stripe or in the overflow during a scan
+    private interface Cursor {
+        // Packed keys are compared directly, only the overflow needs the strings
+        Comparator<Cursor> ORDER = (a, b) -> a.key() != IsbnKey.NOT_ENCODABLE && b.key() != IsbnKey.NOT_ENCODABLE
+                ? IsbnKey.compare(a.key(), b.key())
+                : a.isbn().compareTo(b.isbn());
+
+        long key();
+
+        String isbn();
+
+        String title();
+
+        String author();
+
+        int pages();
+
+        Book toBook();
+
+        // Moves to the next book, false when there is none
+        boolean next();
+    }
+
+    private static final class StripeCursor implements Cursor {
+        private final Stripe stripe;
+        private int index;
+
+        StripeCursor(Stripe stripe, int index) {
+            this.stripe = stripe;
+            this.index = index;
+        }
+
+        public long key() { return stripe.keys[index]; }
+        public String isbn() { return IsbnKey.decode(stripe.keys[index]); }
+        public String title() { return stripe.titles[index]; }
+        public String author() { return stripe.authors[index]; }
+        public int pages() { return stripe.pages[index]; }
+        public Book toBook() { return stripe.bookAt(index); }
+
+        public boolean next() {
+            return ++index < stripe.size;
+        }
+    }
+
+    private static final class OverflowCursor implements Cursor {
+        private final Iterator<Book> books;
+        private Book current;
+
+        OverflowCursor(Iterator<Book> books) {
+            this.books = books;
+            this.current = books.next();
+        }
+
+        public long key() { return IsbnKey.NOT_ENCODABLE; }
+        public String isbn() { return current.getIsbn(); }
+        public String title() { return current.getTitle(); }
+        public String author() { return current.getAuthor(); }
+        public int pages() { return current.getPages(); }
+        public Book toBook() { return copyOf(current); }
+
+        public boolean next() {
+            if (!books.hasNext()) {
+                return false;
+            }
+            current = books.next();
+            return true;
+        }
     }
 }
- */
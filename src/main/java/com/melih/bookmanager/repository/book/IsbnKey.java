@@ -0,0 +1,54 @@
+package com.melih.bookmanager.repository.book;
+
+// Packs an isbn into a long without losing its order: up to 17 characters out of "-0123456789X",
+// so a hyphenated ISBN-13 fits. Every character is a digit in base 13 starting at the most significant end,
+// 0 marks the end of shorter isbns. 13^17 stays below 2^63, two keys are in the same order as their strings.
+public final class IsbnKey {
+    public static final int MAX_LENGTH = 17;
+    // Returned for isbns that don't fit, the empty string would be the only other key with the value 0
+    public static final long NOT_ENCODABLE = 0L;
+
+    // Ascending in ASCII, symbol 1 is '-'
+    private static final String ALPHABET = "-0123456789X";
+    private static final int BASE = ALPHABET.length() + 1;
+
+    private IsbnKey() {
+    }
+
+    public static long encode(String isbn) {
+        int length = isbn.length();
+        if (length == 0 || length > MAX_LENGTH) {
+            return NOT_ENCODABLE;
+        }
+        long key = 0;
+        for (int i = 0; i < MAX_LENGTH; i++) {
+            int symbol = 0;
+            if (i < length) {
+                symbol = ALPHABET.indexOf(isbn.charAt(i)) + 1;
+                if (symbol == 0) {
+                    return NOT_ENCODABLE;
+                }
+            }
+            key = key * BASE + symbol;
+        }
+        return key;
+    }
+
+    public static String decode(long key) {
+        char[] isbn = new char[MAX_LENGTH];
+        int length = 0;
+        for (int i = MAX_LENGTH - 1; i >= 0; i--) {
+            int symbol = (int) (key % BASE);
+            key /= BASE;
+            if (symbol != 0) {
+                isbn[i] = ALPHABET.charAt(symbol - 1);
+                length = Math.max(length, i + 1);
+            }
+        }
+        return new String(isbn, 0, length);
+    }
+
+    public static int compare(long key, long otherKey) {
+        return Long.compare(key, otherKey);
+    }
+}
@@ -1,10 +1,25 @@
 package com.melih.bookmanager.repository.user;
 
+import com.melih.bookmanager.api.model.Book;
 import com.melih.bookmanager.api.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
-import java.util.Optional;
+import java.util.List;
 
-public interface UserRepository extends JpaRepository<User, Long> {
-    Optional<User> findByUsername(String username);
+public interface UserRepository extends JpaRepository<User, Long>, UserRepositoryCustom {
+    // Reading lists are read with one join query each instead of initializing the lazy collections
+    @Query("select b from User u join u.currentlyReading b where u.username = :username order by b.isbn")
+    List<Book> findCurrentlyReadingByUsername(String username, Pageable pageable);
+
+    @Query("select b from User u join u.readBooks b where u.username = :username order by b.isbn")
+    List<Book> findReadBooksByUsername(String username, Pageable pageable);
+
+    // Sizes of the reading lists for the profile, which only carries their first page
+    @Query("select count(b) from User u join u.currentlyReading b where u.username = :username")
+    long countCurrentlyReadingByUsername(String username);
+
+    @Query("select count(b) from User u join u.readBooks b where u.username = :username")
+    long countReadBooksByUsername(String username);
 }
@@ -0,0 +1,19 @@
+package com.melih.bookmanager.repository.user;
+
+import com.melih.bookmanager.api.model.User;
+
+import java.util.Optional;
+
+// Username lookups through the natural id, repeated calls are answered by the second-level cache
+public interface UserRepositoryCustom {
+
+    Optional<User> findByUsername(String username);
+
+    boolean existsByUsername(String username);
+
+    // Drops the cached user and reading lists, another instance changed them
+    void evictFromCache(String username);
+
+    // Drops the cached reading lists of all users, another instance deleted books
+    void evictReadingListsFromCache();
+}
@@ -0,0 +1,57 @@
+package com.melih.bookmanager.repository.user;
+
+import com.melih.bookmanager.api.model.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+public class UserRepositoryCustomImpl implements UserRepositoryCustom {
+    private static final String CURRENTLY_READING_ROLE = User.class.getName() + ".currentlyReading";
+    private static final String READ_BOOKS_ROLE = User.class.getName() + ".readBooks";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // A derived query would always go to the database, the natural id load checks the cache first
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<User> findByUsername(String username) {
+        return entityManager.unwrap(Session.class)
+                .bySimpleNaturalId(User.class)
+                .loadOptional(username);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean existsByUsername(String username) {
+        return findByUsername(username).isPresent();
+    }
+
+    // Only the id is queried, loading the user would put it right back into the cache.
+    // Usernames never change, so the natural id region stays valid.
+    @Override
+    @Transactional(readOnly = true)
+    public void evictFromCache(String username) {
+        Cache cache = entityManager.getEntityManagerFactory().getCache().unwrap(Cache.class);
+        entityManager.createQuery("select u.id from User u where u.username = :username", Long.class)
+                .setParameter("username", username)
+                .getResultStream()
+                .findFirst()
+                .ifPresent(id -> {
+                    cache.evictEntityData(User.class, id);
+                    cache.evictCollectionData(CURRENTLY_READING_ROLE, id);
+                    cache.evictCollectionData(READ_BOOKS_ROLE, id);
+                });
+    }
+
+    @Override
+    public void evictReadingListsFromCache() {
+        Cache cache = entityManager.getEntityManagerFactory().getCache().unwrap(Cache.class);
+        cache.evictCollectionData(CURRENTLY_READING_ROLE);
+        cache.evictCollectionData(READ_BOOKS_ROLE);
+    }
+}
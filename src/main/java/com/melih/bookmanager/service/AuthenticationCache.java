@@ -0,0 +1,107 @@
+package com.melih.bookmanager.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Short-lived cache of successful logins, so repeated HTTP Basic requests skip the query and BCrypt.
+// Only an HMAC of the password is kept, the key is random and never leaves this process.
+// A login that loaded the old password hash before a change can finish after the eviction, so every
+// eviction bumps a generation counter and puts of logins that started before it are dropped.
+@Component
+public class AuthenticationCache {
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    // Users share a counter per stripe, a collision only costs one extra BCrypt check
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final Cache<String, CachedAuthentication> authentications;
+    private final SecretKeySpec fingerprintKey;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public AuthenticationCache(
+            @Value("${bookmanager.security.auth-cache.ttl:5m}") Duration ttl,
+            @Value("${bookmanager.security.auth-cache.maximum-size:10000}") long maximumSize) {
+        this.authentications = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maximumSize)
+                .build();
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.fingerprintKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+    }
+
+    // Returns the cached authentication or null if the user isn't cached or the password differs
+    public Authentication get(String username, String password) {
+        CachedAuthentication cached = authentications.getIfPresent(username);
+        if (cached == null || !MessageDigest.isEqual(cached.fingerprint(), fingerprint(username, password))) {
+            return null;
+        }
+        return cached.authentication();
+    }
+
+    // Has to be read before the user is loaded and passed to put afterwards
+    public long generation(String username) {
+        return generations.get(stripe(username));
+    }
+
+    // Skipped when the user was evicted since the generation was read. The check runs under the lock of the
+    // entry, so an eviction either happens before it and fails it or waits and removes the new entry.
+    public void put(String username, String password, Authentication authentication, long generation) {
+        byte[] fingerprint = fingerprint(username, password);
+        authentications.asMap().compute(username, (key, current) ->
+                generation(username) == generation ? new CachedAuthentication(fingerprint, authentication) : current);
+    }
+
+    // Has to be called whenever the password or the account state of a user changed, after the commit
+    public void evict(String username) {
+        generations.incrementAndGet(stripe(username));
+        authentications.invalidate(username);
+    }
+
+    public void evictAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        authentications.invalidateAll();
+    }
+
+    // Before the commit a concurrent login would still load the old password hash and cache it again
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        if (event.credentialsChanged()) {
+            evict(event.username());
+        }
+    }
+
+    private static int stripe(String username) {
+        return (username.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    private byte[] fingerprint(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(fingerprintKey);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 is not available", e);
+        }
+    }
+
+    private record CachedAuthentication(byte[] fingerprint, Authentication authentication) {
+    }
+}
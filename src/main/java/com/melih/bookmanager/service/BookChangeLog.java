@@ -0,0 +1,491 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.api.model.BookChangeEntry;
+import com.melih.bookmanager.api.model.BookChangeType;
+import com.melih.bookmanager.exception.Book.ChangeLogTruncatedException;
+import com.melih.bookmanager.repository.book.BookChangeRepository;
+import com.melih.bookmanager.repository.book.BookRepository;
+import com.melih.bookmanager.utils.BookChange;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only log of every committed book change, served by GET /books/changes.
+// Changes are captured in the outbox table (BookChangeRepository) in the transaction that makes them,
+// with a sequence the database hands out, so the sequences are the same on every instance.
+// This log copies the outbox in sequence order into segment files named after their first sequence,
+// right after local commits and every poll interval for the changes of other instances; old segments are deleted.
+// Every entry is length prefixed and checksummed: a write torn by a crash or an IO error is cut off and
+// copied again from the outbox. Only one instance writes a directory, others serve it read-only.
+@Component
+@Slf4j
+public class BookChangeLog implements SmartLifecycle {
+    public static final int DEFAULT_LIMIT = 10_000;
+    public static final int MAX_LIMIT = 100_000;
+    // Outbox entries copied per round trip
+    private static final int COPY_BATCH_SIZE = 1000;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{20})\\.log");
+    // Anything larger is a broken length, not an entry
+    private static final int MAX_ENTRY_BYTES = 1 << 20;
+    private static final int NULL_STRING = -1;
+
+    private final BookChangeRepository bookChangeRepository;
+    private final BookRepository bookRepository;
+    private final Path directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final boolean fsync;
+    private final Duration pollInterval;
+    private final Duration outboxRetention;
+
+    private FileChannel lockChannel;
+    private FileLock lock;
+    // Segment that is appended to, null for read-only instances and after a failed write until it is reopened
+    private FileChannel segment;
+    private long lastSequence;
+    private ScheduledExecutorService poller;
+    private boolean running;
+
+    public BookChangeLog(BookChangeRepository bookChangeRepository, BookRepository bookRepository,
+                         @Value("${bookmanager.changes.path:./data/changes}") Path directory,
+                         @Value("${bookmanager.changes.segment-size:64MB}") DataSize segmentSize,
+                         @Value("${bookmanager.changes.max-segments:16}") int maxSegments,
+                         @Value("${bookmanager.changes.fsync:true}") boolean fsync,
+                         @Value("${bookmanager.changes.poll-interval:1s}") Duration pollInterval,
+                         @Value("${bookmanager.changes.outbox-retention:7d}") Duration outboxRetention) {
+        this.bookChangeRepository = bookChangeRepository;
+        this.bookRepository = bookRepository;
+        this.directory = directory;
+        this.segmentBytes = segmentSize.toBytes();
+        this.maxSegments = maxSegments;
+        this.fsync = fsync;
+        this.pollInterval = pollInterval;
+        this.outboxRetention = outboxRetention;
+    }
+
+    @Override
+    public synchronized void start() {
+        try {
+            bookChangeRepository.createCounter();
+        } catch (DataAccessException e) {
+            log.debug("The change counter was created by another instance", e);
+        }
+        try {
+            Files.createDirectories(directory);
+            lockChannel = FileChannel.open(directory.resolve("writer.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lock = tryLock(lockChannel);
+            if (lock == null) {
+                log.warn("Change log {} is written by another instance, this one only serves it", directory);
+            } else {
+                openLastSegment();
+                // A new database counts from 1 again, the old entries would hide the new ones
+                long outboxSequence = bookChangeRepository.lastSequence();
+                if (outboxSequence < lastSequence) {
+                    startOver(outboxSequence + 1);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the change log " + directory, e);
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("change-log").daemon().factory());
+        poller.scheduleWithFixedDelay(this::poll, 0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        ScheduledExecutorService stopping;
+        synchronized (this) {
+            stopping = poller;
+            poller = null;
+        }
+        if (stopping != null) {
+            stopping.shutdown();
+            try {
+                stopping.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                if (segment != null) {
+                    segment.close();
+                    segment = null;
+                }
+                if (lock != null) {
+                    lock.release();
+                    lock = null;
+                }
+                // Null if start() failed before the lock file was opened
+                if (lockChannel != null) {
+                    lockChannel.close();
+                    lockChannel = null;
+                }
+            } catch (IOException e) {
+                log.warn("Could not close the change log {}", directory, e);
+            }
+            running = false;
+        }
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    // ----- Capturing, in the transaction of the change -----
+
+    // A failing outbox write rolls the change back instead of losing it
+    @TransactionalEventListener(phase = TransactionPhase.BEFORE_COMMIT, fallbackExecution = true)
+    public void capture(BookChangedEvent event) {
+        bookChangeRepository.append(event.type(), event.isbns());
+    }
+
+    // ----- Copying the outbox into the segments -----
+
+    // Right after a local commit, so the feed of this instance shows its own writes at once
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBooksChanged(BookChangedEvent event) {
+        copyFromOutbox();
+    }
+
+    public synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    // Appends the outbox entries after the last sequence of the log. Inserts and updates carry the book
+    // as it is stored at that moment, null if it was deleted in the meantime (a DELETED entry follows).
+    // Stops at an IO error without a gap, the next call copies the same entries again.
+    public synchronized void copyFromOutbox() {
+        if (lock == null) {
+            return;
+        }
+        try {
+            if (segment == null) {
+                openLastSegment();
+            }
+            List<BookChangeEntry> entries = bookChangeRepository.findAfter(lastSequence, COPY_BATCH_SIZE);
+            while (!entries.isEmpty()) {
+                if (entries.getFirst().getSequence() != lastSequence + 1) {
+                    startOver(entries.getFirst().getSequence());
+                }
+                append(entries);
+                entries = bookChangeRepository.findAfter(lastSequence, COPY_BATCH_SIZE);
+            }
+        } catch (IOException e) {
+            log.error("Could not append to the change log {}, retrying after sequence {}", directory, lastSequence, e);
+            closeSegment();
+        }
+    }
+
+    // One write and at most one fsync per batch, cut off again if it fails halfway
+    private void append(List<BookChangeEntry> entries) throws IOException {
+        if (segment.size() >= segmentBytes) {
+            roll();
+        }
+        Map<String, Book> books = bookRepository.findAllById(entries.stream()
+                        .filter(entry -> entry.getType() != BookChangeType.DELETED)
+                        .map(BookChangeEntry::getIsbn)
+                        .collect(Collectors.toSet()))
+                .stream().collect(Collectors.toMap(Book::getIsbn, Function.identity()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        for (BookChangeEntry entry : entries) {
+            Book book = entry.getType() == BookChangeType.DELETED ? null : books.get(entry.getIsbn());
+            byte[] body = encode(entry.getSequence(), entry.getChangedAt().toEpochMilli(), entry.getType(), entry.getIsbn(), book);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            output.writeInt(body.length);
+            output.write(body);
+            output.writeInt((int) crc.getValue());
+        }
+        long start = segment.position();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            if (fsync) {
+                segment.force(false);
+            }
+        } catch (IOException e) {
+            segment.truncate(start);
+            throw e;
+        }
+        lastSequence = entries.getLast().getSequence();
+    }
+
+    // The outbox dropped entries this log never got or belongs to another database,
+    // older segments would hide that from readers; they get 410 for cursors before the new start
+    private void startOver(long firstSequence) throws IOException {
+        log.warn("Change log {} starts over at sequence {}, it doesn't match the outbox after sequence {}",
+                directory, firstSequence, lastSequence);
+        segment.close();
+        for (Path old : segments()) {
+            Files.deleteIfExists(old);
+        }
+        lastSequence = firstSequence - 1;
+        createSegment(firstSequence);
+    }
+
+    private void poll() {
+        try {
+            copyFromOutbox();
+            bookChangeRepository.deleteOlderThan(Instant.now().minus(outboxRetention));
+        } catch (RuntimeException e) {
+            log.warn("Could not copy the change outbox into {}", directory, e);
+        }
+    }
+
+    private void closeSegment() {
+        try {
+            if (segment != null) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            log.warn("Could not close the change log segment in {}", directory, e);
+        }
+        segment = null;
+    }
+
+    // ----- Reading, works on the files so read-only instances see what the writer appended -----
+
+    // Fails if the segments with the changes right after 'since' were deleted already
+    public void checkAvailable(long since) {
+        List<Path> segments = segments();
+        if (!segments.isEmpty() && Math.max(since, 0) + 1 < firstSequence(segments.getFirst())) {
+            throw new ChangeLogTruncatedException(since, firstSequence(segments.getFirst()));
+        }
+    }
+
+    // Hands the changes after 'since' to the action in sequence order, at most 'limit' of them
+    public void read(long since, int limit, Consumer<? super BookChange> action) throws IOException {
+        List<Path> segments = segments();
+        int first = 0;
+        while (first + 1 < segments.size() && firstSequence(segments.get(first + 1)) <= since + 1) {
+            first++;
+        }
+        int remaining = limit;
+        for (int i = first; i < segments.size() && remaining > 0; i++) {
+            try (FileChannel channel = FileChannel.open(segments.get(i), StandardOpenOption.READ)) {
+                DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+                byte[] body;
+                while (remaining > 0 && (body = readEntry(input)) != null) {
+                    BookChange change = decode(body);
+                    if (change.getSequence() > since) {
+                        action.accept(change);
+                        remaining--;
+                    }
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted by the retention while we got here, the next segment continues
+            }
+        }
+    }
+
+    // ----- Segments -----
+
+    private void openLastSegment() throws IOException {
+        List<Path> segments = segments();
+        if (segments.isEmpty()) {
+            lastSequence = 0;
+            createSegment(1);
+            return;
+        }
+        Path last = segments.getLast();
+        lastSequence = firstSequence(last) - 1;
+        long validBytes = 0;
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ)) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+            byte[] body;
+            while ((body = readEntry(input)) != null) {
+                lastSequence = decode(body).getSequence();
+                validBytes += Integer.BYTES + body.length + Integer.BYTES;
+            }
+        }
+        segment = FileChannel.open(last, StandardOpenOption.WRITE);
+        if (segment.size() > validBytes) {
+            log.warn("Cutting off {} bytes of an incomplete entry in the change log {}", segment.size() - validBytes, last);
+            segment.truncate(validBytes);
+        }
+        segment.position(validBytes);
+        log.info("Change log {} continues after sequence {}", directory, lastSequence);
+    }
+
+    private void roll() throws IOException {
+        segment.close();
+        createSegment(lastSequence + 1);
+        List<Path> segments = segments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    private void createSegment(long firstSequence) throws IOException {
+        segment = FileChannel.open(directory.resolve(String.format("%020d.log", firstSequence)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> SEGMENT_NAME.matcher(file.getFileName().toString()).matches())
+                    .sorted(Comparator.comparingLong(BookChangeLog::firstSequence))
+                    .toList();
+        } catch (NoSuchFileException e) {
+            return List.of();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long firstSequence(Path segment) {
+        Matcher name = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        if (!name.matches()) {
+            throw new IllegalArgumentException(segment + " is no change log segment");
+        }
+        return Long.parseLong(name.group(1));
+    }
+
+    // Another process holds the lock: null. Another context in this JVM: OverlappingFileLockException.
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+
+    // ----- Entries: int length, body, int CRC32C of the body -----
+
+    // Null at the end of the segment and at an incomplete or damaged entry
+    private static byte[] readEntry(DataInputStream input) throws IOException {
+        try {
+            int length = input.readInt();
+            if (length <= 0 || length > MAX_ENTRY_BYTES) {
+                return null;
+            }
+            byte[] body = new byte[length];
+            input.readFully(body);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            return input.readInt() == (int) crc.getValue() ? body : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    // sequence, timestamp, type, isbn and for inserts and updates version, pages, title, author
+    private static byte[] encode(long sequence, long timestamp, BookChangeType type, String isbn, Book book) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream body = new DataOutputStream(bytes);
+        body.writeLong(sequence);
+        body.writeLong(timestamp);
+        body.writeByte(typeCode(type));
+        writeString(body, isbn);
+        if (book != null) {
+            body.writeLong(book.getVersion());
+            body.writeInt(book.getPages());
+            writeString(body, book.getTitle());
+            writeString(body, book.getAuthor());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BookChange decode(byte[] bytes) throws IOException {
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes));
+        long sequence = body.readLong();
+        Instant timestamp = Instant.ofEpochMilli(body.readLong());
+        BookChangeType type = typeOf(body.readByte());
+        String isbn = readString(body);
+        Book book = null;
+        if (type != BookChangeType.DELETED) {
+            long version = body.readLong();
+            int pages = body.readInt();
+            String title = readString(body);
+            String author = readString(body);
+            book = new Book(isbn, title, author, pages);
+            book.setVersion(version);
+        }
+        return new BookChange(sequence, timestamp, type.name(), isbn, book);
+    }
+
+    // Codes are part of the file format, they don't follow the enum order
+    private static int typeCode(BookChangeType type) {
+        return switch (type) {
+            case INSERTED -> 1;
+            case UPDATED -> 2;
+            case DELETED -> 3;
+        };
+    }
+
+    private static BookChangeType typeOf(int code) throws IOException {
+        return switch (code) {
+            case 1 -> BookChangeType.INSERTED;
+            case 2 -> BookChangeType.UPDATED;
+            case 3 -> BookChangeType.DELETED;
+            default -> throw new IOException("Unknown change type " + code);
+        };
+    }
+
+    private static void writeString(DataOutputStream body, String value) throws IOException {
+        if (value == null) {
+            body.writeInt(NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        body.writeInt(bytes.length);
+        body.write(bytes);
+    }
+
+    private static String readString(DataInputStream body) throws IOException {
+        int length = body.readInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        body.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
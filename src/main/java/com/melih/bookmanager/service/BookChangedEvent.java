@@ -0,0 +1,21 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.BookChangeType;
+
+import java.util.Collection;
+
+// Published by BookService after books were written, listeners get it once the transaction committed
+public record BookChangedEvent(BookChangeType type, Collection<String> isbns) {
+
+    public static BookChangedEvent inserted(Collection<String> isbns) {
+        return new BookChangedEvent(BookChangeType.INSERTED, isbns);
+    }
+
+    public static BookChangedEvent updated(Collection<String> isbns) {
+        return new BookChangedEvent(BookChangeType.UPDATED, isbns);
+    }
+
+    public static BookChangedEvent deleted(Collection<String> isbns) {
+        return new BookChangedEvent(BookChangeType.DELETED, isbns);
+    }
+}
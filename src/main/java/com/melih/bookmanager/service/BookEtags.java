@@ -0,0 +1,86 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.config.CacheConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ETags of single books for conditional GETs. They are kept in their own cache of a few bytes per book,
+// so a revalidation is answered without loading the book, even after it dropped out of the books cache.
+// A read that loaded the old row before an update committed can finish after the eviction, so like
+// AuthenticationCache every eviction bumps a generation counter and puts of reads that started before it are dropped.
+@Component
+@RequiredArgsConstructor
+public class BookEtags {
+    // Books share a counter per stripe, a collision only costs one extra load
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final CacheManager cacheManager;
+    private final OffHeapCatalog offHeapCatalog;
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    // The version alone would repeat after a book was deleted and added again, the content hash tells them apart
+    public static String etagOf(Book book) {
+        int contentHash = Objects.hash(book.getTitle(), book.getAuthor(), book.getPages());
+        return "\"" + book.getVersion() + "-" + Integer.toHexString(contentHash) + "\"";
+    }
+
+    // ETag of the book if it is known without a query, otherwise null
+    public String find(String isbn) {
+        if (offHeapCatalog.covers(isbn)) {
+            return offHeapCatalog.find(isbn).map(BookEtags::etagOf).orElse(null);
+        }
+        return (String) etags().getIfPresent(isbn);
+    }
+
+    // Has to be read before the book is loaded and passed to remember afterwards
+    public long generation(String isbn) {
+        return generations.get(stripe(isbn));
+    }
+
+    // Skipped when the book was evicted since the generation was read. The check runs under the lock of the
+    // entry, so an eviction either happens before it and fails it or waits and removes the new entry.
+    public String remember(Book book, long generation) {
+        String etag = etagOf(book);
+        etags().asMap().compute(book.getIsbn(), (isbn, current) -> generation(book.getIsbn()) == generation ? etag : current);
+        return etag;
+    }
+
+    // Has to be called after every committed change of the books, local or remote
+    public void evict(Collection<String> isbns) {
+        for (String isbn : isbns) {
+            generations.incrementAndGet(stripe(isbn));
+            etags().invalidate(isbn);
+        }
+    }
+
+    public void evictAll() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        etags().invalidateAll();
+    }
+
+    // Before the commit a concurrent read would still load the old row and remember its ETag again
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBooksChanged(BookChangedEvent event) {
+        evict(event.isbns());
+    }
+
+    private static int stripe(String isbn) {
+        return (isbn.hashCode() & Integer.MAX_VALUE) % GENERATION_STRIPES;
+    }
+
+    // The Caffeine cache behind the transaction aware decorator, compute() isn't part of Spring's Cache
+    @SuppressWarnings("unchecked")
+    private com.github.benmanes.caffeine.cache.Cache<Object, Object> etags() {
+        return (com.github.benmanes.caffeine.cache.Cache<Object, Object>)
+                cacheManager.getCache(CacheConfig.BOOK_ETAGS_CACHE).getNativeCache();
+    }
+}
@@ -0,0 +1,104 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.utils.BookImportStatus;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Progress of one background import, written by the worker and read by the polling requests
+public class BookImportJob {
+    public enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    // Total of an import that reads its books while it runs
+    public static final int UNKNOWN_TOTAL = -1;
+    private static final int MAX_REPORTED_CONFLICTS = 1000;
+
+    @Getter
+    private final UUID id = UUID.randomUUID();
+    private final int total;
+    private final AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+    private final AtomicInteger inserted = new AtomicInteger();
+    private final AtomicInteger conflicts = new AtomicInteger();
+    private final Queue<String> conflictingIsbns = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelRequested;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public BookImportJob(int total) {
+        this.total = total;
+    }
+
+    // False if the job was cancelled before a worker picked it up
+    boolean start() {
+        startedAt = Instant.now();
+        return state.compareAndSet(State.QUEUED, State.RUNNING);
+    }
+
+    void chunkDone(int insertedBooks, List<String> conflictingChunkIsbns) {
+        inserted.addAndGet(insertedBooks);
+        for (String isbn : conflictingChunkIsbns) {
+            if (conflicts.incrementAndGet() <= MAX_REPORTED_CONFLICTS) {
+                conflictingIsbns.add(isbn);
+            }
+        }
+    }
+
+    boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    // A queued job is cancelled right away, a running one after its current chunk
+    void cancel() {
+        cancelRequested = true;
+        if (state.compareAndSet(State.QUEUED, State.CANCELLED)) {
+            finishedAt = Instant.now();
+        }
+    }
+
+    void finish(State finalState) {
+        state.set(finalState);
+        finishedAt = Instant.now();
+    }
+
+    void fail(String message) {
+        error = message;
+        finish(State.FAILED);
+    }
+
+    boolean finishedBefore(Instant instant) {
+        Instant finished = finishedAt;
+        return finished != null && finished.isBefore(instant);
+    }
+
+    public BookImportStatus toStatus() {
+        int insertedBooks = inserted.get();
+        int conflictingBooks = conflicts.get();
+        return new BookImportStatus(id, state.get().name(), total, insertedBooks + conflictingBooks,
+                insertedBooks, conflictingBooks, List.copyOf(conflictingIsbns),
+                booksPerSecond(insertedBooks + conflictingBooks), startedAt, finishedAt, error);
+    }
+
+    private double booksPerSecond(int processed) {
+        Instant started = startedAt;
+        if (started == null) {
+            return 0;
+        }
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Math.max(Duration.between(started, end).toMillis(), 1);
+        return processed * 1000.0 / millis;
+    }
+}
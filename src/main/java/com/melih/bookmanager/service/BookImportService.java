@@ -0,0 +1,109 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.exception.Book.ImportJobNotFoundException;
+import com.melih.bookmanager.utils.BookBulkResponse;
+import com.melih.bookmanager.utils.BookImportStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Runs large imports in the background, every chunk is committed on its own.
+// A failed or cancelled import keeps the chunks that were done, submitting the same
+// payload again skips them as conflicts and continues with the rest.
+@Service
+@Slf4j
+public class BookImportService {
+    private final BookService bookService;
+    private final TaskExecutor taskExecutor;
+    private final int chunkSize;
+    private final Duration retention;
+    private final Map<UUID, BookImportJob> jobs = new ConcurrentHashMap<>();
+
+    // Spring's application executor, runs on virtual threads in the virtual-threads profile
+    public BookImportService(BookService bookService,
+                             @Qualifier("applicationTaskExecutor") TaskExecutor taskExecutor,
+                             @Value("${bookmanager.bulk.chunk-size:500}") int chunkSize,
+                             @Value("${bookmanager.import.retention:1h}") Duration retention) {
+        this.bookService = bookService;
+        this.taskExecutor = taskExecutor;
+        this.chunkSize = chunkSize;
+        this.retention = retention;
+    }
+
+    public BookImportStatus submit(List<Book> books) {
+        removeExpiredJobs();
+        BookImportJob job = new BookImportJob(books.size());
+        jobs.put(job.getId(), job);
+        taskExecutor.execute(() -> run(job, books.iterator()));
+        return job.toStatus();
+    }
+
+    // Imports on the calling thread while the books are still being read, e.g. from an upload.
+    // Only one chunk is held in memory, the first chunk is written before the last book is read.
+    public BookImportStatus ingest(Iterator<Book> books) {
+        BookImportJob job = new BookImportJob(BookImportJob.UNKNOWN_TOTAL);
+        run(job, books);
+        return job.toStatus();
+    }
+
+    public BookImportStatus getStatus(UUID id) {
+        return findJob(id).toStatus();
+    }
+
+    public BookImportStatus cancel(UUID id) {
+        BookImportJob job = findJob(id);
+        job.cancel();
+        return job.toStatus();
+    }
+
+    private void run(BookImportJob job, Iterator<Book> books) {
+        if (!job.start()) {
+            return;
+        }
+        try {
+            while (books.hasNext()) {
+                if (job.isCancelRequested()) {
+                    job.finish(BookImportJob.State.CANCELLED);
+                    return;
+                }
+                List<Book> chunk = new ArrayList<>(chunkSize);
+                while (chunk.size() < chunkSize && books.hasNext()) {
+                    chunk.add(books.next());
+                }
+                // Own transaction per chunk through the BookService proxy
+                BookBulkResponse response = bookService.addBooksBulk(chunk);
+                job.chunkDone(response.getAffected(), response.getConflictingIsbns());
+            }
+            job.finish(BookImportJob.State.COMPLETED);
+        } catch (RuntimeException e) {
+            log.error("Import job {} failed", job.getId(), e);
+            job.fail(e.getMessage());
+        }
+    }
+
+    private BookImportJob findJob(UUID id) {
+        BookImportJob job = jobs.get(id);
+        if (job == null) {
+            throw new ImportJobNotFoundException(id);
+        }
+        return job;
+    }
+
+    // Finished jobs stay pollable for a while, running jobs are never removed
+    private void removeExpiredJobs() {
+        Instant expired = Instant.now().minus(retention);
+        jobs.values().removeIf(job -> job.finishedBefore(expired));
+    }
+}
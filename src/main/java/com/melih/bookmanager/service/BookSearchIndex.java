@@ -0,0 +1,282 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.repository.book.IsbnKey;
+import com.melih.bookmanager.utils.BookSearchResponse;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+// In-memory inverted index over title and author of every book.
+// Terms are lower case without accents, each query term matches whole terms and terms starting with it.
+// The postings hold packed isbns (IsbnKey), hits are read from the OffHeapCatalog. Only books the catalog
+// doesn't hold are copied onto the heap: all of them while it is disabled, and isbns that can't be packed,
+// which get negative ids instead.
+@Component
+public class BookSearchIndex {
+    // A hit in the title says more about a book than a hit in the author
+    private static final int TITLE_WEIGHT = 2;
+    private static final int AUTHOR_WEIGHT = 1;
+    // Exact terms rank above terms that only start with the query term
+    private static final int EXACT_MATCH_FACTOR = 2;
+    // Shorter query terms only match exactly, "a" would otherwise expand to a large part of the catalog
+    private static final int MIN_PREFIX_LENGTH = 2;
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // Best score first, the id as tie breaker so that pages are stable. Packed ids follow the isbn order.
+    private static final Comparator<Hit> RANKING = Comparator.comparingInt(Hit::score).reversed()
+            .thenComparingLong(Hit::id);
+
+    private final OffHeapCatalog offHeapCatalog;
+    // Searches only take the read lock and run in parallel, writes are short and exclusive
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // term -> id -> weight of the term in that book, sorted by term for the prefix lookups
+    private NavigableMap<String, Term> postings = new TreeMap<>();
+    // id -> terms of the book, to take it out of the postings again
+    private LongMap<Term[]> terms = new LongMap<>();
+    private LongMap<Book> copies = new LongMap<>();
+    private Map<String, Long> unpackedIds = new HashMap<>();
+    private long lastUnpackedId;
+
+    public BookSearchIndex(OffHeapCatalog offHeapCatalog) {
+        this.offHeapCatalog = offHeapCatalog;
+    }
+
+    // Adds the book or replaces the indexed version with the same isbn.
+    // The catalog has to be updated first, the index only copies what it can't read from there.
+    public void put(Book book) {
+        Map<String, Integer> termWeights = termWeights(book);
+        // Own copy, the entity may be changed or detached by the caller
+        Book copy = offHeapCatalog.holds(book.getIsbn()) ? null : copyOf(book);
+
+        lock.writeLock().lock();
+        try {
+            long id = idOf(book.getIsbn(), true);
+            removeFromPostings(id);
+            Term[] bookTerms = new Term[termWeights.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> termWeight : termWeights.entrySet()) {
+                Term term = postings.computeIfAbsent(termWeight.getKey(), Term::new);
+                term.weights().put(id, termWeight.getValue());
+                bookTerms[i++] = term;
+            }
+            terms.put(id, bookTerms);
+            if (copy == null) {
+                copies.remove(id);
+            } else {
+                copies.put(id, copy);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String isbn) {
+        lock.writeLock().lock();
+        try {
+            long id = idOf(isbn, false);
+            if (id != IsbnKey.NOT_ENCODABLE) {
+                removeFromPostings(id);
+                copies.remove(id);
+                unpackedIds.remove(isbn);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            terms.clear();
+            copies.clear();
+            unpackedIds.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Takes over the content of an index that was built off to the side and isn't used anymore.
+    // Searches see either the old or the new content, never a partly built one.
+    void replaceWith(BookSearchIndex built) {
+        lock.writeLock().lock();
+        try {
+            postings = built.postings;
+            terms = built.terms;
+            copies = built.copies;
+            unpackedIds = built.unpackedIds;
+            lastUnpackedId = built.lastUnpackedId;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return terms.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Every term of the query has to match, the score is the sum of the weights of the matched terms
+    public BookSearchResponse search(String query, int page, int size) {
+        List<String> queryTerms = tokenize(query).stream().distinct().toList();
+        if (queryTerms.isEmpty()) {
+            return new BookSearchResponse(List.of(), 0, page, size);
+        }
+
+        lock.readLock().lock();
+        try {
+            List<LongMap<Integer>> matches = new ArrayList<>(queryTerms.size());
+            for (String queryTerm : queryTerms) {
+                LongMap<Integer> match = match(queryTerm);
+                if (match.isEmpty()) {
+                    return new BookSearchResponse(List.of(), 0, page, size);
+                }
+                matches.add(match);
+            }
+            // Intersect starting with the smallest match, so the candidate set only shrinks
+            matches.sort(Comparator.comparingInt(LongMap::size));
+            LongMap<Integer> scores = matches.getFirst();
+            for (LongMap<Integer> match : matches.subList(1, matches.size())) {
+                LongMap<Integer> intersection = new LongMap<>();
+                scores.forEach((id, score) -> {
+                    Integer weight = match.get(id);
+                    if (weight != null) {
+                        intersection.put(id, score + weight);
+                    }
+                });
+                scores = intersection;
+            }
+            return new BookSearchResponse(topHits(scores, page, size), scores.size(), page, size);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Score per id for all terms that equal the query term or start with it
+    private LongMap<Integer> match(String queryTerm) {
+        LongMap<Integer> scores = new LongMap<>();
+        Map<String, Term> matched = queryTerm.length() < MIN_PREFIX_LENGTH
+                ? postings.subMap(queryTerm, true, queryTerm, true)
+                : postings.subMap(queryTerm, true, queryTerm + Character.MAX_VALUE, false);
+        matched.forEach((text, term) -> {
+            int factor = text.equals(queryTerm) ? EXACT_MATCH_FACTOR : 1;
+            term.weights().forEach((id, weight) -> {
+                Integer score = scores.get(id);
+                scores.put(id, (score == null ? 0 : score) + weight * factor);
+            });
+        });
+        return scores;
+    }
+
+    // Only keeps the entries up to the requested page instead of sorting every hit.
+    // A book that was deleted from the catalog a moment ago and not from the index yet is left out.
+    private List<Book> topHits(LongMap<Integer> scores, int page, int size) {
+        long offset = (long) page * size;
+        if (offset >= scores.size()) {
+            return List.of();
+        }
+        int limit = (int) Math.min(offset + size, scores.size());
+        PriorityQueue<Hit> top = new PriorityQueue<>(limit + 1, RANKING.reversed());
+        scores.forEach((id, score) -> {
+            top.offer(new Hit(id, score));
+            if (top.size() > limit) {
+                top.poll();
+            }
+        });
+        List<Hit> ranked = new ArrayList<>(top);
+        ranked.sort(RANKING);
+        List<Book> books = new ArrayList<>(ranked.size() - (int) offset);
+        for (Hit hit : ranked.subList((int) offset, ranked.size())) {
+            Book copy = copies.get(hit.id());
+            if (copy != null) {
+                books.add(copy);
+            } else {
+                offHeapCatalog.find(IsbnKey.decode(hit.id())).ifPresent(books::add);
+            }
+        }
+        return books;
+    }
+
+    // The packed isbn or the id handed out for an isbn that can't be packed, NOT_ENCODABLE for unknown ones
+    private long idOf(String isbn, boolean create) {
+        long key = IsbnKey.encode(isbn);
+        if (key != IsbnKey.NOT_ENCODABLE) {
+            return key;
+        }
+        Long id = unpackedIds.get(isbn);
+        if (id == null && create) {
+            id = --lastUnpackedId;
+            unpackedIds.put(isbn, id);
+        }
+        return id == null ? IsbnKey.NOT_ENCODABLE : id;
+    }
+
+    private void removeFromPostings(long id) {
+        Term[] bookTerms = terms.remove(id);
+        if (bookTerms == null) {
+            return;
+        }
+        for (Term term : bookTerms) {
+            term.weights().remove(id);
+            if (term.weights().isEmpty()) {
+                postings.remove(term.text());
+            }
+        }
+    }
+
+    private static Book copyOf(Book book) {
+        Book copy = new Book(book.getIsbn(), book.getTitle(), book.getAuthor(), book.getPages());
+        copy.setVersion(book.getVersion());
+        return copy;
+    }
+
+    // The books containing a term with their weights
+    private record Term(String text, LongMap<Integer> weights) {
+        Term(String text) {
+            this(text, new LongMap<>());
+        }
+    }
+
+    private record Hit(long id, int score) {
+    }
+
+    private static Map<String, Integer> termWeights(Book book) {
+        Map<String, Integer> weights = new HashMap<>();
+        tokenize(book.getTitle()).forEach(term -> weights.merge(term, TITLE_WEIGHT, Integer::sum));
+        tokenize(book.getAuthor()).forEach(term -> weights.merge(term, AUTHOR_WEIGHT, Integer::sum));
+        return weights;
+    }
+
+    // "Hafen der verlorenen Träume" -> [hafen, der, verlorenen, traume]
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        List<String> terms = new ArrayList<>();
+        for (String term : SEPARATORS.split(folded.toLowerCase(Locale.ROOT))) {
+            if (!term.isEmpty()) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+}
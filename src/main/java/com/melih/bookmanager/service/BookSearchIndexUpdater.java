@@ -0,0 +1,226 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.api.model.BookChangeEntry;
+import com.melih.bookmanager.api.model.BookChangeType;
+import com.melih.bookmanager.repository.book.BookChangeRepository;
+import com.melih.bookmanager.repository.book.BookRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+// Keeps the search index and the off-heap catalog in line with the book table.
+// The change log captures the changes on its own, in the transaction that makes them.
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class BookSearchIndexUpdater {
+    private static final int RELOAD_CHUNK_SIZE = 500;
+    private static final int OUTBOX_BATCH_SIZE = 1000;
+
+    private final BookSearchIndex bookSearchIndex;
+    private final BookRepository bookRepository;
+    private final OffHeapCatalog offHeapCatalog;
+    private final BookChangeRepository bookChangeRepository;
+    // Changes are applied one at a time, so the index and the catalog see the same order. A lock instead of
+    // synchronized: the changes are read from the database while it is held, and a virtual thread blocking
+    // inside synchronized would pin its carrier thread.
+    private final ReentrantLock updateLock = new ReentrantLock();
+    // One resync at a time, without blocking the changes that come in meanwhile
+    private final ReentrantLock resyncLock = new ReentrantLock();
+    // Isbns changed while a resync builds its index, null if none runs. Guarded by updateLock.
+    private Set<String> changedDuringResync;
+
+    // Full build once the data initializer ran, the cursor keeps memory flat while reading the catalog.
+    // A catalog mapped from a snapshot file feeds the index instead and only the differences are read.
+    // The catalog always comes first, the index reads its hits from there.
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        bookSearchIndex.clear();
+        if (offHeapCatalog.ready()) {
+            offHeapCatalog.forEachBook(bookSearchIndex::put);
+            reconcileCatalog();
+        } else {
+            rebuildFromDatabase();
+        }
+        log.info("Search index contains {} books", bookSearchIndex.size());
+    }
+
+    // Invalidations of another instance were lost, nothing but the database can be trusted.
+    // The new catalog and index are built off to the side while reads keep using the old ones and changes keep
+    // coming in. Each is swapped in at once: the catalog applies the changes made during its build itself,
+    // the books changed while the index was built are read again.
+    public void resync() {
+        resyncLock.lock();
+        try {
+            runLocked(() -> changedDuringResync = new HashSet<>());
+            BookSearchIndex built = new BookSearchIndex(offHeapCatalog);
+            try {
+                offHeapCatalog.rebuild(bookRepository::forEachBook);
+                if (offHeapCatalog.ready()) {
+                    offHeapCatalog.forEachBook(built::put);
+                } else {
+                    bookRepository.forEachBook(built::put);
+                }
+            } catch (RuntimeException e) {
+                runLocked(() -> changedDuringResync = null);
+                throw e;
+            }
+            runLocked(() -> {
+                bookSearchIndex.replaceWith(built);
+                List<String> changed = List.copyOf(changedDuringResync);
+                changedDuringResync = null;
+                reloadIntoIndex(changed);
+            });
+            log.info("Resynchronized the search index with {} books", bookSearchIndex.size());
+        } finally {
+            resyncLock.unlock();
+        }
+    }
+
+    // Runs after the commit, rolled back writes never reach the index.
+    // Saved books are reloaded because bulk updates only carry the changed fields.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBooksChanged(BookChangedEvent event) {
+        runLocked(() -> applyChange(event));
+    }
+
+    private void applyChange(BookChangedEvent event) {
+        if (changedDuringResync != null) {
+            changedDuringResync.addAll(event.isbns());
+        }
+        if (event.type() == BookChangeType.DELETED) {
+            event.isbns().forEach(bookSearchIndex::remove);
+            offHeapCatalog.remove(event.isbns());
+            return;
+        }
+        List<String> isbns = List.copyOf(event.isbns());
+        for (int from = 0; from < isbns.size(); from += RELOAD_CHUNK_SIZE) {
+            List<Book> books = bookRepository.findAllById(isbns.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, isbns.size())));
+            offHeapCatalog.put(books);
+            books.forEach(bookSearchIndex::put);
+        }
+    }
+
+    // Books written by another instance, only the isbns are known, so the ones that are gone count as deleted.
+    // Returns the deleted isbns.
+    public List<String> onRemoteBooksChanged(Collection<String> isbns) {
+        List<String> deleted = new ArrayList<>();
+        runLocked(() -> applyRemoteChange(isbns, deleted));
+        return deleted;
+    }
+
+    private void applyRemoteChange(Collection<String> isbns, List<String> deleted) {
+        if (changedDuringResync != null) {
+            changedDuringResync.addAll(isbns);
+        }
+        List<String> all = List.copyOf(isbns);
+        for (int from = 0; from < all.size(); from += RELOAD_CHUNK_SIZE) {
+            List<String> chunk = all.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, all.size()));
+            List<Book> books = bookRepository.findAllById(chunk);
+            offHeapCatalog.put(books);
+            books.forEach(bookSearchIndex::put);
+
+            Set<String> found = books.stream().map(Book::getIsbn).collect(Collectors.toSet());
+            List<String> missing = chunk.stream().filter(isbn -> !found.contains(isbn)).toList();
+            missing.forEach(bookSearchIndex::remove);
+            offHeapCatalog.remove(missing);
+            deleted.addAll(missing);
+        }
+    }
+
+    private void runLocked(Runnable action) {
+        updateLock.lock();
+        try {
+            action.run();
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    // The catalog has these books already, the index built by a resync may have missed them
+    private void reloadIntoIndex(List<String> isbns) {
+        for (int from = 0; from < isbns.size(); from += RELOAD_CHUNK_SIZE) {
+            List<String> chunk = isbns.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, isbns.size()));
+            List<Book> books = bookRepository.findAllById(chunk);
+            books.forEach(bookSearchIndex::put);
+            Set<String> found = books.stream().map(Book::getIsbn).collect(Collectors.toSet());
+            chunk.stream().filter(isbn -> !found.contains(isbn)).forEach(bookSearchIndex::remove);
+        }
+    }
+
+    // The index reads the built catalog, the database is only scanned again if it is disabled or didn't fit
+    private void rebuildFromDatabase() {
+        offHeapCatalog.rebuild(bookRepository::forEachBook);
+        if (offHeapCatalog.ready()) {
+            offHeapCatalog.forEachBook(bookSearchIndex::put);
+        } else {
+            bookRepository.forEachBook(bookSearchIndex::put);
+        }
+    }
+
+    // Reloads the books changed since the snapshot was written, read from the outbox after its sequence.
+    // If the outbox can't tell, the whole book table is compared with the snapshot instead.
+    // The catalog only answers reads once this is done; if it fails, the catalog is built from scratch.
+    private void reconcileCatalog() {
+        List<String> candidates;
+        try {
+            OptionalLong outboxSequence = offHeapCatalog.loadedOutboxSequence();
+            candidates = (outboxSequence.isPresent() ? changedAfter(outboxSequence.getAsLong()) : Optional.<List<String>>empty())
+                    .orElseGet(() -> offHeapCatalog.reconcileCandidates(bookRepository::forEachBook));
+            for (int from = 0; from < candidates.size(); from += RELOAD_CHUNK_SIZE) {
+                List<String> chunk = candidates.subList(from, Math.min(from + RELOAD_CHUNK_SIZE, candidates.size()));
+                List<Book> books = bookRepository.findAllById(chunk);
+                offHeapCatalog.refresh(books).forEach(bookSearchIndex::put);
+
+                Set<String> found = books.stream().map(Book::getIsbn).collect(Collectors.toSet());
+                offHeapCatalog.forget(chunk.stream().filter(isbn -> !found.contains(isbn)).toList())
+                        .forEach(bookSearchIndex::remove);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not reconcile the catalog snapshot, rebuilding it from the database", e);
+            bookSearchIndex.clear();
+            rebuildFromDatabase();
+            return;
+        }
+        offHeapCatalog.reconciled();
+        log.info("Reconciled {} books of the catalog snapshot with the database", candidates.size());
+    }
+
+    // Isbns of the outbox entries after the sequence, empty if the outbox no longer has all of them
+    // (retention) or ends before it (another database)
+    private Optional<List<String>> changedAfter(long outboxSequence) {
+        long lastSequence = bookChangeRepository.lastSequence();
+        if (lastSequence < outboxSequence) {
+            log.info("The outbox ends at {} before the catalog snapshot at {}, comparing the whole catalog",
+                    lastSequence, outboxSequence);
+            return Optional.empty();
+        }
+        Set<String> isbns = new LinkedHashSet<>();
+        long after = outboxSequence;
+        while (after < lastSequence) {
+            List<BookChangeEntry> entries = bookChangeRepository.findAfter(after, OUTBOX_BATCH_SIZE);
+            if (entries.isEmpty() || entries.getFirst().getSequence() != after + 1) {
+                log.info("The outbox no longer has the changes after {}, comparing the whole catalog", after);
+                return Optional.empty();
+            }
+            entries.forEach(entry -> isbns.add(entry.getIsbn()));
+            after = entries.getLast().getSequence();
+        }
+        return Optional.of(List.copyOf(isbns));
+    }
+}
@@ -1,78 +1,279 @@
 package com.melih.bookmanager.service;
 
 import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.config.CacheConfig;
 import com.melih.bookmanager.exception.Book.BookAlreadyExistsException;
 import com.melih.bookmanager.exception.Book.BookNotFoundException;
+import com.melih.bookmanager.exception.Book.BookVersionMismatchException;
 import com.melih.bookmanager.repository.book.BookRepository;
+import com.melih.bookmanager.utils.BookBulkResponse;
+import com.melih.bookmanager.utils.BookFilter;
+import com.melih.bookmanager.utils.BookSearchResponse;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 @Service
+@Timed(value = "bookmanager.book.service", histogram = true, percentiles = {0.5, 0.95, 0.99})
 public class BookService {
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 1000;
+    public static final int DEFAULT_SEARCH_SIZE = 20;
+    public static final int MAX_SEARCH_SIZE = 100;
+
     private final BookRepository bookRepository;
+    private final MeterRegistry meterRegistry;
+    private final BookSearchIndex bookSearchIndex;
+    private final ApplicationEventPublisher eventPublisher;
+    private final OffHeapCatalog offHeapCatalog;
+
+    @Value("${bookmanager.bulk.chunk-size:500}")
+    private int bulkChunkSize = 500;
 
     @Autowired
     // Constructor with instant enrichment
-    public BookService(BookRepository bookRepository) {
+    public BookService(BookRepository bookRepository, MeterRegistry meterRegistry,
+                       BookSearchIndex bookSearchIndex, ApplicationEventPublisher eventPublisher,
+                       OffHeapCatalog offHeapCatalog) {
         this.bookRepository = bookRepository;
+        this.meterRegistry = meterRegistry;
+        this.bookSearchIndex = bookSearchIndex;
+        this.eventPublisher = eventPublisher;
+        this.offHeapCatalog = offHeapCatalog;
+    }
+
+    // Keyset pagination over the isbn, 'after' is the last isbn of the previous page
+    public List<Book> getBooksPage(String after, int limit) {
+        if (offHeapCatalog.coversAllBooks()) {
+            return offHeapCatalog.page(after, limit);
+        }
+        if (after == null || after.isBlank()) {
+            return bookRepository.findAllByOrderByIsbnAsc(Limit.of(limit));
+        }
+        return bookRepository.findByIsbnGreaterThanOrderByIsbnAsc(after, Limit.of(limit));
+    }
+
+    // Same keyset pagination restricted to the books matching the filter
+    public List<Book> getBooksPage(BookFilter filter, String after, int limit) {
+        if (filter.hasNoRestrictions()) {
+            return getBooksPage(after, limit);
+        }
+        return bookRepository.findPage(filter, after, limit);
+    }
+
+    // Hands every book of the catalog to the consumer without loading them all at once
+    public void streamAllBooks(Consumer<? super Book> consumer) {
+        bookRepository.forEachBook(consumer);
     }
 
-    public List<Book> getAllBooks() {
-        return bookRepository.findAll();
+    // Ranked search over title and author, answered from the in-memory index
+    public BookSearchResponse searchBooks(String query, int page, int size) {
+        return bookSearchIndex.search(query, page, size);
     }
 
     public Book getBookByIsbn(String isbn) {
-        Optional<Book> book = bookRepository.findById(isbn);
+        // The off-heap catalog is authoritative for every isbn it can hold
+        Optional<Book> book = offHeapCatalog.covers(isbn)
+                ? offHeapCatalog.find(isbn)
+                : bookRepository.findBookByIsbn(isbn);
         if (book.isPresent()) {
             return book.get();
         }
         throw new BookNotFoundException(isbn);
     }
 
+    // One transaction with the change log entry
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.BOOKS_CACHE, CacheConfig.BOOK_ETAGS_CACHE}, key = "#book.isbn")
     public void addBook(Book book) {
         if(bookRepository.existsById(book.getIsbn())) {
             throw new BookAlreadyExistsException(book.getIsbn());
         }
-        bookRepository.save(book);
+        // An insert instead of save(), which would overwrite a book added by a concurrent request
+        try {
+            bookRepository.insertAll(List.of(book));
+        } catch (DataIntegrityViolationException e) {
+            throw new BookAlreadyExistsException(book.getIsbn());
+        }
+        eventPublisher.publishEvent(BookChangedEvent.inserted(List.of(book.getIsbn())));
     }
 
+    // Inserts chunk by chunk with one existence check per chunk,
+    // existing isbns are reported back instead of aborting the whole import
     @Transactional
-    public void addBooksBulk(List<Book> books) {
-        for(Book book : books) {
-            addBook(book);
+    @CacheEvict(cacheNames = {CacheConfig.BOOKS_CACHE, CacheConfig.BOOK_ETAGS_CACHE}, allEntries = true)
+    public BookBulkResponse addBooksBulk(List<Book> books) {
+        List<String> conflictingIsbns = new ArrayList<>();
+        List<String> insertedIsbns = new ArrayList<>();
+        Set<String> seenIsbns = new HashSet<>();
+
+        for (List<Book> chunk : partition(books)) {
+            Set<String> existingIsbns = new HashSet<>(
+                    bookRepository.findExistingIsbns(chunk.stream().map(Book::getIsbn).toList()));
+
+            List<Book> newBooks = new ArrayList<>(chunk.size());
+            for (Book book : chunk) {
+                // Duplicates inside the payload count as conflicts as well
+                if (existingIsbns.contains(book.getIsbn()) || !seenIsbns.add(book.getIsbn())) {
+                    conflictingIsbns.add(book.getIsbn());
+                } else {
+                    newBooks.add(book);
+                    insertedIsbns.add(book.getIsbn());
+                }
+            }
+            bookRepository.insertAll(newBooks);
         }
+        publishChange(BookChangedEvent.inserted(insertedIsbns));
+        recordBulk("insert", books.size());
+        recordSkipped("insert", "conflict", conflictingIsbns.size());
+        return new BookBulkResponse(insertedIsbns.size(), conflictingIsbns, List.of());
     }
 
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.BOOKS_CACHE, CacheConfig.BOOK_ETAGS_CACHE}, key = "#isbn")
     public void removeBook(String isbn) {
         if(!bookRepository.existsById(isbn)) {
             throw new BookNotFoundException(isbn);
         }
         bookRepository.deleteById(isbn);
+        eventPublisher.publishEvent(BookChangedEvent.deleted(List.of(isbn)));
     }
 
+    // Deletes chunk by chunk with set-based statements, unknown isbns are reported back
     @Transactional
-    public void removeBooksBulk(List<String> isbnList) {
-        for (String isbn : isbnList) {
-            removeBook(isbn);
+    @CacheEvict(cacheNames = {CacheConfig.BOOKS_CACHE, CacheConfig.BOOK_ETAGS_CACHE}, allEntries = true)
+    public BookBulkResponse removeBooksBulk(List<String> isbnList) {
+        List<String> missingIsbns = new ArrayList<>();
+        List<String> deletedIsbns = new ArrayList<>();
+        int deleted = 0;
+
+        for (List<String> chunk : partition(List.copyOf(new LinkedHashSet<>(isbnList)))) {
+            Set<String> existingIsbns = new HashSet<>(bookRepository.findExistingIsbns(chunk));
+            for (String isbn : chunk) {
+                if (!existingIsbns.contains(isbn)) {
+                    missingIsbns.add(isbn);
+                }
+            }
+            if (existingIsbns.isEmpty()) {
+                continue;
+            }
+            bookRepository.deleteCurrentlyReadingEntries(existingIsbns);
+            bookRepository.deleteReadBookEntries(existingIsbns);
+            deleted += bookRepository.deleteBooksByIsbnIn(existingIsbns);
+            deletedIsbns.addAll(existingIsbns);
         }
+        publishChange(BookChangedEvent.deleted(deletedIsbns));
+        recordBulk("delete", isbnList.size());
+        recordSkipped("delete", "missing", missingIsbns.size());
+        return new BookBulkResponse(deleted, List.of(), missingIsbns);
     }
 
-    public void updateBook(Book book) {
-        if (!bookRepository.existsById(book.getIsbn())) {
-            throw new BookNotFoundException(book.getIsbn());
+    // Copies the fields onto the stored book, saving the client's copy would fail on its unknown version.
+    // With an expected ETag (see BookEtags) the update only goes through if nobody changed the book in between.
+    // The whole ETag is compared: after a delete and a new insert the version repeats, the content doesn't.
+    // A change between the check and the commit is caught by the @Version column.
+    @Transactional
+    @CacheEvict(cacheNames = {CacheConfig.BOOKS_CACHE, CacheConfig.BOOK_ETAGS_CACHE}, key = "#book.isbn")
+    public Book updateBook(Book book, String expectedEtag) {
+        Book existing = bookRepository.findById(book.getIsbn())
+                .orElseThrow(() -> new BookNotFoundException(book.getIsbn()));
+        if (expectedEtag != null && !expectedEtag.equals(BookEtags.etagOf(existing))) {
+            throw new BookVersionMismatchException(book.getIsbn());
         }
-        bookRepository.save(book);
+        existing.setTitle(book.getTitle());
+        existing.setAuthor(book.getAuthor());
+        existing.setPages(book.getPages());
+        bookRepository.save(existing);
+        eventPublisher.publishEvent(BookChangedEvent.updated(List.of(book.getIsbn())));
+        return existing;
     }
 
+    // Partial updates chunk by chunk, unknown isbns are reported instead of being inserted.
+    // Rows whose version changed since the client read them are reported as conflicts.
     @Transactional
-    public void updateBooksBulk(List<Book> books) {
-        bookRepository.saveAll(books);
+    @CacheEvict(cacheNames = {CacheConfig.BOOKS_CACHE, CacheConfig.BOOK_ETAGS_CACHE}, allEntries = true)
+    public BookBulkResponse updateBooksBulk(List<BookUpdateRequest> updates) {
+        List<String> missingIsbns = new ArrayList<>();
+        List<String> conflictingIsbns = new ArrayList<>();
+        List<String> updatedIsbns = new ArrayList<>();
+
+        for (List<BookUpdateRequest> chunk : partition(updates)) {
+            Set<String> existingIsbns = new HashSet<>(
+                    bookRepository.findExistingIsbns(chunk.stream().map(BookUpdateRequest::getIsbn).toList()));
+
+            List<BookUpdateRequest> knownUpdates = new ArrayList<>(chunk.size());
+            for (BookUpdateRequest update : chunk) {
+                if (existingIsbns.contains(update.getIsbn())) {
+                    knownUpdates.add(update);
+                } else {
+                    missingIsbns.add(update.getIsbn());
+                }
+            }
+            if (knownUpdates.isEmpty()) {
+                continue;
+            }
+            int[] counts = bookRepository.updateAll(knownUpdates);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    updatedIsbns.add(knownUpdates.get(i).getIsbn());
+                } else {
+                    // The row exists, so no match means the version check failed
+                    conflictingIsbns.add(knownUpdates.get(i).getIsbn());
+                }
+            }
+        }
+        publishChange(BookChangedEvent.updated(updatedIsbns));
+        recordBulk("update", updates.size());
+        recordSkipped("update", "missing", missingIsbns.size());
+        recordSkipped("update", "conflict", conflictingIsbns.size());
+        return new BookBulkResponse(updatedIsbns.size(), conflictingIsbns, missingIsbns);
+    }
+
+    private void publishChange(BookChangedEvent event) {
+        if (!event.isbns().isEmpty()) {
+            eventPublisher.publishEvent(event);
+        }
+    }
+
+    private void recordBulk(String operation, int size) {
+        DistributionSummary.builder("bookmanager.books.bulk.size")
+                .description("Number of books per bulk request")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(size);
+    }
+
+    private void recordSkipped(String operation, String skipReason, int skipped) {
+        meterRegistry.counter("bookmanager.books.bulk.skipped", "operation", operation, "reason", skipReason)
+                .increment(skipped);
+    }
+
+    // Split bulk payloads so that every statement and batch stays bounded
+    private <T> List<List<T>> partition(List<T> items) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += bulkChunkSize) {
+            chunks.add(items.subList(from, Math.min(from + bulkChunkSize, items.size())));
+        }
+        return chunks;
     }
 
     // Generate a list of Dummy-Books for testing purposes
@@ -0,0 +1,147 @@
+package com.melih.bookmanager.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+// Binary image of the off-heap catalog, mapped with FileChannel.map instead of being read.
+// Layout: header, records, string offsets, string data, packed list of the isbns that can't be packed.
+// The header carries the catalog sequence, the outbox sequence the catalog has every change up to
+// (NO_OUTBOX_SEQUENCE if unknown) and a CRC32C over itself and all sections.
+final class CatalogSnapshotFile {
+    static final int MAGIC = 0x424D4353; // "BMCS"
+    static final int FORMAT_VERSION = 2;
+    static final long NO_OUTBOX_SEQUENCE = -1;
+
+    // magic, format, sequence, outbox sequence, created at, records, strings, string bytes, uncovered bytes, checksum
+    static final int HEADER_BYTES = 56;
+    private static final int CHECKSUM = 48;
+
+    private CatalogSnapshotFile() {
+    }
+
+    // Written next to the target and moved over it, a crash never leaves a half written snapshot behind
+    static void write(Path path, OffHeapCatalog.Image image, long outboxSequence) throws IOException {
+        ByteBuffer[] sections = {
+                image.records().slice(0, image.count() * OffHeapCatalog.RECORD_BYTES),
+                image.strings().offsets().slice(0, image.strings().size() * Integer.BYTES),
+                image.strings().data().slice(0, image.strings().dataBytes()),
+                encode(image.uncovered())
+        };
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC)
+                .putInt(FORMAT_VERSION)
+                .putLong(image.sequence())
+                .putLong(outboxSequence)
+                .putLong(System.currentTimeMillis())
+                .putInt(image.count())
+                .putInt(image.strings().size())
+                .putInt(image.strings().dataBytes())
+                .putInt(sections[3].remaining());
+        header.putLong(CHECKSUM, checksum(header.slice(0, CHECKSUM), sections));
+        header.clear();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            for (ByteBuffer section : sections) {
+                writeFully(channel, section);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The mapped sections stay valid after the channel is closed, the page cache backs them
+    static Contents read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Catalog snapshot " + path + " is truncated");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Catalog snapshot " + path + " has an unknown format");
+            }
+            long sequence = header.getLong(8);
+            long outboxSequence = header.getLong(16);
+            int count = header.getInt(32);
+            int strings = header.getInt(36);
+            int dataBytes = header.getInt(40);
+            int uncoveredBytes = header.getInt(44);
+            long[] sizes = {(long) count * OffHeapCatalog.RECORD_BYTES, (long) strings * Integer.BYTES, dataBytes, uncoveredBytes};
+            long expectedSize = HEADER_BYTES;
+            for (long size : sizes) {
+                expectedSize += size;
+            }
+            if (channel.size() != expectedSize) {
+                throw new IOException("Catalog snapshot " + path + " has " + channel.size() + " bytes instead of " + expectedSize);
+            }
+
+            ByteBuffer[] sections = new ByteBuffer[sizes.length];
+            long position = HEADER_BYTES;
+            for (int i = 0; i < sizes.length; i++) {
+                sections[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, sizes[i]);
+                position += sizes[i];
+            }
+            if (checksum(header.slice(0, CHECKSUM), sections) != header.getLong(CHECKSUM)) {
+                throw new IOException("Catalog snapshot " + path + " is corrupt, the checksum doesn't match");
+            }
+            OffHeapCatalog.Image image = new OffHeapCatalog.Image(sections[0], count,
+                    new OffHeapStringDictionary.View(sections[2], sections[1], strings, dataBytes),
+                    decode(sections[3]), sequence);
+            return new Contents(image, outboxSequence);
+        }
+    }
+
+    record Contents(OffHeapCatalog.Image image, long outboxSequence) {
+    }
+
+    private static long checksum(ByteBuffer header, ByteBuffer[] sections) {
+        CRC32C crc = new CRC32C();
+        crc.update(header.duplicate());
+        for (ByteBuffer section : sections) {
+            crc.update(section.duplicate());
+        }
+        return crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Same layout as the string data: length as int followed by the UTF-8 bytes
+    private static ByteBuffer encode(Set<String> isbns) {
+        byte[][] encoded = isbns.stream().map(isbn -> isbn.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        int bytes = 0;
+        for (byte[] isbn : encoded) {
+            bytes += Integer.BYTES + isbn.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(bytes);
+        for (byte[] isbn : encoded) {
+            buffer.putInt(isbn.length).put(isbn);
+        }
+        return buffer.flip();
+    }
+
+    private static Set<String> decode(ByteBuffer buffer) {
+        Set<String> isbns = new HashSet<>();
+        ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            byte[] isbn = new byte[source.getInt()];
+            source.get(isbn);
+            isbns.add(new String(isbn, StandardCharsets.UTF_8));
+        }
+        return isbns;
+    }
+}
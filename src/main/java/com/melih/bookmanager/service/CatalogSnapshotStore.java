@@ -0,0 +1,134 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.repository.book.BookChangeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Writes the off-heap catalog to a snapshot file periodically and on shutdown, and maps it on startup.
+// A restarted node skips the full build. Reads go to the repository until BookSearchIndexUpdater
+// reconciled the catalog with the changes the database got in the meantime, which the outbox
+// sequence in the file lets it read from the outbox instead of walking the whole book table.
+@Component
+@ConditionalOnProperty(name = {"bookmanager.catalog.off-heap.enabled", "bookmanager.catalog.snapshot.enabled"}, havingValue = "true")
+@Slf4j
+public class CatalogSnapshotStore implements SmartLifecycle {
+    // Changes this recent may have committed without having reached the catalog yet: their after-commit
+    // update or the datagram of another instance can still be on the way
+    private static final Duration IN_FLIGHT = Duration.ofMinutes(1);
+
+    private final OffHeapCatalog offHeapCatalog;
+    private final BookChangeRepository bookChangeRepository;
+    private final Path path;
+    private final Duration interval;
+    private ScheduledExecutorService scheduler;
+    // Sequence of the catalog in the file, nothing is written while it didn't change
+    private long writtenSequence = -1;
+
+    public CatalogSnapshotStore(OffHeapCatalog offHeapCatalog, BookChangeRepository bookChangeRepository,
+                                @Value("${bookmanager.catalog.snapshot.path:./data/catalog.snapshot}") Path path,
+                                @Value("${bookmanager.catalog.snapshot.interval:5m}") Duration interval) {
+        this.offHeapCatalog = offHeapCatalog;
+        this.bookChangeRepository = bookChangeRepository;
+        this.path = path;
+        this.interval = interval;
+    }
+
+    @Override
+    public void start() {
+        load();
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("catalog-snapshot").daemon().factory());
+        scheduler.scheduleWithFixedDelay(this::write, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+        write();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return scheduler != null;
+    }
+
+    // Loaded before the web server starts and stopped after it, so the last write sees every request
+    @Override
+    public int getPhase() {
+        return WebServerApplicationContext.START_STOP_LIFECYCLE_PHASE - 1;
+    }
+
+    // A missing or broken file only costs the full build from the database
+    synchronized void load() {
+        long started = System.nanoTime();
+        try {
+            CatalogSnapshotFile.Contents contents = CatalogSnapshotFile.read(path);
+            OffHeapCatalog.Image image = contents.image();
+            offHeapCatalog.load(image, contents.outboxSequence());
+            writtenSequence = image.sequence();
+            log.info("Mapped catalog snapshot {} with {} books at sequence {} (outbox {}) in {} ms", path,
+                    image.count() + image.uncovered().size(), image.sequence(), contents.outboxSequence(),
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (NoSuchFileException e) {
+            log.info("No catalog snapshot at {}, the catalog is built from the database", path);
+        } catch (IOException e) {
+            log.warn("Ignoring catalog snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+    synchronized void write() {
+        if (offHeapCatalog.sequence() == writtenSequence) {
+            return;
+        }
+        // Read before the image, a change committed in between is replayed once too often
+        long outboxSequence = outboxSequence();
+        Optional<OffHeapCatalog.Image> image = offHeapCatalog.image();
+        if (image.isEmpty()) {
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            CatalogSnapshotFile.write(path, image.get(), outboxSequence);
+            writtenSequence = image.get().sequence();
+            log.info("Wrote catalog snapshot {} at sequence {} in {} ms",
+                    path, writtenSequence, (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException e) {
+            log.warn("Could not write catalog snapshot {}", path, e);
+        }
+    }
+
+    // The catalog has every change up to this outbox sequence, the recent ones count as missing.
+    // Without the database the next start walks the whole book table.
+    private long outboxSequence() {
+        try {
+            long lastSequence = bookChangeRepository.lastSequence();
+            Long recent = bookChangeRepository.firstSequenceSince(Instant.now().minus(IN_FLIGHT));
+            return recent == null ? lastSequence : Math.min(lastSequence, recent - 1);
+        } catch (DataAccessException e) {
+            log.warn("Could not read the outbox sequence for the catalog snapshot: {}", e.getMessage());
+            return CatalogSnapshotFile.NO_OUTBOX_SEQUENCE;
+        }
+    }
+}
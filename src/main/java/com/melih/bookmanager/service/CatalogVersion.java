@@ -0,0 +1,37 @@
+package com.melih.bookmanager.service;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Change counter of the whole catalog, answers conditional GETs on book lists without a query.
+// The epoch is new with every start, so ETags from before a restart never match.
+@Component
+public class CatalogVersion {
+    private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+    private final AtomicLong changes = new AtomicLong();
+    private volatile Instant lastModified = Instant.now();
+
+    // Counted after the commit, otherwise a reader could get the old books with the new ETag
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBooksChanged(BookChangedEvent event) {
+        changed();
+    }
+
+    // Also called for the changes of other instances, see ClusterCacheInvalidator
+    public void changed() {
+        lastModified = Instant.now();
+        changes.incrementAndGet();
+    }
+
+    // Strong ETag, the same catalog version always renders the same bytes for the same URL
+    public String etag() {
+        return "\"" + epoch + "-" + changes.get() + "\"";
+    }
+
+    public Instant lastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,129 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.config.CacheConfig;
+import com.melih.bookmanager.repository.user.UserRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Tells the other instances about committed book and user changes and applies theirs to the caches
+// of this instance: the book cache, the second-level cache, the login cache, the search index and the
+// off-heap catalog. Remote invalidations run on the receiver thread of the bus, except the invalidation
+// of everything: its resync reads the whole catalog and would stall the receiver until its socket buffer
+// overflows, and the lost datagrams would ask for the next resync.
+@Component
+@ConditionalOnProperty(name = "bookmanager.invalidation.enabled", havingValue = "true")
+@Slf4j
+public class ClusterCacheInvalidator implements InvalidationBus.Listener {
+    private final InvalidationBus invalidationBus;
+    private final CacheManager cacheManager;
+    private final EntityManagerFactory entityManagerFactory;
+    private final AuthenticationCache authenticationCache;
+    private final BookEtags bookEtags;
+    private final UserRepository userRepository;
+    private final BookSearchIndexUpdater bookSearchIndexUpdater;
+    private final CatalogVersion catalogVersion;
+    // Requests that come in before the next run starts are covered by it, at most one run waits
+    private final ExecutorService invalidateAllExecutor =
+            Executors.newSingleThreadExecutor(Thread.ofPlatform().name("invalidation-resync").daemon().factory());
+    private final AtomicBoolean invalidateAllPending = new AtomicBoolean();
+
+    public ClusterCacheInvalidator(InvalidationBus invalidationBus, CacheManager cacheManager,
+                                   EntityManagerFactory entityManagerFactory, AuthenticationCache authenticationCache,
+                                   BookEtags bookEtags, UserRepository userRepository, BookSearchIndexUpdater bookSearchIndexUpdater,
+                                   CatalogVersion catalogVersion) {
+        this.invalidationBus = invalidationBus;
+        this.cacheManager = cacheManager;
+        this.entityManagerFactory = entityManagerFactory;
+        this.authenticationCache = authenticationCache;
+        this.bookEtags = bookEtags;
+        this.userRepository = userRepository;
+        this.bookSearchIndexUpdater = bookSearchIndexUpdater;
+        this.catalogVersion = catalogVersion;
+        invalidationBus.subscribe(this);
+    }
+
+    // After the commit, the other instances must not reload the old state
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBooksChanged(BookChangedEvent event) {
+        invalidationBus.publish(event.isbns(), List.of());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserChanged(UserChangedEvent event) {
+        invalidationBus.publish(List.of(), List.of(event.username()));
+    }
+
+    @Override
+    public void invalidate(Set<String> isbns, Set<String> usernames) {
+        if (!isbns.isEmpty()) {
+            Cache books = booksCache();
+            org.hibernate.Cache entities = secondLevelCache();
+            for (String isbn : isbns) {
+                books.evict(isbn);
+                entities.evictEntityData(Book.class, isbn);
+            }
+            bookEtags.evict(isbns);
+            // Reading lists may still reference deleted books
+            if (!bookSearchIndexUpdater.onRemoteBooksChanged(isbns).isEmpty()) {
+                userRepository.evictReadingListsFromCache();
+            }
+            catalogVersion.changed();
+        }
+        for (String username : usernames) {
+            authenticationCache.evict(username);
+            userRepository.evictFromCache(username);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        if (invalidateAllPending.compareAndSet(false, true)) {
+            invalidateAllExecutor.execute(this::runInvalidateAll);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        invalidateAllExecutor.shutdownNow();
+    }
+
+    private void runInvalidateAll() {
+        // Cleared before the run, a request during the run schedules the next one
+        invalidateAllPending.set(false);
+        try {
+            invalidateEverything();
+        } catch (RuntimeException e) {
+            log.warn("Could not invalidate all cached entries", e);
+        }
+    }
+
+    private void invalidateEverything() {
+        booksCache().clear();
+        bookEtags.evictAll();
+        secondLevelCache().evictAllRegions();
+        authenticationCache.evictAll();
+        bookSearchIndexUpdater.resync();
+        catalogVersion.changed();
+    }
+
+    private Cache booksCache() {
+        return cacheManager.getCache(CacheConfig.BOOKS_CACHE);
+    }
+
+    private org.hibernate.Cache secondLevelCache() {
+        return entityManagerFactory.getCache().unwrap(org.hibernate.Cache.class);
+    }
+}
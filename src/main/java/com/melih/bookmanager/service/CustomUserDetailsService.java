@@ -6,9 +6,9 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.stereotype.Service;
 
-@Service
+// Not a bean on purpose: it is only used by the provider in SecurityConfig. A UserDetailsService bean next
+// to an AuthenticationProvider bean makes Spring Security warn that the UserDetailsService is ignored.
 @RequiredArgsConstructor
 public class CustomUserDetailsService implements UserDetailsService {
 
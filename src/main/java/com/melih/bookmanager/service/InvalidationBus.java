@@ -0,0 +1,21 @@
+package com.melih.bookmanager.service;
+
+import java.util.Collection;
+import java.util.Set;
+
+// Spreads cache invalidations between the instances of a cluster, see MulticastInvalidationBus
+public interface InvalidationBus {
+
+    // Queued and sent with the next batch, an isbn or username queued twice is sent once
+    void publish(Collection<String> isbns, Collection<String> usernames);
+
+    // The listener gets the invalidations of the other instances, never the own ones
+    void subscribe(Listener listener);
+
+    interface Listener {
+        void invalidate(Set<String> isbns, Set<String> usernames);
+
+        // Invalidations of another instance were lost, every cached entry may be stale
+        void invalidateAll();
+    }
+}
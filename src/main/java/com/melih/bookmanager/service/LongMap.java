@@ -0,0 +1,128 @@
+package com.melih.bookmanager.service;
+
+import java.util.Arrays;
+
+// Open addressing map from long keys to values, the keys aren't boxed. 0 can't be used as a key,
+// it marks a free slot (IsbnKey.NOT_ENCODABLE is 0 as well). Not thread safe.
+final class LongMap<V> {
+    private static final int MIN_SLOTS = 4;
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    LongMap() {
+        keys = new long[MIN_SLOTS];
+        values = new Object[MIN_SLOTS];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int slot = slotOf(key);
+        return keys[slot] == key ? (V) values[slot] : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("0 can't be used as a key");
+        }
+        int slot = slotOf(key);
+        if (keys[slot] == key) {
+            V previous = (V) values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // At most three quarters full
+        if (++size * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int slot = slotOf(key);
+        if (keys[slot] != key) {
+            return null;
+        }
+        V previous = (V) values[slot];
+        // Moves the following entries of the probe sequence back instead of leaving a tombstone
+        int mask = keys.length - 1;
+        for (int next = (slot + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+        keys[slot] = 0;
+        values[slot] = null;
+        size--;
+        if (size * 8 < keys.length && keys.length > MIN_SLOTS) {
+            resize(keys.length / 2);
+        }
+        return previous;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(EntryConsumer<? super V> action) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                action.accept(keys[slot], (V) values[slot]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    // The slot of the key or the free slot where it would go
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int slots) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[slots];
+        values = new Object[slots];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != 0) {
+                int target = slotOf(oldKeys[slot]);
+                keys[target] = oldKeys[slot];
+                values[target] = oldValues[slot];
+            }
+        }
+    }
+
+    // Packed isbns of one prefix only differ in the low digits, mix them into the high bits
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
@@ -0,0 +1,386 @@
+package com.melih.bookmanager.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Invalidation bus over UDP multicast, every instance joins the same group and port.
+// Invalidations are collected for the flush interval and sent in datagrams that fit into an Ethernet frame.
+// UDP may drop datagrams: every instance numbers its datagrams and a gap makes the receivers drop
+// everything they cached. A datagram lost at the end of a burst is only bounded by the cache TTLs.
+// Every datagram ends with an HMAC-SHA256 over the rest, keyed with the secret all instances share;
+// datagrams that don't carry a valid one are dropped, so nobody else on the network can clear the caches.
+// Recorded datagrams can't be replayed either: a sequence number that isn't above the last one of its sender
+// is dropped, and so is a datagram sent longer than the max age ago, which covers a receiver that just
+// started and doesn't know the sender's sequence yet. The clocks of the instances have to agree within it.
+@Component
+@ConditionalOnProperty(name = "bookmanager.invalidation.enabled", havingValue = "true")
+@Slf4j
+public class MulticastInvalidationBus implements InvalidationBus, SmartLifecycle {
+    static final int MAGIC = 0x424D4956; // "BMIV"
+    static final byte FORMAT_VERSION = 3;
+    // Stays below the usual MTU together with the IP and UDP headers, nothing gets fragmented
+    static final int MAX_DATAGRAM_BYTES = 1400;
+
+    // magic, format, flags, node id, sequence, sent at (epoch millis), isbn count, username count
+    private static final int HEADER_BYTES = 42;
+    private static final int COUNTS = 38;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_BYTES = 32;
+    private static final int MAX_PAYLOAD_BYTES = MAX_DATAGRAM_BYTES - MAC_BYTES;
+    private static final int MAX_VALUE_BYTES = MAX_PAYLOAD_BYTES - HEADER_BYTES - Short.BYTES;
+    private static final byte FLAG_EVERYTHING = 1;
+    // Room for bursts while the receiver thread reloads books
+    private static final int RECEIVE_BUFFER_BYTES = 1 << 20;
+
+    private final UUID nodeId = UUID.randomUUID();
+    private final String group;
+    private final int port;
+    private final String interfaceName;
+    private final int timeToLive;
+    private final Duration flushInterval;
+    private final int maxPending;
+    private final long maxAgeMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Collected until the next flush, guarded by this
+    private Set<String> pendingIsbns = new LinkedHashSet<>();
+    private Set<String> pendingUsernames = new LinkedHashSet<>();
+    private boolean pendingEverything;
+
+    // Datagrams are numbered and sent under this lock, so they leave in sequence order
+    private final Object sendLock = new Object();
+    private long sequence;
+    // Last sequence seen per sender, only used by the receiver thread
+    private final Map<UUID, Long> lastSequences = new HashMap<>();
+    // Mac instances aren't thread safe: one for sending under the send lock, one for the receiver thread
+    private final Mac signer;
+    private final Mac verifier;
+    private long rejected;
+    private long replayed;
+
+    private DatagramChannel channel;
+    private InetSocketAddress target;
+    private ScheduledExecutorService flusher;
+
+    public MulticastInvalidationBus(@Value("${bookmanager.invalidation.group:239.255.42.99}") String group,
+                                    @Value("${bookmanager.invalidation.port:4446}") int port,
+                                    @Value("${bookmanager.invalidation.interface:lo}") String interfaceName,
+                                    @Value("${bookmanager.invalidation.ttl:1}") int timeToLive,
+                                    @Value("${bookmanager.invalidation.flush-interval:20ms}") Duration flushInterval,
+                                    @Value("${bookmanager.invalidation.max-pending:100000}") int maxPending,
+                                    @Value("${bookmanager.invalidation.max-age:5s}") Duration maxAge,
+                                    @Value("${bookmanager.invalidation.secret:}") String secret) {
+        if (secret.isBlank()) {
+            throw new IllegalStateException("bookmanager.invalidation.secret has to be set when invalidations are enabled");
+        }
+        this.signer = mac(secret);
+        this.verifier = mac(secret);
+        this.group = group;
+        this.port = port;
+        this.interfaceName = interfaceName;
+        this.timeToLive = timeToLive;
+        this.flushInterval = flushInterval;
+        this.maxPending = maxPending;
+        this.maxAgeMillis = maxAge.toMillis();
+    }
+
+    @Override
+    public void start() {
+        try {
+            InetAddress groupAddress = InetAddress.getByName(group);
+            NetworkInterface networkInterface = NetworkInterface.getByName(interfaceName);
+            if (networkInterface == null) {
+                throw new IllegalStateException("Unknown network interface " + interfaceName);
+            }
+            channel = DatagramChannel.open(groupAddress instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET)
+                    .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                    .setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES)
+                    .bind(new InetSocketAddress(port))
+                    .setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface)
+                    .setOption(StandardSocketOptions.IP_MULTICAST_TTL, timeToLive)
+                    // Instances on the same host get each other's datagrams
+                    .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            channel.join(groupAddress, networkInterface);
+            target = new InetSocketAddress(groupAddress, port);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not join the invalidation group " + group + ":" + port, e);
+        }
+        Thread.ofPlatform().name("invalidation-receiver").daemon().start(this::receive);
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("invalidation-flush").daemon().factory());
+        flusher.scheduleWithFixedDelay(this::flush, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+        log.info("Instance {} joined the invalidation group {}:{} on {}", nodeId, group, port, interfaceName);
+    }
+
+    @Override
+    public void stop() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher = null;
+        flush();
+        try {
+            // Ends the receiver thread
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close the invalidation channel", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return flusher != null;
+    }
+
+    // Stopped after the web server, the invalidations of the last requests still go out
+    @Override
+    public int getPhase() {
+        return WebServerApplicationContext.START_STOP_LIFECYCLE_PHASE - 1;
+    }
+
+    // Too many pending invalidations, or a value that doesn't fit into a datagram, are sent as one
+    // invalidation of everything instead
+    @Override
+    public synchronized void publish(Collection<String> isbns, Collection<String> usernames) {
+        if (pendingEverything) {
+            return;
+        }
+        pendingIsbns.addAll(isbns);
+        pendingUsernames.addAll(usernames);
+        if (pendingIsbns.size() + pendingUsernames.size() > maxPending || tooLong(isbns) || tooLong(usernames)) {
+            pendingEverything = true;
+            pendingIsbns = new LinkedHashSet<>();
+            pendingUsernames = new LinkedHashSet<>();
+        }
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    // A datagram that can't be sent shows up as a gap on the receivers
+    void flush() {
+        synchronized (sendLock) {
+            Set<String> isbns;
+            Set<String> usernames;
+            boolean everything;
+            synchronized (this) {
+                if (channel == null || !pendingEverything && pendingIsbns.isEmpty() && pendingUsernames.isEmpty()) {
+                    return;
+                }
+                isbns = pendingIsbns;
+                usernames = pendingUsernames;
+                everything = pendingEverything;
+                pendingIsbns = new LinkedHashSet<>();
+                pendingUsernames = new LinkedHashSet<>();
+                pendingEverything = false;
+            }
+            for (ByteBuffer datagram : encode(isbns, usernames, everything)) {
+                try {
+                    channel.send(datagram, target);
+                } catch (IOException e) {
+                    log.warn("Could not send cache invalidations", e);
+                }
+            }
+        }
+    }
+
+    // Isbns first, then usernames, each as a short length followed by the UTF-8 bytes.
+    // Every datagram gets the next sequence number of this instance.
+    List<ByteBuffer> encode(Collection<String> isbns, Collection<String> usernames, boolean everything) {
+        synchronized (sendLock) {
+            List<ByteBuffer> datagrams = new ArrayList<>();
+            if (everything) {
+                datagrams.add(sign(header(FLAG_EVERYTHING)));
+                return datagrams;
+            }
+            List<Collection<String>> kinds = List.of(isbns, usernames);
+            ByteBuffer datagram = null;
+            for (int kind = 0; kind < kinds.size(); kind++) {
+                int count = COUNTS + kind * Short.BYTES;
+                for (String value : kinds.get(kind)) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    if (datagram == null || datagram.remaining() < Short.BYTES + bytes.length) {
+                        if (datagram != null) {
+                            datagrams.add(sign(datagram));
+                        }
+                        datagram = header((byte) 0);
+                    }
+                    datagram.putShort((short) bytes.length).put(bytes);
+                    datagram.putShort(count, (short) (datagram.getShort(count) + 1));
+                }
+            }
+            if (datagram != null) {
+                datagrams.add(sign(datagram));
+            }
+            return datagrams;
+        }
+    }
+
+    // Datagrams of this instance, of other applications or other format versions are ignored,
+    // forged, damaged and replayed ones are dropped
+    void handle(ByteBuffer datagram) {
+        int start = datagram.position();
+        if (datagram.remaining() < HEADER_BYTES + MAC_BYTES || datagram.getInt() != MAGIC || datagram.get() != FORMAT_VERSION) {
+            return;
+        }
+        if (!verify(datagram, start)) {
+            // A wrong secret on one instance would otherwise only show up as stale caches
+            if (rejected++ % 1000 == 0) {
+                log.warn("Dropped {} invalidation datagrams with an invalid signature, is bookmanager.invalidation.secret the same everywhere?", rejected);
+            }
+            return;
+        }
+        byte flags = datagram.get();
+        UUID sender = new UUID(datagram.getLong(), datagram.getLong());
+        if (sender.equals(nodeId)) {
+            return;
+        }
+        long sequence = datagram.getLong();
+        long sentAt = datagram.getLong();
+        Long previous = lastSequences.get(sender);
+        if (previous != null && sequence <= previous || Math.abs(now() - sentAt) > maxAgeMillis) {
+            if (replayed++ % 1000 == 0) {
+                log.warn("Dropped {} replayed or outdated invalidation datagrams, last one from instance {}", replayed, sender);
+            }
+            return;
+        }
+        lastSequences.put(sender, sequence);
+        if (previous != null && sequence > previous + 1) {
+            log.warn("Lost {} invalidation datagrams of instance {}, dropping all cached entries", sequence - previous - 1, sender);
+            notifyListeners(Listener::invalidateAll);
+            return;
+        }
+        if ((flags & FLAG_EVERYTHING) != 0) {
+            notifyListeners(Listener::invalidateAll);
+            return;
+        }
+        int isbnCount = datagram.getShort();
+        int usernameCount = datagram.getShort();
+        Set<String> isbns = decode(datagram, isbnCount);
+        Set<String> usernames = decode(datagram, usernameCount);
+        notifyListeners(listener -> listener.invalidate(isbns, usernames));
+    }
+
+    private void receive() {
+        ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        while (true) {
+            try {
+                datagram.clear();
+                channel.receive(datagram);
+                handle(datagram.flip());
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not process an invalidation datagram", e);
+            }
+        }
+    }
+
+    private void notifyListeners(Consumer<Listener> notification) {
+        for (Listener listener : listeners) {
+            try {
+                notification.accept(listener);
+            } catch (RuntimeException e) {
+                log.warn("Invalidation listener {} failed", listener, e);
+            }
+        }
+    }
+
+    // The header and values leave room for the MAC, which sign() appends
+    private ByteBuffer header(byte flags) {
+        return ByteBuffer.allocate(MAX_PAYLOAD_BYTES)
+                .putInt(MAGIC)
+                .put(FORMAT_VERSION)
+                .put(flags)
+                .putLong(nodeId.getMostSignificantBits())
+                .putLong(nodeId.getLeastSignificantBits())
+                .putLong(++sequence)
+                .putLong(now())
+                .putShort((short) 0)
+                .putShort((short) 0);
+    }
+
+    // Overridden by the tests
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private ByteBuffer sign(ByteBuffer payload) {
+        payload.flip();
+        signer.update(payload.duplicate());
+        return ByteBuffer.allocate(payload.remaining() + MAC_BYTES).put(payload).put(signer.doFinal()).flip();
+    }
+
+    // Checks the MAC over the datagram from 'start' and cuts it off, the position stays where it is
+    private boolean verify(ByteBuffer datagram, int start) {
+        int macStart = datagram.limit() - MAC_BYTES;
+        verifier.update(datagram.duplicate().position(start).limit(macStart));
+        byte[] mac = new byte[MAC_BYTES];
+        datagram.get(macStart, mac);
+        datagram.limit(macStart);
+        return MessageDigest.isEqual(verifier.doFinal(), mac);
+    }
+
+    private static Mac mac(String secret) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not set up " + MAC_ALGORITHM, e);
+        }
+    }
+
+    private static Set<String> decode(ByteBuffer datagram, int count) {
+        Set<String> values = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[datagram.getShort()];
+            datagram.get(bytes);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static boolean tooLong(Collection<String> values) {
+        return values.stream().anyMatch(value -> value.getBytes(StandardCharsets.UTF_8).length > MAX_VALUE_BYTES);
+    }
+}
@@ -0,0 +1,747 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.repository.book.IsbnKey;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Read-only copy of the catalog outside the heap for GET /books and GET /books/{isbn},
+// enabled with bookmanager.catalog.off-heap.enabled.
+// Every book is a fixed record of 28 bytes sorted by its packed isbn, titles and authors
+// are stored once in a shared dictionary. Changes are collected in a small delta on the heap
+// and merged into a new base once the delta grows, readers always work on one immutable snapshot.
+// Direct memory is bounded by bookmanager.catalog.off-heap.max-size: a merge that doesn't fit is put off
+// and the changes stay in the delta, a full build that doesn't fit leaves the books to the repository.
+@Component
+@Slf4j
+public class OffHeapCatalog {
+    // Record layout: key, version, title id, author id, pages
+    static final int KEY = 0;
+    static final int VERSION = 8;
+    static final int TITLE = 16;
+    static final int AUTHOR = 20;
+    static final int PAGES = 24;
+    static final int RECORD_BYTES = 28;
+    private static final int[] STRING_FIELDS = {TITLE, AUTHOR};
+
+    private static final int INITIAL_RECORDS = 1024;
+    // Marks a book deleted in the delta
+    private static final Book DELETED = new Book();
+
+    private final boolean enabled;
+    // The delta is merged once it exceeds this size or 1/16 of the base, whichever is larger
+    private final int minMergeSize;
+    // Records and strings of the published snapshot plus the ones being written, the old base
+    // stays reachable for running readers while its successor is built
+    private final long maxBytes;
+
+    private volatile Snapshot snapshot = Snapshot.NOT_READY;
+    // Only used by the writing methods, they are synchronized
+    private OffHeapStringDictionary dictionary = new OffHeapStringDictionary();
+    // Set from loading a snapshot until it was reconciled with the database. Reads go to the repository
+    // meanwhile, and nothing is merged: a key in the delta has been changed since the load.
+    private volatile boolean reconciling;
+    // Outbox sequence the loaded snapshot has every change up to, until it was reconciled or rebuilt.
+    // CatalogSnapshotFile.NO_OUTBOX_SEQUENCE if unknown.
+    private volatile long loadedOutboxSequence = CatalogSnapshotFile.NO_OUTBOX_SEQUENCE;
+    // Warned once until a merge fits again
+    private boolean full;
+    // One full build at a time. Not the monitor: the build reads the whole database and the changes
+    // must not wait for it.
+    private final ReentrantLock buildLock = new ReentrantLock();
+    // Changes by isbn while a full build runs, DELETED for removed books, null if none runs.
+    // Applied to the new base when it is published.
+    private Map<String, Book> changedDuringBuild;
+
+    public OffHeapCatalog(@Value("${bookmanager.catalog.off-heap.enabled:false}") boolean enabled,
+                          @Value("${bookmanager.catalog.off-heap.min-merge-size:10000}") int minMergeSize,
+                          @Value("${bookmanager.catalog.off-heap.max-size:1GB}") DataSize maxSize,
+                          MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.minMergeSize = minMergeSize;
+        this.maxBytes = maxSize.toBytes();
+        Gauge.builder("bookmanager.catalog.offheap.bytes", this, OffHeapCatalog::offHeapBytes)
+                .description("Direct and mapped memory used by the off-heap catalog")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // ----- Reads, lock free on the current snapshot -----
+
+    public boolean ready() {
+        return snapshot.ready();
+    }
+
+    // Counts the changes applied since the first build, continued by catalogs loaded from a snapshot file
+    public long sequence() {
+        return snapshot.sequence();
+    }
+
+    // False before the first build, while a loaded snapshot is reconciled and for isbns that can't be packed,
+    // those have to go to the repository
+    public boolean covers(String isbn) {
+        return snapshot.ready() && !reconciling && IsbnKey.encode(isbn) != IsbnKey.NOT_ENCODABLE;
+    }
+
+    // True when pages can be served, i.e. the catalog is current and no book with an isbn that can't be packed exists
+    public boolean coversAllBooks() {
+        Snapshot current = snapshot;
+        return current.ready() && !reconciling && current.uncovered().isEmpty();
+    }
+
+    // Whether find answers for the isbn at all, BookSearchIndex keeps copies of the other books
+    boolean holds(String isbn) {
+        return snapshot.ready() && IsbnKey.encode(isbn) != IsbnKey.NOT_ENCODABLE;
+    }
+
+    public Optional<Book> find(String isbn) {
+        Snapshot current = snapshot;
+        long key = IsbnKey.encode(isbn);
+        Book changed = current.delta().get(key);
+        if (changed != null) {
+            return changed == DELETED ? Optional.empty() : Optional.of(copyOf(changed));
+        }
+        int index = current.indexOf(key);
+        return index >= 0 ? Optional.of(current.bookAt(index)) : Optional.empty();
+    }
+
+    // Keyset page in isbn order, same contract as BookService#getBooksPage
+    public List<Book> page(String after, int limit) {
+        Snapshot current = snapshot;
+        List<Book> page = new ArrayList<>(Math.min(limit, 1024));
+        int index = after == null || after.isBlank() ? 0 : current.firstAfter(after);
+        Iterator<Map.Entry<Long, Book>> changes = current.deltaAfter(after).entrySet().iterator();
+        Map.Entry<Long, Book> change = changes.hasNext() ? changes.next() : null;
+
+        while (page.size() < limit && (index < current.count() || change != null)) {
+            int comparison = index >= current.count() ? 1
+                    : change == null ? -1
+                    : IsbnKey.compare(current.keyAt(index), change.getKey());
+            if (comparison < 0) {
+                page.add(current.bookAt(index++));
+                continue;
+            }
+            if (comparison == 0) {
+                // The delta replaces the base record
+                index++;
+            }
+            if (change.getValue() != DELETED) {
+                page.add(copyOf(change.getValue()));
+            }
+            change = changes.hasNext() ? changes.next() : null;
+        }
+        return page;
+    }
+
+    // Every book in isbn order, page by page
+    public void forEachBook(Consumer<? super Book> action) {
+        List<Book> page = page(null, 1000);
+        while (!page.isEmpty()) {
+            page.forEach(action);
+            page = page(page.getLast().getIsbn(), 1000);
+        }
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        int size = current.count() + current.uncovered().size();
+        for (Map.Entry<Long, Book> change : current.delta().entrySet()) {
+            boolean inBase = current.indexOf(change.getKey()) >= 0;
+            if (change.getValue() == DELETED && inBase) {
+                size--;
+            } else if (change.getValue() != DELETED && !inBase) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    // ----- Writes -----
+
+    // Full build from all books, e.g. BookRepository#forEachBook. Input in isbn order is written as is,
+    // anything else (a database collation that doesn't compare byte wise) gets sorted afterwards.
+    // The new base is built off to the side while reads and changes go to the current snapshot. It is
+    // published at once, with the changes made during the build on top.
+    public void rebuild(Consumer<Consumer<? super Book>> orderedBooks) {
+        if (!enabled) {
+            return;
+        }
+        buildLock.lock();
+        try {
+            long limit;
+            synchronized (this) {
+                changedDuringBuild = new LinkedHashMap<>();
+                // The previous base is only released once the new one is published
+                limit = maxBytes - (snapshot.ready() ? offHeapBytes() : 0);
+            }
+            OffHeapStringDictionary strings = new OffHeapStringDictionary();
+            Set<String> uncovered = new HashSet<>();
+            RecordWriter writer;
+            try {
+                writer = new RecordWriter(INITIAL_RECORDS, strings, limit);
+                orderedBooks.accept(book -> {
+                    long key = IsbnKey.encode(book.getIsbn());
+                    if (key == IsbnKey.NOT_ENCODABLE) {
+                        uncovered.add(book.getIsbn());
+                    } else {
+                        writer.append(key, book);
+                    }
+                });
+                writer.sort();
+            } catch (LimitExceededException e) {
+                synchronized (this) {
+                    changedDuringBuild = null;
+                    dictionary = new OffHeapStringDictionary();
+                    loadedOutboxSequence = CatalogSnapshotFile.NO_OUTBOX_SEQUENCE;
+                    snapshot = Snapshot.NOT_READY;
+                }
+                log.warn("The catalog doesn't fit into {} bytes off-heap, books are read from the repository", maxBytes);
+                return;
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    changedDuringBuild = null;
+                }
+                throw e;
+            }
+            publishBuilt(writer, strings, uncovered);
+            log.info("Off-heap catalog contains {} books in {} bytes", size(), offHeapBytes());
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    private synchronized void publishBuilt(RecordWriter writer, OffHeapStringDictionary strings, Set<String> uncovered) {
+        Map<String, Book> changed = changedDuringBuild;
+        changedDuringBuild = null;
+        dictionary = strings;
+        full = false;
+        reconciling = false;
+        loadedOutboxSequence = CatalogSnapshotFile.NO_OUTBOX_SEQUENCE;
+        Snapshot built = new Snapshot(writer.records(), writer.count(), strings.view(), emptyDelta(), Set.copyOf(uncovered),
+                snapshot.sequence() + 1, true);
+        if (changed.isEmpty()) {
+            snapshot = built;
+            return;
+        }
+        NavigableMap<Long, Book> delta = emptyDelta();
+        Set<String> builtUncovered = new HashSet<>(uncovered);
+        changed.forEach((isbn, book) -> {
+            long key = IsbnKey.encode(isbn);
+            if (key != IsbnKey.NOT_ENCODABLE) {
+                delta.put(key, book);
+            } else if (book == DELETED) {
+                builtUncovered.remove(isbn);
+            } else {
+                builtUncovered.add(isbn);
+            }
+        });
+        publish(built, delta, builtUncovered);
+    }
+
+    // Adds the books or replaces the stored versions, called after the commit
+    public synchronized void put(Collection<Book> books) {
+        if (changedDuringBuild != null) {
+            books.forEach(book -> changedDuringBuild.put(book.getIsbn(), copyOf(book)));
+        }
+        Snapshot current = snapshot;
+        if (!current.ready() || books.isEmpty()) {
+            return;
+        }
+        NavigableMap<Long, Book> delta = copyOf(current.delta());
+        Set<String> uncovered = new HashSet<>(current.uncovered());
+        for (Book book : books) {
+            long key = IsbnKey.encode(book.getIsbn());
+            if (key == IsbnKey.NOT_ENCODABLE) {
+                uncovered.add(book.getIsbn());
+            } else {
+                delta.put(key, copyOf(book));
+            }
+        }
+        publish(current, delta, uncovered);
+    }
+
+    public synchronized void remove(Collection<String> isbns) {
+        if (changedDuringBuild != null) {
+            isbns.forEach(isbn -> changedDuringBuild.put(isbn, DELETED));
+        }
+        Snapshot current = snapshot;
+        if (!current.ready() || isbns.isEmpty()) {
+            return;
+        }
+        NavigableMap<Long, Book> delta = copyOf(current.delta());
+        Set<String> uncovered = new HashSet<>(current.uncovered());
+        for (String isbn : isbns) {
+            long key = IsbnKey.encode(isbn);
+            if (key == IsbnKey.NOT_ENCODABLE) {
+                uncovered.remove(isbn);
+            } else {
+                delta.put(key, DELETED);
+            }
+        }
+        publish(current, delta, uncovered);
+    }
+
+    // ----- Snapshot files, see CatalogSnapshotStore -----
+
+    // Base records and strings without a delta, merges the pending changes first
+    synchronized Optional<Image> image() {
+        Snapshot current = snapshot;
+        if (!current.ready() || reconciling) {
+            return Optional.empty();
+        }
+        if (!current.delta().isEmpty()) {
+            if (!merge(current, current.delta(), current.uncovered(), current.sequence())) {
+                return Optional.empty();
+            }
+            current = snapshot;
+        }
+        return Optional.of(new Image(current.records(), current.count(), current.strings(), current.uncovered(), current.sequence()));
+    }
+
+    synchronized void load(Image image, long outboxSequence) {
+        if (!enabled) {
+            return;
+        }
+        dictionary = OffHeapStringDictionary.continueFrom(image.strings());
+        reconciling = true;
+        loadedOutboxSequence = outboxSequence;
+        snapshot = new Snapshot(image.records(), image.count(), image.strings(), emptyDelta(),
+                Set.copyOf(image.uncovered()), image.sequence(), true);
+    }
+
+    // Changes after this outbox sequence are all the loaded snapshot misses, empty if it isn't known
+    public OptionalLong loadedOutboxSequence() {
+        long outboxSequence = loadedOutboxSequence;
+        return reconciling && outboxSequence != CatalogSnapshotFile.NO_OUTBOX_SEQUENCE
+                ? OptionalLong.of(outboxSequence) : OptionalLong.empty();
+    }
+
+    // Isbns whose books differ from the database: in version or content, missing on either side, or not packable.
+    // The whole book is compared, a book deleted and added again starts over with version 0.
+    // Until reconciled() the books changed after this call are left alone by refresh and forget.
+    public List<String> reconcileCandidates(Consumer<Consumer<? super Book>> databaseBooks) {
+        Snapshot current;
+        synchronized (this) {
+            reconciling = true;
+            current = snapshot;
+        }
+        BitSet seen = new BitSet(current.count());
+        Set<String> candidates = new LinkedHashSet<>(current.uncovered());
+        databaseBooks.accept(book -> {
+            long key = IsbnKey.encode(book.getIsbn());
+            int index = key == IsbnKey.NOT_ENCODABLE ? -1 : current.indexOf(key);
+            if (index >= 0) {
+                seen.set(index);
+                if (current.matches(index, book)) {
+                    return;
+                }
+            }
+            candidates.add(book.getIsbn());
+        });
+        for (int index = seen.nextClearBit(0); index < current.count(); index = seen.nextClearBit(index + 1)) {
+            candidates.add(IsbnKey.decode(current.keyAt(index)));
+        }
+        return List.copyOf(candidates);
+    }
+
+    // Stores the books read for the candidates, returns the ones that were applied
+    public synchronized List<Book> refresh(Collection<Book> books) {
+        Snapshot current = snapshot;
+        NavigableMap<Long, Book> delta = copyOf(current.delta());
+        Set<String> uncovered = new HashSet<>(current.uncovered());
+        List<Book> applied = new ArrayList<>();
+        for (Book book : books) {
+            long key = IsbnKey.encode(book.getIsbn());
+            if (key == IsbnKey.NOT_ENCODABLE) {
+                uncovered.add(book.getIsbn());
+                applied.add(book);
+            } else if (!current.delta().containsKey(key)) {
+                delta.put(key, copyOf(book));
+                applied.add(book);
+            }
+        }
+        publish(current, delta, uncovered);
+        return applied;
+    }
+
+    // Removes candidates that aren't in the database anymore, returns the removed isbns
+    public synchronized List<String> forget(Collection<String> isbns) {
+        Snapshot current = snapshot;
+        NavigableMap<Long, Book> delta = copyOf(current.delta());
+        Set<String> uncovered = new HashSet<>(current.uncovered());
+        List<String> applied = new ArrayList<>();
+        for (String isbn : isbns) {
+            long key = IsbnKey.encode(isbn);
+            if (key == IsbnKey.NOT_ENCODABLE) {
+                if (uncovered.remove(isbn)) {
+                    applied.add(isbn);
+                }
+            } else if (!current.delta().containsKey(key) && current.indexOf(key) >= 0) {
+                delta.put(key, DELETED);
+                applied.add(isbn);
+            }
+        }
+        publish(current, delta, uncovered);
+        return applied;
+    }
+
+    public synchronized void reconciled() {
+        reconciling = false;
+        loadedOutboxSequence = CatalogSnapshotFile.NO_OUTBOX_SEQUENCE;
+        Snapshot current = snapshot;
+        if (current.delta().size() > Math.max(minMergeSize, current.count() / 16)) {
+            merge(current, current.delta(), current.uncovered(), current.sequence());
+        }
+    }
+
+    // Strings in the dictionary, including the ones no book uses anymore
+    int stringCount() {
+        return dictionary.size();
+    }
+
+    long offHeapBytes() {
+        return (long) snapshot.records().capacity() + dictionary.offHeapBytes();
+    }
+
+    private void publish(Snapshot current, NavigableMap<Long, Book> delta, Set<String> uncovered) {
+        long sequence = current.sequence() + 1;
+        if (reconciling || delta.size() <= Math.max(minMergeSize, current.count() / 16)
+                || !merge(current, delta, uncovered, sequence)) {
+            snapshot = new Snapshot(current.records(), current.count(), current.strings(), delta, Set.copyOf(uncovered), sequence, true);
+        }
+    }
+
+    // One sequential pass into a new base. The strings of the base keep their ids unless less than half
+    // of the dictionary is still referenced, then the live strings are copied into a new one.
+    // False if the new base wouldn't fit into the bound, nothing is published then.
+    private boolean merge(Snapshot current, NavigableMap<Long, Book> delta, Set<String> uncovered, long sequence) {
+        long recordBytes = (long) (current.count() + delta.size()) * RECORD_BYTES;
+        if (offHeapBytes() + recordBytes + stringBytes(delta) > maxBytes) {
+            warnFull();
+            return false;
+        }
+        RecordWriter writer = new RecordWriter(current.count() + delta.size(), dictionary,
+                maxBytes - current.records().capacity());
+        try {
+            Iterator<Map.Entry<Long, Book>> changes = delta.entrySet().iterator();
+            Map.Entry<Long, Book> change = changes.hasNext() ? changes.next() : null;
+            int index = 0;
+            while (index < current.count() || change != null) {
+                int comparison = index >= current.count() ? 1
+                        : change == null ? -1
+                        : IsbnKey.compare(current.keyAt(index), change.getKey());
+                if (comparison < 0) {
+                    writer.copy(current.records(), index++);
+                    continue;
+                }
+                if (comparison == 0) {
+                    index++;
+                }
+                if (change.getValue() != DELETED) {
+                    writer.append(change.getKey(), change.getValue());
+                }
+                change = changes.hasNext() ? changes.next() : null;
+            }
+        } catch (LimitExceededException e) {
+            warnFull();
+            return false;
+        }
+        compact(writer, current.records().capacity());
+        full = false;
+        snapshot = new Snapshot(writer.records(), writer.count(), dictionary.view(), emptyDelta(), Set.copyOf(uncovered), sequence, true);
+        return true;
+    }
+
+    // Titles and authors of deleted books stay in the dictionary, it is rewritten once they make up
+    // more than half of it and the copy fits next to the old one
+    private void compact(RecordWriter writer, long oldRecordBytes) {
+        BitSet live = new BitSet(dictionary.size());
+        ByteBuffer records = writer.records();
+        for (int index = 0; index < writer.count(); index++) {
+            for (int field : STRING_FIELDS) {
+                int id = records.getInt(index * RECORD_BYTES + field);
+                if (id != OffHeapStringDictionary.NULL_ID) {
+                    live.set(id);
+                }
+            }
+        }
+        if (live.cardinality() * 2 >= dictionary.size()
+                || oldRecordBytes + records.capacity() + 2 * dictionary.offHeapBytes() > maxBytes) {
+            return;
+        }
+        OffHeapStringDictionary.View strings = dictionary.view();
+        OffHeapStringDictionary compacted = new OffHeapStringDictionary();
+        int[] ids = new int[dictionary.size()];
+        for (int id = live.nextSetBit(0); id >= 0; id = live.nextSetBit(id + 1)) {
+            ids[id] = compacted.intern(strings.get(id));
+        }
+        for (int index = 0; index < writer.count(); index++) {
+            for (int field : STRING_FIELDS) {
+                int position = index * RECORD_BYTES + field;
+                int id = records.getInt(position);
+                if (id != OffHeapStringDictionary.NULL_ID) {
+                    records.putInt(position, ids[id]);
+                }
+            }
+        }
+        log.info("Compacted the off-heap strings from {} to {}", dictionary.size(), compacted.size());
+        dictionary = compacted;
+    }
+
+    private void warnFull() {
+        if (!full) {
+            full = true;
+            log.warn("Merging the off-heap catalog would exceed {} bytes, changes are kept on the heap", maxBytes);
+        }
+    }
+
+    // Upper bound for the strings the delta adds to the dictionary
+    private static long stringBytes(NavigableMap<Long, Book> delta) {
+        long bytes = 0;
+        for (Book book : delta.values()) {
+            if (book != DELETED) {
+                bytes += utf8Bytes(book.getTitle()) + utf8Bytes(book.getAuthor()) + 4L * Integer.BYTES;
+            }
+        }
+        // The buffers grow by doubling
+        return 2 * bytes;
+    }
+
+    private static long utf8Bytes(String value) {
+        return value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static NavigableMap<Long, Book> emptyDelta() {
+        return new TreeMap<>(IsbnKey::compare);
+    }
+
+    private static NavigableMap<Long, Book> copyOf(NavigableMap<Long, Book> delta) {
+        NavigableMap<Long, Book> copy = emptyDelta();
+        copy.putAll(delta);
+        return copy;
+    }
+
+    private static Book copyOf(Book book) {
+        Book copy = new Book(book.getIsbn(), book.getTitle(), book.getAuthor(), book.getPages());
+        copy.setVersion(book.getVersion());
+        return copy;
+    }
+
+    // Base records, the strings they reference and the changes since the base was written.
+    // Never modified after publication.
+    private record Snapshot(ByteBuffer records, int count, OffHeapStringDictionary.View strings,
+                            NavigableMap<Long, Book> delta, Set<String> uncovered, long sequence, boolean ready) {
+        static final Snapshot NOT_READY = new Snapshot(ByteBuffer.allocate(0), 0,
+                OffHeapStringDictionary.View.EMPTY, emptyDelta(), Set.of(), 0, false);
+
+        long keyAt(int index) {
+            return records.getLong(index * RECORD_BYTES + KEY);
+        }
+
+        boolean matches(int index, Book book) {
+            int position = index * RECORD_BYTES;
+            return records.getLong(position + VERSION) == book.getVersion()
+                    && records.getInt(position + PAGES) == book.getPages()
+                    && Objects.equals(strings.get(records.getInt(position + TITLE)), book.getTitle())
+                    && Objects.equals(strings.get(records.getInt(position + AUTHOR)), book.getAuthor());
+        }
+
+        Book bookAt(int index) {
+            int position = index * RECORD_BYTES;
+            Book book = new Book(IsbnKey.decode(records.getLong(position + KEY)),
+                    strings.get(records.getInt(position + TITLE)),
+                    strings.get(records.getInt(position + AUTHOR)),
+                    records.getInt(position + PAGES));
+            book.setVersion(records.getLong(position + VERSION));
+            return book;
+        }
+
+        // Binary search over the sorted keys, like Arrays.binarySearch
+        int indexOf(long key) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int comparison = IsbnKey.compare(keyAt(mid), key);
+                if (comparison < 0) {
+                    low = mid + 1;
+                } else if (comparison > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        // First base record behind 'after', which doesn't have to be a packable isbn itself
+        int firstAfter(String after) {
+            long afterKey = IsbnKey.encode(after);
+            if (afterKey != IsbnKey.NOT_ENCODABLE) {
+                int index = indexOf(afterKey);
+                return index >= 0 ? index + 1 : -index - 1;
+            }
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (IsbnKey.decode(keyAt(mid)).compareTo(after) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        NavigableMap<Long, Book> deltaAfter(String after) {
+            if (after == null || after.isBlank()) {
+                return delta;
+            }
+            long afterKey = IsbnKey.encode(after);
+            if (afterKey != IsbnKey.NOT_ENCODABLE) {
+                return delta.tailMap(afterKey, false);
+            }
+            NavigableMap<Long, Book> tail = emptyDelta();
+            delta.forEach((key, book) -> {
+                if (IsbnKey.decode(key).compareTo(after) > 0) {
+                    tail.put(key, book);
+                }
+            });
+            return tail;
+        }
+    }
+
+    // What a snapshot file holds, the records are sorted by key
+    record Image(ByteBuffer records, int count, OffHeapStringDictionary.View strings, Set<String> uncovered, long sequence) {
+    }
+
+    // Thrown by RecordWriter when its records and strings would outgrow the limit
+    private static final class LimitExceededException extends RuntimeException {
+        LimitExceededException() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Appends records to a growing direct buffer, records and strings together stay below the limit
+    private static final class RecordWriter {
+        private final OffHeapStringDictionary strings;
+        private final long limit;
+        private ByteBuffer records;
+        private int count;
+        private boolean sorted = true;
+
+        RecordWriter(int capacity, OffHeapStringDictionary strings, long limit) {
+            this.strings = strings;
+            this.limit = limit;
+            this.records = allocate((long) Math.max(capacity, 1) * RECORD_BYTES);
+        }
+
+        void append(long key, Book book) {
+            if (count > 0 && IsbnKey.compare(keyAt(count - 1), key) >= 0) {
+                sorted = false;
+            }
+            int position = reserve();
+            records.putLong(position + KEY, key);
+            records.putLong(position + VERSION, book.getVersion());
+            records.putInt(position + TITLE, strings.intern(book.getTitle()));
+            records.putInt(position + AUTHOR, strings.intern(book.getAuthor()));
+            records.putInt(position + PAGES, book.getPages());
+            if (records.capacity() + strings.offHeapBytes() > limit) {
+                throw new LimitExceededException();
+            }
+        }
+
+        void copy(ByteBuffer source, int index) {
+            int position = reserve();
+            records.put(position, source, index * RECORD_BYTES, RECORD_BYTES);
+        }
+
+        // Heapsort in place, no second buffer for catalogs that barely fit once
+        void sort() {
+            if (sorted) {
+                return;
+            }
+            for (int root = count / 2 - 1; root >= 0; root--) {
+                siftDown(root, count);
+            }
+            for (int end = count - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            sorted = true;
+        }
+
+        ByteBuffer records() {
+            return records;
+        }
+
+        int count() {
+            return count;
+        }
+
+        private long keyAt(int index) {
+            return records.getLong(index * RECORD_BYTES + KEY);
+        }
+
+        private void siftDown(int root, int end) {
+            for (int child = 2 * root + 1; child < end; root = child, child = 2 * root + 1) {
+                if (child + 1 < end && IsbnKey.compare(keyAt(child), keyAt(child + 1)) < 0) {
+                    child++;
+                }
+                if (IsbnKey.compare(keyAt(root), keyAt(child)) >= 0) {
+                    return;
+                }
+                swap(root, child);
+            }
+        }
+
+        private void swap(int first, int second) {
+            for (int offset = 0; offset < RECORD_BYTES; offset += Integer.BYTES) {
+                int value = records.getInt(first * RECORD_BYTES + offset);
+                records.putInt(first * RECORD_BYTES + offset, records.getInt(second * RECORD_BYTES + offset));
+                records.putInt(second * RECORD_BYTES + offset, value);
+            }
+        }
+
+        private int reserve() {
+            if ((count + 1) * RECORD_BYTES > records.capacity()) {
+                ByteBuffer grown = allocate(2L * records.capacity());
+                grown.put(0, records, 0, count * RECORD_BYTES);
+                records = grown;
+            }
+            return count++ * RECORD_BYTES;
+        }
+
+        private ByteBuffer allocate(long bytes) {
+            if (bytes + strings.offHeapBytes() > limit || bytes > Integer.MAX_VALUE) {
+                throw new LimitExceededException();
+            }
+            return ByteBuffer.allocateDirect((int) bytes);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.melih.bookmanager.service;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Append-only dictionary of strings kept off-heap as UTF-8, equal strings share one id.
+// Only one thread may intern. Readers work on a View, which sees every id handed out before
+// the view was taken as long as it is passed on through a volatile field.
+final class OffHeapStringDictionary {
+    static final int NULL_ID = -1;
+
+    private static final int INITIAL_DATA_BYTES = 1 << 16;
+    private static final int INITIAL_IDS = 1 << 12;
+
+    // Per string: its length as int followed by the UTF-8 bytes
+    private ByteBuffer data;
+    // Position of every string in data, indexed by id
+    private ByteBuffer offsets;
+    // Open addressing over the ids, 0 is a free slot and id + 1 a used one. Kept at most half full,
+    // null until the first intern of a dictionary that was read from a snapshot.
+    private ByteBuffer table;
+    private int size;
+    private int dataBytes;
+
+    OffHeapStringDictionary() {
+        this(ByteBuffer.allocateDirect(INITIAL_DATA_BYTES), ByteBuffer.allocateDirect(INITIAL_IDS * Integer.BYTES), 0, 0);
+        table = ByteBuffer.allocateDirect(2 * INITIAL_IDS * Integer.BYTES);
+    }
+
+    private OffHeapStringDictionary(ByteBuffer data, ByteBuffer offsets, int size, int dataBytes) {
+        this.data = data;
+        this.offsets = offsets;
+        this.size = size;
+        this.dataBytes = dataBytes;
+    }
+
+    // Continues with the strings of a view, e.g. one mapped from a snapshot file. The buffers may be
+    // read-only, they are copied on the first intern of a new string.
+    static OffHeapStringDictionary continueFrom(View view) {
+        return new OffHeapStringDictionary(view.data(), view.offsets(), view.size(), view.dataBytes());
+    }
+
+    int intern(String value) {
+        if (value == null) {
+            return NULL_ID;
+        }
+        if (table == null) {
+            rehash(Math.max(2 * INITIAL_IDS, Integer.highestOneBit(Math.max(size, 1)) * 4));
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int mask = slots() - 1;
+        for (int slot = hash(bytes) & mask; ; slot = (slot + 1) & mask) {
+            int entry = table.getInt(slot * Integer.BYTES);
+            if (entry == 0) {
+                int id = append(bytes);
+                table.putInt(slot * Integer.BYTES, id + 1);
+                if (size * 2 > slots()) {
+                    rehash(slots() * 2);
+                }
+                return id;
+            }
+            if (matches(entry - 1, bytes)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    View view() {
+        return new View(data, offsets, size, dataBytes);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long offHeapBytes() {
+        return (long) data.capacity() + offsets.capacity() + (table == null ? 0 : table.capacity());
+    }
+
+    // Read access to the strings that existed when the view was taken
+    record View(ByteBuffer data, ByteBuffer offsets, int size, int dataBytes) {
+        static final View EMPTY = new View(ByteBuffer.allocate(0), ByteBuffer.allocate(0), 0, 0);
+
+        String get(int id) {
+            if (id == NULL_ID) {
+                return null;
+            }
+            int offset = offsets.getInt(id * Integer.BYTES);
+            byte[] bytes = new byte[data.getInt(offset)];
+            data.get(offset + Integer.BYTES, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private int append(byte[] bytes) {
+        data = ensureCapacity(data, dataBytes + Integer.BYTES + bytes.length);
+        offsets = ensureCapacity(offsets, (size + 1) * Integer.BYTES);
+        data.putInt(dataBytes, bytes.length);
+        data.put(dataBytes + Integer.BYTES, bytes);
+        offsets.putInt(size * Integer.BYTES, dataBytes);
+        dataBytes += Integer.BYTES + bytes.length;
+        return size++;
+    }
+
+    private boolean matches(int id, byte[] bytes) {
+        int offset = offsets.getInt(id * Integer.BYTES);
+        return data.getInt(offset) == bytes.length
+                && data.slice(offset + Integer.BYTES, bytes.length).equals(ByteBuffer.wrap(bytes));
+    }
+
+    private void rehash(int slots) {
+        table = ByteBuffer.allocateDirect(slots * Integer.BYTES);
+        int mask = slots() - 1;
+        for (int id = 0; id < size; id++) {
+            int offset = offsets.getInt(id * Integer.BYTES);
+            byte[] bytes = new byte[data.getInt(offset)];
+            data.get(offset + Integer.BYTES, bytes);
+            int slot = hash(bytes) & mask;
+            while (table.getInt(slot * Integer.BYTES) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table.putInt(slot * Integer.BYTES, id + 1);
+        }
+    }
+
+    private int slots() {
+        return table.capacity() / Integer.BYTES;
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = 1;
+        for (byte b : bytes) {
+            hash = 31 * hash + b;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    // Readers of an older view keep the old buffer, the new one only gets appended to
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (capacity <= buffer.capacity()) {
+            return buffer;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(capacity, buffer.capacity() * 2));
+        grown.put(0, buffer, 0, buffer.capacity());
+        return grown;
+    }
+}
@@ -0,0 +1,15 @@
+package com.melih.bookmanager.service;
+
+// Published by UserService after the account or the reading lists of a user changed,
+// listeners get it once the transaction committed. credentialsChanged is set when the password or the
+// account state changed and the login cache has to drop the user.
+public record UserChangedEvent(String username, boolean credentialsChanged) {
+
+    public static UserChangedEvent readingListsChanged(String username) {
+        return new UserChangedEvent(username, false);
+    }
+
+    public static UserChangedEvent credentialsChanged(String username) {
+        return new UserChangedEvent(username, true);
+    }
+}
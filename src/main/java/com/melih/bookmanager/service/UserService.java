@@ -9,40 +9,89 @@ import com.melih.bookmanager.exception.User.UsernameAlreadyExistsException;
 import com.melih.bookmanager.repository.book.BookRepository;
 import com.melih.bookmanager.repository.user.UserRepository;
 import com.melih.bookmanager.utils.UserResponse;
+import io.micrometer.core.annotation.Timed;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.List;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
+@Timed(value = "bookmanager.user.service", histogram = true, percentiles = {0.5, 0.95, 0.99})
 public class UserService {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int PROFILE_PAGE_SIZE = 20;
+
     private final UserRepository userRepository;
     private final BookRepository bookRepository;
     private final PasswordEncoder passwordEncoder;
+    private final ApplicationEventPublisher eventPublisher;
 
     public User getUserByUsername(String username) {
         return userRepository.findByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException(username));
     }
 
+    // Five bounded queries regardless of the size of the reading lists: the user, the first page
+    // and the size of each list. The next pages come from the paged endpoints.
     public UserResponse getUserProfile(String username) {
         User user = getUserByUsername(username);
+        Pageable firstPage = PageRequest.of(0, PROFILE_PAGE_SIZE);
 
         UserResponse userResponse = new UserResponse();
 
         // build the user response
         userResponse.setId(user.getId());
         userResponse.setUsername(user.getUsername());
-        userResponse.setCurrentlyReading(user.getCurrentlyReading());
-        userResponse.setReadBooks(user.getReadBooks());
+        userResponse.setCurrentlyReading(userRepository.findCurrentlyReadingByUsername(username, firstPage));
+        userResponse.setCurrentlyReadingCount(userRepository.countCurrentlyReadingByUsername(username));
+        userResponse.setReadBooks(userRepository.findReadBooksByUsername(username, firstPage));
+        userResponse.setReadBooksCount(userRepository.countReadBooksByUsername(username));
+        if (userResponse.getCurrentlyReadingCount() > PROFILE_PAGE_SIZE) {
+            userResponse.setCurrentlyReadingNext(nextPage(username, "currently-reading"));
+        }
+        if (userResponse.getReadBooksCount() > PROFILE_PAGE_SIZE) {
+            userResponse.setReadBooksNext(nextPage(username, "read"));
+        }
 
         return userResponse;
     }
 
+    private static String nextPage(String username, String list) {
+        return UriComponentsBuilder.fromPath("/user/{username}/{list}")
+                .queryParam("page", 1)
+                .queryParam("size", PROFILE_PAGE_SIZE)
+                .buildAndExpand(username, list)
+                .encode()
+                .toUriString();
+    }
+
+    public List<Book> getCurrentlyReadingBooks(String username, int page, int size) {
+        requireExistingUser(username);
+        return userRepository.findCurrentlyReadingByUsername(username, PageRequest.of(page, size));
+    }
+
+    public List<Book> getReadBooks(String username, int page, int size) {
+        requireExistingUser(username);
+        return userRepository.findReadBooksByUsername(username, PageRequest.of(page, size));
+    }
+
+    private void requireExistingUser(String username) {
+        if (!userRepository.existsByUsername(username)) {
+            throw new UsernameNotFoundException(username);
+        }
+    }
+
 
     public void register(String username, String password) {
         log.info("Attempting to register a new user: {}", username);
@@ -72,6 +121,7 @@ public class UserService {
         }
     }
 
+    @Transactional
     public void deactivateAccount(String username, String password) {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new BadCredentialsException(username));
@@ -79,11 +129,14 @@ public class UserService {
         if (passwordEncoder.matches(password, user.getPassword())) {
             user.setActive(false);
             userRepository.save(user);
+            // AuthenticationCache drops the login after the commit
+            eventPublisher.publishEvent(UserChangedEvent.credentialsChanged(username));
         } else {
             throw new BadCredentialsException();
         }
     }
 
+    @Transactional
     public void changePassword(String username, String oldPassword, String newPassword) {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(BadCredentialsException::new);
@@ -93,7 +146,9 @@ public class UserService {
         }
         user.setPassword(passwordEncoder.encode(newPassword));
         userRepository.save(user);
+        eventPublisher.publishEvent(UserChangedEvent.credentialsChanged(username));
     }
+
     @Transactional
     public void markAsCurrentlyReading(String username, String isbn) {
         User user = userRepository.findByUsername(username)
@@ -102,6 +157,7 @@ public class UserService {
                 .orElseThrow(() -> new BookNotFoundException("Book not found"));
 
         user.getCurrentlyReading().add(book);
+        eventPublisher.publishEvent(UserChangedEvent.readingListsChanged(username));
     }
 
     @Transactional
@@ -113,5 +169,6 @@ public class UserService {
 
         user.getReadBooks().add(book);
         user.getCurrentlyReading().remove(book);
+        eventPublisher.publishEvent(UserChangedEvent.readingListsChanged(username));
     }
 }
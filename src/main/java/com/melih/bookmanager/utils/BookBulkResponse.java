@@ -0,0 +1,19 @@
+package com.melih.bookmanager.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookBulkResponse {
+    // Number of books that were inserted, updated or deleted
+    private int affected;
+    // Isbns that were skipped because they already exist, or for updates because their version changed
+    private List<String> conflictingIsbns;
+    // Isbns that were skipped because they don't exist
+    private List<String> missingIsbns;
+}
@@ -0,0 +1,22 @@
+package com.melih.bookmanager.utils;
+
+import com.melih.bookmanager.api.model.Book;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookChange {
+    // Increases by one with every change, consumers continue with ?since=<last sequence>
+    private long sequence;
+    private Instant timestamp;
+    // INSERTED, UPDATED or DELETED
+    private String type;
+    private String isbn;
+    // State of the book after the change, null for deletes
+    private Book book;
+}
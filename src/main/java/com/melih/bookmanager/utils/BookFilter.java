@@ -0,0 +1,24 @@
+package com.melih.bookmanager.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.util.StringUtils;
+
+// Optional filters for GET /books, null means no restriction
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookFilter {
+    // Exact author name
+    private String author;
+    // Beginning of the title, case sensitive so that the title index can be used
+    private String titlePrefix;
+    private Integer minPages;
+    private Integer maxPages;
+
+    public boolean hasNoRestrictions() {
+        return !StringUtils.hasText(author) && !StringUtils.hasText(titlePrefix)
+                && minPages == null && maxPages == null;
+    }
+}
@@ -0,0 +1,30 @@
+package com.melih.bookmanager.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookImportStatus {
+    private UUID id;
+    // QUEUED, RUNNING, COMPLETED, CANCELLED or FAILED
+    private String state;
+    // Number of books in the payload, -1 for streamed uploads
+    private int total;
+    // Books handled so far, inserted plus conflicts
+    private int processed;
+    private int inserted;
+    private int conflicts;
+    // Only the first conflicting isbns are kept, 'conflicts' has the full count
+    private List<String> conflictingIsbns;
+    private double booksPerSecond;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;
+}
@@ -0,0 +1,20 @@
+package com.melih.bookmanager.utils;
+
+import com.melih.bookmanager.api.model.Book;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookSearchResponse {
+    // Books of the requested page, best match first
+    private List<Book> books;
+    // Number of matching books over all pages
+    private int total;
+    private int page;
+    private int size;
+}
@@ -0,0 +1,23 @@
+package com.melih.bookmanager.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Partial update of a book, fields that are null stay unchanged
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookUpdateRequest {
+    private String isbn;
+    private String title;
+    private String author;
+    private Integer pages;
+    // Version the client has seen, the update is skipped as a conflict if the book changed since.
+    // Without a version the update is applied unconditionally.
+    private Long version;
+
+    public BookUpdateRequest(String isbn, String title, String author, Integer pages) {
+        this(isbn, title, author, pages, null);
+    }
+}
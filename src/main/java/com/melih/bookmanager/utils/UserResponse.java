@@ -4,12 +4,17 @@ import com.melih.bookmanager.api.model.Book;
 import lombok.Data;
 
 import java.util.List;
-import java.util.UUID;
 
+// The reading lists only hold their first page, the rest is read from /user/{username}/currently-reading
+// and /user/{username}/read starting at the next links, which are null when the list is complete
 @Data
 public class UserResponse {
     private long id;
     private String username;
     private List<Book> currentlyReading;
+    private long currentlyReadingCount;
+    private String currentlyReadingNext;
     private List<Book> readBooks;
+    private long readBooksCount;
+    private String readBooksNext;
 }
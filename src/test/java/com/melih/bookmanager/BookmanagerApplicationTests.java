@@ -3,7 +3,9 @@ package com.melih.bookmanager;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
-@SpringBootTest
+@SpringBootTest(properties = {
+		"bookmanager.changes.path=./build/changes/${random.uuid}",
+		"bookmanager.catalog.snapshot.path=./build/catalog/${random.uuid}.snapshot"})
 class BookmanagerApplicationTests {
 
 	@Test
@@ -0,0 +1,106 @@
+package com.melih.bookmanager;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.api.model.BookChangeType;
+import com.melih.bookmanager.exception.Book.BookNotFoundException;
+import com.melih.bookmanager.service.BookService;
+import com.melih.bookmanager.service.OffHeapCatalog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Two starts on the same in-memory database, the second one maps the snapshot written by the first
+// and picks up the changes made while no node was running
+class CatalogSnapshotTests {
+
+	@TempDir
+	private Path directory;
+
+	@Test
+	void restartedNodeMapsTheSnapshotAndReloadsTheBooksChangedInTheOutbox() throws Exception {
+		restartAfterChanges(false);
+	}
+
+	@Test
+	void restartedNodeComparesTheWholeCatalogWhenTheOutboxWasPruned() throws Exception {
+		restartAfterChanges(true);
+	}
+
+	private void restartAfterChanges(boolean pruneOutbox) throws Exception {
+		String url = "jdbc:h2:mem:snapshot-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+		long sequence;
+		try (ConfigurableApplicationContext context = start(url)) {
+			BookService bookService = context.getBean(BookService.class);
+			bookService.addBooksBulk(List.of(
+					new Book("978-1-00-000001-1", "Title 1", "Author", 100),
+					new Book("978-1-00-000002-1", "Title 2", "Author", 200),
+					new Book("978-1-00-000003-1", "Title 3", "Author", 300)));
+			sequence = context.getBean(OffHeapCatalog.class).sequence();
+		}
+		assertThat(directory.resolve("catalog.snapshot")).exists();
+
+		// Changes of another node while this one was down, with their outbox entries
+		try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+			connection.createStatement().executeUpdate(
+					"update book set pages = 150, version = version + 1 where isbn = '978-1-00-000001-1'");
+			recordChange(connection, BookChangeType.UPDATED, "978-1-00-000001-1");
+			connection.createStatement().executeUpdate("delete from book where isbn = '978-1-00-000002-1'");
+			recordChange(connection, BookChangeType.DELETED, "978-1-00-000002-1");
+			// Deleted and added again, the version starts over at 0 like in the snapshot
+			connection.createStatement().executeUpdate("delete from book where isbn = '978-1-00-000003-1'");
+			recordChange(connection, BookChangeType.DELETED, "978-1-00-000003-1");
+			connection.createStatement().executeUpdate("insert into book (isbn, title, author, pages, version) "
+					+ "values ('978-1-00-000003-1', 'Other', 'Author', 300, 0)");
+			recordChange(connection, BookChangeType.INSERTED, "978-1-00-000003-1");
+			if (pruneOutbox) {
+				connection.createStatement().executeUpdate("delete from book_change");
+			}
+		}
+
+		try (ConfigurableApplicationContext context = start(url)) {
+			BookService bookService = context.getBean(BookService.class);
+			assertThat(context.getBean(OffHeapCatalog.class).sequence()).isGreaterThan(sequence);
+			assertThat(bookService.getBookByIsbn("978-1-00-000001-1").getPages()).isEqualTo(150);
+			assertThatThrownBy(() -> bookService.getBookByIsbn("978-1-00-000002-1"))
+					.isInstanceOf(BookNotFoundException.class);
+			assertThat(bookService.getBookByIsbn("978-1-00-000003-1").getTitle()).isEqualTo("Other");
+			assertThat(bookService.getBooksPage(null, 10)).hasSize(5);
+			assertThat(bookService.searchBooks("Title", 0, 10).getTotal()).isEqualTo(1);
+		}
+	}
+
+	private static void recordChange(Connection connection, BookChangeType type, String isbn) throws SQLException {
+		connection.createStatement().executeUpdate("update book_change_counter set last_sequence = last_sequence + 1");
+		try (PreparedStatement insert = connection.prepareStatement("insert into book_change (sequence, changed_at, change_type, isbn) "
+				+ "select last_sequence, current_timestamp, ?, ? from book_change_counter")) {
+			insert.setString(1, type.name());
+			insert.setString(2, isbn);
+			insert.executeUpdate();
+		}
+	}
+
+	private ConfigurableApplicationContext start(String url) {
+		// Arguments instead of default properties, those would lose against application.properties
+		return new SpringApplicationBuilder(BookmanagerApplication.class)
+				.profiles("h2mem")
+				.run("--server.port=0",
+						"--spring.datasource.url=" + url,
+						"--spring.jpa.hibernate.ddl-auto=update",
+						"--bookmanager.catalog.off-heap.enabled=true",
+						"--bookmanager.catalog.snapshot.path=" + directory.resolve("catalog.snapshot"),
+						"--bookmanager.changes.path=" + directory.resolve("changes"));
+	}
+
+}
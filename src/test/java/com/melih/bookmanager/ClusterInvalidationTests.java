@@ -0,0 +1,67 @@
+package com.melih.bookmanager;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.exception.Book.BookNotFoundException;
+import com.melih.bookmanager.service.BookService;
+import com.melih.bookmanager.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.DatagramSocket;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.awaitility.Awaitility.await;
+
+// Two instances on one database and one host, the caches of the second one follow the writes of the first
+class ClusterInvalidationTests {
+
+	@TempDir
+	private Path directory;
+
+	@Test
+	void writesOnOneInstanceInvalidateTheCachesOfTheOther() throws Exception {
+		String url = "jdbc:h2:mem:cluster-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+		int port;
+		try (DatagramSocket socket = new DatagramSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		try (ConfigurableApplicationContext first = start(url, port, "first");
+			 ConfigurableApplicationContext second = start(url, port, "second")) {
+			BookService writer = first.getBean(BookService.class);
+			BookService reader = second.getBean(BookService.class);
+			assertThat(reader.getBookByIsbn("978-0132350884").getTitle()).isEqualTo("Clean Code");
+			assertThat(second.getBean(UserService.class).getUserByUsername("user").isActive()).isTrue();
+
+			writer.updateBook(new Book("978-0132350884", "Clean Code, 2nd Edition", "Robert C. Martin", 480), null);
+			writer.removeBook("978-0134685991");
+			first.getBean(UserService.class).deactivateAccount("user", "user");
+
+			await().atMost(Duration.ofSeconds(10)).untilAsserted(() -> {
+				assertThat(reader.getBookByIsbn("978-0132350884").getTitle()).isEqualTo("Clean Code, 2nd Edition");
+				assertThat(reader.searchBooks("2nd", 0, 10).getTotal()).isEqualTo(1);
+				assertThatThrownBy(() -> reader.getBookByIsbn("978-0134685991")).isInstanceOf(BookNotFoundException.class);
+				assertThat(second.getBean(UserService.class).getUserByUsername("user").isActive()).isFalse();
+			});
+		}
+	}
+
+	private ConfigurableApplicationContext start(String url, int port, String name) {
+		return new SpringApplicationBuilder(BookmanagerApplication.class)
+				.profiles("h2mem")
+				.run("--server.port=0",
+						"--spring.datasource.url=" + url,
+						"--spring.jpa.hibernate.ddl-auto=update",
+						"--bookmanager.changes.path=" + directory.resolve(name),
+						"--bookmanager.invalidation.enabled=true",
+						"--bookmanager.invalidation.secret=cluster-test",
+						"--bookmanager.invalidation.port=" + port,
+						"--bookmanager.invalidation.ttl=0");
+	}
+
+}
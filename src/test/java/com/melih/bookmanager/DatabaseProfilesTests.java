@@ -0,0 +1,53 @@
+package com.melih.bookmanager;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.service.BookService;
+import com.melih.bookmanager.utils.BookBulkResponse;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Production settings on H2 in PostgreSQL mode, covers the native and JDBC statements of the bulk paths
+@SpringBootTest(properties = {
+		"bookmanager.changes.path=./build/changes/${random.uuid}",
+		"bookmanager.catalog.snapshot.path=./build/catalog/${random.uuid}.snapshot"})
+@ActiveProfiles({"prod", "h2pg"})
+class DatabaseProfilesTests {
+
+	@Autowired
+	private BookService bookService;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void bulkOperationsWorkWithProductionSettings() {
+		List<Book> books = List.of(
+				new Book("978-1-00-000001-1", "Title 1", "Author", 100),
+				new Book("978-1-00-000002-1", "Title 2", "Author", 200));
+
+		assertThat(bookService.addBooksBulk(books).getAffected()).isEqualTo(2);
+
+		BookBulkResponse updated = bookService.updateBooksBulk(
+				List.of(new BookUpdateRequest("978-1-00-000001-1", null, null, 150, 0L)));
+		assertThat(updated.getAffected()).isEqualTo(1);
+		assertThat(bookService.getBookByIsbn("978-1-00-000001-1").getPages()).isEqualTo(150);
+
+		assertThat(bookService.removeBooksBulk(List.of("978-1-00-000001-1", "978-1-00-000002-1")).getAffected())
+				.isEqualTo(2);
+	}
+
+	@Test
+	void statisticsAreOffInProduction() {
+		assertThat(entityManagerFactory.unwrap(SessionFactory.class).getStatistics().isStatisticsEnabled()).isFalse();
+	}
+
+}
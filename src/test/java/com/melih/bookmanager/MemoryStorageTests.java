@@ -0,0 +1,50 @@
+package com.melih.bookmanager;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.repository.book.BookRepository;
+import com.melih.bookmanager.repository.book.InMemoryBookRepository;
+import com.melih.bookmanager.service.BookEtags;
+import com.melih.bookmanager.service.BookService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Catalog in memory, users in a private in-memory database so the demo books get seeded
+@SpringBootTest(properties = {
+		"bookmanager.storage=memory",
+		"bookmanager.changes.path=./build/changes/${random.uuid}",
+		"bookmanager.catalog.snapshot.path=./build/catalog/${random.uuid}.snapshot"})
+@ActiveProfiles("h2mem")
+class MemoryStorageTests {
+
+	@Autowired
+	private BookRepository bookRepository;
+
+	@Autowired
+	private BookService bookService;
+
+	@Test
+	void bookServiceRunsOnTheInMemoryRepository() {
+		assertThat(bookRepository).isInstanceOf(InMemoryBookRepository.class);
+		assertThat(bookService.getBookByIsbn("978-0132350884").getTitle()).isEqualTo("Clean Code");
+
+		bookService.addBooksBulk(List.of(new Book("978-1-00-000001-1", "Title 1", "Author", 100)));
+		Book book = bookService.getBookByIsbn("978-1-00-000001-1");
+		String etag = BookEtags.etagOf(book);
+		book.setPages(150);
+		assertThat(bookService.updateBook(book, etag).getVersion()).isEqualTo(1);
+
+		assertThat(bookService.getBooksPage(null, 10)).extracting(Book::getIsbn)
+				.containsExactly("978-0132350884", "978-0134685991", "978-0596007126", "978-1-00-000001-1");
+		assertThat(bookService.searchBooks("clean", 0, 10).getTotal()).isEqualTo(1);
+
+		bookService.removeBook("978-1-00-000001-1");
+		assertThat(bookRepository.count()).isEqualTo(3);
+	}
+
+}
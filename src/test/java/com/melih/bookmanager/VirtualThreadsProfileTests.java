@@ -0,0 +1,33 @@
+package com.melih.bookmanager;
+
+import com.melih.bookmanager.config.VirtualThreadPinningMonitor;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = {
+		"bookmanager.changes.path=./build/changes/${random.uuid}",
+		"bookmanager.catalog.snapshot.path=./build/catalog/${random.uuid}.snapshot"})
+@ActiveProfiles("virtual-threads")
+class VirtualThreadsProfileTests {
+
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Autowired
+	private AsyncTaskExecutor applicationTaskExecutor;
+
+	@Test
+	void asyncWorkRunsOnVirtualThreads() throws Exception {
+		boolean virtual = applicationTaskExecutor.submit(() -> Thread.currentThread().isVirtual()).get();
+
+		assertThat(virtual).isTrue();
+		assertThat(applicationContext.getBeansOfType(VirtualThreadPinningMonitor.class)).hasSize(1);
+	}
+
+}
@@ -1,7 +1,11 @@
 package com.melih.bookmanager.integration;
 
 import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.config.CacheConfig;
 import com.melih.bookmanager.repository.book.BookRepository;
+import com.melih.bookmanager.service.BookChangeLog;
+import com.melih.bookmanager.service.BookSearchIndexUpdater;
+import com.melih.bookmanager.utils.BookUpdateRequest;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org. springframework.http.MediaType;
@@ -9,15 +13,30 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import tools.jackson.databind.ObjectMapper;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
-@SpringBootTest
+// Own change log directory, the other test contexts write ./data/changes
+@SpringBootTest(properties = "bookmanager.changes.path=./build/changes/${random.uuid}")
 @AutoConfigureMockMvc
 public class BookIntegrationTest {
     @Autowired
@@ -29,11 +48,24 @@ public class BookIntegrationTest {
     @Autowired
     private BookRepository bookRepository;
 
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private BookSearchIndexUpdater bookSearchIndexUpdater;
+
+    @Autowired
+    private BookChangeLog bookChangeLog;
+
     @BeforeEach
     void setUp() {
+        cacheManager.getCache(CacheConfig.BOOKS_CACHE).clear();
+        cacheManager.getCache(CacheConfig.BOOK_ETAGS_CACHE).clear();
         bookRepository.deleteAll();
         bookRepository.save(new Book("978-3-16-148410-20", "Der Wind am Ende der Welt", "Franz Kafka", 300));
         bookRepository.save(new Book("978-0-545-01022-33", "Das Schweigen der alten Eiche", "Hermann Hesse", 350));
+        // The books above bypass BookService
+        bookSearchIndexUpdater.rebuild();
     }
 
     @AfterEach
@@ -51,6 +83,39 @@ public class BookIntegrationTest {
 
     @Test
     @WithMockUser(username = "testuser")
+    void whenGetBooksWithLimit_thenPagesFollowTheIsbnOrder() throws Exception {
+        // First page contains the smallest isbn and links to the next page
+        mockMvc.perform(get("/books").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].isbn").value("978-0-545-01022-33"))
+                .andExpect(header().string("Link", containsString("after=978-0-545-01022-33")));
+
+        // Second page starts after the cursor
+        mockMvc.perform(get("/books").param("after", "978-0-545-01022-33").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].isbn").value("978-3-16-148410-20"));
+
+        // Nothing left after the last isbn
+        mockMvc.perform(get("/books").param("after", "978-3-16-148410-20"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void whenStreamAllBooks_thenWholeCatalogIsReturned() throws Exception {
+        MvcResult result = mockMvc.perform(get("/books").param("stream", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2))
+                .andExpect(jsonPath("$[0].isbn").value("978-0-545-01022-33"));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
     void createBook_AndRetrieveIt() throws Exception {
         Book newBook = new Book("978-3-16-148410-0", "The Great Gatsby", "F. Scott Fitzgerald", 126);
 
@@ -66,4 +131,351 @@ public class BookIntegrationTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.title").value("The Great Gatsby"));
     }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void createBooksBulk_ReportsConflictsInsteadOfFailing() throws Exception {
+        List<Book> books = List.of(
+                new Book("978-3-16-148410-20", "Der Wind am Ende der Welt", "Franz Kafka", 300),
+                new Book("978-1-86197-876-9", "Hafen der verlorenen Träume", "Haruki Murakami", 402));
+
+        mockMvc.perform(post("/books/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(books)))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.affected").value(1))
+                .andExpect(jsonPath("$.conflictingIsbns[0]").value("978-3-16-148410-20"));
+
+        assertThat(bookRepository.existsById("978-1-86197-876-9")).isTrue();
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void deleteBooksBulk_DeletesExistingAndReportsMissing() throws Exception {
+        List<String> isbns = List.of("978-3-16-148410-20", "000-0-00-000000-0");
+
+        mockMvc.perform(delete("/books/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(isbns)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affected").value(1))
+                .andExpect(jsonPath("$.missingIsbns[0]").value("000-0-00-000000-0"));
+
+        assertThat(bookRepository.existsById("978-3-16-148410-20")).isFalse();
+        assertThat(bookRepository.existsById("978-0-545-01022-33")).isTrue();
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void updateBooksBulk_ChangesOnlyGivenFields() throws Exception {
+        List<BookUpdateRequest> updates = List.of(
+                new BookUpdateRequest("978-3-16-148410-20", null, null, 320),
+                new BookUpdateRequest("000-0-00-000000-0", "Unknown", null, null));
+
+        mockMvc.perform(patch("/books/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updates)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affected").value(1))
+                .andExpect(jsonPath("$.missingIsbns[0]").value("000-0-00-000000-0"));
+
+        Book updated = bookRepository.findById("978-3-16-148410-20").orElseThrow();
+        assertThat(updated.getPages()).isEqualTo(320);
+        assertThat(updated.getTitle()).isEqualTo("Der Wind am Ende der Welt");
+        assertThat(bookRepository.existsById("000-0-00-000000-0")).isFalse();
+    }
+
+    @Test
+    void jdbcUpdate_EvictsTheBookFromTheSecondLevelCache() {
+        // Puts the book into the cache, the plain JDBC update bypasses Hibernate
+        bookRepository.findById("978-3-16-148410-20");
+
+        bookRepository.updateAll(List.of(new BookUpdateRequest("978-3-16-148410-20", "Der Wind", null, null)));
+
+        assertThat(bookRepository.findById("978-3-16-148410-20").orElseThrow().getTitle()).isEqualTo("Der Wind");
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void getBook_IsCachedUntilTheBookIsUpdated() throws Exception {
+        Cache booksCache = cacheManager.getCache(CacheConfig.BOOKS_CACHE);
+
+        mockMvc.perform(get("/books/978-3-16-148410-20"))
+                .andExpect(status().isOk());
+        assertThat(booksCache.get("978-3-16-148410-20")).isNotNull();
+
+        Book update = new Book("978-3-16-148410-20", "Der Wind am Ende der Welt", "Franz Kafka", 310);
+        mockMvc.perform(patch("/books")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(update)))
+                .andExpect(status().isNoContent());
+        assertThat(booksCache.get("978-3-16-148410-20")).isNull();
+
+        mockMvc.perform(get("/books/978-3-16-148410-20"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.pages").value(310));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void getBook_IsRecordedInTheMetrics() throws Exception {
+        mockMvc.perform(get("/books/978-3-16-148410-20"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/actuator/metrics/bookmanager.book.service")
+                        .param("tag", "method:getBookByIsbn"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/actuator/metrics/bookmanager.http.db.queries")
+                        .param("tag", "uri:/books/{isbn}"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void searchBooks_FindsIndexedAndNewlyAddedBooks() throws Exception {
+        mockMvc.perform(get("/books/search").param("q", "hesse eiche"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(1))
+                .andExpect(jsonPath("$.books[0].isbn").value("978-0-545-01022-33"));
+
+        Book newBook = new Book("978-3-518-36682-44", "Der Steppenwolf", "Hermann Hesse", 280);
+        mockMvc.perform(post("/books")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(newBook)))
+                .andExpect(status().isCreated());
+
+        mockMvc.perform(get("/books/search").param("q", "Hesse"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(2));
+        mockMvc.perform(get("/books/search").param("q", "steppen"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.books[0].isbn").value("978-3-518-36682-44"));
+    }
+
+    @Test
+    @WithMockUser(username = "testuser")
+    void whenGetBooksWithFilters_thenOnlyMatchingBooksAreReturned() throws Exception {
+        mockMvc.perform(get("/books").param("author", "Hermann Hesse"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].isbn").value("978-0-545-01022-33"));
+
+        mockMvc.perform(get("/books").param("titlePrefix", "Der Wind").param("maxPages", "300"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].isbn").value("978-3-16-148410-20"));
+
+        mockMvc.perform(get("/books").param("minPages", "400"))
+                .andExpect(status().isNoContent());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void importJob_RunsInTheBackgroundAndReportsProgress() throws Exception {
+        List<Book> books = List.of(
+                new Book("978-0-00-000001-55", "Book 1", "Author", 100),
+                new Book("978-3-16-148410-20", "Already there", "Author", 100));
+
+        MvcResult submitted = mockMvc.perform(post("/books/bulk/jobs")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(books)))
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists("Location"))
+                .andReturn();
+        String location = submitted.getResponse().getHeader("Location");
+
+        // Poll until the worker is done
+        String state = "QUEUED";
+        for (int attempt = 0; attempt < 50 && !state.equals("COMPLETED"); attempt++) {
+            Thread.sleep(100);
+            MvcResult polled = mockMvc.perform(get(location)).andExpect(status().isOk()).andReturn();
+            state = objectMapper.readTree(polled.getResponse().getContentAsString()).get("state").asString();
+        }
+
+        mockMvc.perform(get(location))
+                .andExpect(jsonPath("$.state").value("COMPLETED"))
+                .andExpect(jsonPath("$.inserted").value(1))
+                .andExpect(jsonPath("$.conflictingIsbns[0]").value("978-3-16-148410-20"));
+        assertThat(bookRepository.existsById("978-0-00-000001-55")).isTrue();
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void importNdjsonAndCsv_WritesTheUploadedBooks() throws Exception {
+        String ndjson = """
+                {"isbn":"978-0-00-000002-55","title":"Ndjson Book","author":"Author","pages":120}
+                {"isbn":"978-3-16-148410-20","title":"Already there","author":"Author","pages":100}
+                """;
+        mockMvc.perform(post("/books/import").contentType("application/x-ndjson").content(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.state").value("COMPLETED"))
+                .andExpect(jsonPath("$.inserted").value(1))
+                .andExpect(jsonPath("$.conflictingIsbns[0]").value("978-3-16-148410-20"));
+
+        String csv = """
+                isbn,title,author,pages
+                978-0-00-000003-55,"Csv Book, with comma",Author,140
+                """;
+        mockMvc.perform(post("/books/import").contentType("text/csv").content(csv))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.inserted").value(1));
+
+        assertThat(bookRepository.findById("978-0-00-000003-55").orElseThrow().getTitle())
+                .isEqualTo("Csv Book, with comma");
+        assertThat(bookRepository.existsById("978-0-00-000002-55")).isTrue();
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void importNdjson_WithBrokenLine_IsUnprocessable() throws Exception {
+        String ndjson = """
+                {"isbn":"978-0-00-000004-55","title":"Fine","author":"Author","pages":120}
+                {"isbn": broken
+                """;
+        mockMvc.perform(post("/books/import").contentType("application/x-ndjson").content(ndjson))
+                .andExpect(status().isUnprocessableContent())
+                .andExpect(jsonPath("$.state").value("FAILED"));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void exportBooks_StreamsNdjsonAndGzippedCsv() throws Exception {
+        MvcResult ndjson = mockMvc.perform(get("/books/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        String lines = mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(lines.lines()).hasSize(2);
+        assertThat(lines.lines().findFirst().orElseThrow()).contains("\"isbn\":\"978-0-545-01022-33\"");
+
+        MvcResult csv = mockMvc.perform(get("/books/export").param("format", "csv").param("gzip", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        byte[] compressed = mockMvc.perform(asyncDispatch(csv))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+        try (GZIPInputStream unzipped = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertThat(new String(unzipped.readAllBytes(), StandardCharsets.UTF_8).lines()).containsExactly(
+                    "isbn,title,author,pages,version",
+                    "978-0-545-01022-33,\"Das Schweigen der alten Eiche\",\"Hermann Hesse\",350,0",
+                    "978-3-16-148410-20,\"Der Wind am Ende der Welt\",\"Franz Kafka\",300,0");
+        }
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void conditionalGet_AnswersNotModifiedUntilTheBookChanges() throws Exception {
+        String etag = mockMvc.perform(get("/books/978-3-16-148410-20"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(0))
+                .andExpect(header().exists("Last-Modified"))
+                .andReturn().getResponse().getHeader("ETag");
+        String listEtag = mockMvc.perform(get("/books"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        mockMvc.perform(get("/books/978-3-16-148410-20").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/books").header("If-None-Match", listEtag))
+                .andExpect(status().isNotModified());
+
+        // Without the book in the books cache the revalidation is still answered from the known ETag
+        Cache booksCache = cacheManager.getCache(CacheConfig.BOOKS_CACHE);
+        booksCache.clear();
+        mockMvc.perform(get("/books/978-3-16-148410-20").header("If-None-Match", etag))
+                .andExpect(status().isNotModified());
+        assertThat(booksCache.get("978-3-16-148410-20")).isNull();
+
+        Book update = new Book("978-3-16-148410-20", "Der Wind am Ende der Welt", "Franz Kafka", 310);
+        mockMvc.perform(patch("/books")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(update)))
+                .andExpect(status().isNoContent());
+
+        mockMvc.perform(get("/books/978-3-16-148410-20").header("If-None-Match", etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(1));
+        mockMvc.perform(get("/books").header("If-None-Match", listEtag))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void patchWithIfMatch_FailsWhenTheBookChangedInTheMeantime() throws Exception {
+        String etag = mockMvc.perform(get("/books/978-3-16-148410-20"))
+                .andReturn().getResponse().getHeader("ETag");
+        Book firstEdit = new Book("978-3-16-148410-20", "Der Wind am Ende der Welt", "Franz Kafka", 310);
+        Book secondEdit = new Book("978-3-16-148410-20", "Der Wind", "Franz Kafka", 300);
+
+        // First editor wins and gets the new ETag
+        mockMvc.perform(patch("/books")
+                        .header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(firstEdit)))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("ETag", startsWith("\"1-")));
+
+        // Second editor still has the old ETag
+        mockMvc.perform(patch("/books")
+                        .header("If-Match", etag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(secondEdit)))
+                .andExpect(status().isPreconditionFailed());
+
+        // Same in bulk: the stale row is reported, the current one is applied
+        List<BookUpdateRequest> updates = List.of(
+                new BookUpdateRequest("978-3-16-148410-20", "Der Wind", null, null, 0L),
+                new BookUpdateRequest("978-0-545-01022-33", null, null, 360, 0L));
+        mockMvc.perform(patch("/books/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(updates)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.affected").value(1))
+                .andExpect(jsonPath("$.conflictingIsbns[0]").value("978-3-16-148410-20"));
+
+        assertThat(bookRepository.findById("978-3-16-148410-20").orElseThrow().getPages()).isEqualTo(310);
+        assertThat(bookRepository.findById("978-0-545-01022-33").orElseThrow().getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", roles = "ADMIN")
+    void changeFeed_StreamsEveryWriteInSequenceOrder() throws Exception {
+        long since = bookChangeLog.lastSequence();
+        Book newBook = new Book("978-1-00-000001-1", "Title 1", "Author", 100);
+        mockMvc.perform(post("/books")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(newBook)))
+                .andExpect(status().isCreated());
+        mockMvc.perform(patch("/books/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(List.of(
+                                new BookUpdateRequest("978-1-00-000001-1", null, null, 150, null),
+                                new BookUpdateRequest("978-3-16-148410-20", "Neuer Titel", null, null, null)))))
+                .andExpect(status().isOk());
+        mockMvc.perform(delete("/books/978-1-00-000001-1"))
+                .andExpect(status().isNoContent());
+
+        MvcResult changes = mockMvc.perform(get("/books/changes").param("since", String.valueOf(since)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        List<String> lines = mockMvc.perform(asyncDispatch(changes))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString().lines().toList();
+        assertThat(lines).hasSize(4);
+        assertThat(lines.get(0)).contains("\"sequence\":" + (since + 1), "\"type\":\"INSERTED\"", "\"pages\":100");
+        // Both updates of the bulk request, with the books as they were stored
+        assertThat(lines.subList(1, 3)).allMatch(line -> line.contains("\"type\":\"UPDATED\""))
+                .anyMatch(line -> line.contains("\"pages\":150") && line.contains("\"version\":1"))
+                .anyMatch(line -> line.contains("\"title\":\"Neuer Titel\""));
+        assertThat(lines.get(3)).contains("\"sequence\":" + (since + 4), "\"type\":\"DELETED\"", "\"book\":null");
+
+        MvcResult tail = mockMvc.perform(get("/books/changes").param("since", String.valueOf(since + 3)))
+                .andReturn();
+        assertThat(mockMvc.perform(asyncDispatch(tail)).andReturn().getResponse().getContentAsString().lines())
+                .hasSize(1);
+    }
 }
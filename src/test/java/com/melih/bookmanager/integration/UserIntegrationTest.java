@@ -1,8 +1,14 @@
 package com.melih.bookmanager.integration;
 
+import com.melih.bookmanager.api.model.Book;
 import com.melih.bookmanager.api.model.User;
+import com.melih.bookmanager.repository.book.BookRepository;
 import com.melih.bookmanager.repository.user.UserRepository;
 import com.melih.bookmanager.utils.UserAuthenticationRequest;
+import com.melih.bookmanager.utils.UserChangePasswordRequest;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
@@ -14,14 +20,21 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.test.web.servlet.MockMvc;
 import tools.jackson.databind.ObjectMapper;
 
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+@SpringBootTest(properties = {
+        "bookmanager.changes.path=./build/changes/${random.uuid}",
+        "bookmanager.catalog.snapshot.path=./build/catalog/${random.uuid}.snapshot"})
 @AutoConfigureMockMvc
 public class UserIntegrationTest {
 
@@ -34,19 +47,27 @@ public class UserIntegrationTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private BookRepository bookRepository;
+
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
     @BeforeEach
     void setup() {
         userRepository.deleteAll();
         User jeff = new User("jeff", passwordEncoder.encode("Spring123!"));
+        jeff.setRole("ROLE_USER");
         userRepository.save(jeff);
     }
 
     @AfterEach
     void tearDown() {
         userRepository.deleteAll();
+        bookRepository.deleteAllById(List.of("978-1-00000-001-1", "978-1-00000-002-2"));
     }
 
     @Test
@@ -90,4 +111,99 @@ public class UserIntegrationTest {
                         .content(objectMapper.writeValueAsString(request)))
                 .andExpect(status().isUnauthorized());
     }
+
+    @Test
+    void givenCachedLogin_whenPasswordChanged_thenOldPasswordIsRejected() throws Exception {
+        // GIVEN
+        mockMvc.perform(get("/user/jeff").with(httpBasic("jeff", "Spring123!")))
+                .andExpect(status().isOk());
+
+        UserChangePasswordRequest request = new UserChangePasswordRequest();
+        request.setOldPassword("Spring123!");
+        request.setNewPassword("Summer456!");
+
+        // WHEN
+        mockMvc.perform(patch("/user/jeff/change-password")
+                        .with(httpBasic("jeff", "Spring123!"))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isOk());
+
+        // THEN
+        mockMvc.perform(get("/user/jeff").with(httpBasic("jeff", "Spring123!")))
+                .andExpect(status().isUnauthorized());
+        mockMvc.perform(get("/user/jeff").with(httpBasic("jeff", "Summer456!")))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void givenReadingList_whenGetCurrentlyReadingPage_thenOnlyThatPageIsReturned() throws Exception {
+        // GIVEN
+        bookRepository.save(new Book("978-1-00000-001-1", "First", "Author", 100));
+        bookRepository.save(new Book("978-1-00000-002-2", "Second", "Author", 200));
+        for (String isbn : List.of("978-1-00000-001-1", "978-1-00000-002-2")) {
+            mockMvc.perform(post("/user/currently-reading/" + isbn)
+                            .with(httpBasic("jeff", "Spring123!"))
+                            .content("jeff"))
+                    .andExpect(status().isOk());
+        }
+
+        // WHEN & THEN
+        mockMvc.perform(get("/user/jeff/currently-reading")
+                        .with(httpBasic("jeff", "Spring123!"))
+                        .param("page", "1")
+                        .param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].isbn").value("978-1-00000-002-2"));
+
+        mockMvc.perform(get("/user/jeff").with(httpBasic("jeff", "Spring123!")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.currentlyReading.length()").value(2))
+                .andExpect(jsonPath("$.currentlyReadingCount").value(2))
+                .andExpect(jsonPath("$.currentlyReadingNext").isEmpty());
+    }
+
+    @Test
+    void givenBookMarkedTwice_whenMarkAsRead_thenBookMovesToReadListOnce() throws Exception {
+        // GIVEN
+        bookRepository.save(new Book("978-1-00000-001-1", "First", "Author", 100));
+        for (int i = 0; i < 2; i++) {
+            mockMvc.perform(post("/user/currently-reading/978-1-00000-001-1")
+                            .with(httpBasic("jeff", "Spring123!"))
+                            .content("jeff"))
+                    .andExpect(status().isOk());
+        }
+
+        // WHEN
+        mockMvc.perform(post("/user/read/978-1-00000-001-1")
+                        .with(httpBasic("jeff", "Spring123!"))
+                        .content("jeff"))
+                .andExpect(status().isOk());
+
+        // THEN
+        mockMvc.perform(get("/user/jeff").with(httpBasic("jeff", "Spring123!")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.currentlyReading.length()").value(0))
+                .andExpect(jsonPath("$.readBooks.length()").value(1));
+    }
+
+    @Test
+    void givenLoadedUser_whenLoadedAgain_thenServedFromSecondLevelCache() {
+        // GIVEN
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        userRepository.findByUsername("jeff");
+        long naturalIdQueries = statistics.getNaturalIdQueryExecutionCount();
+        long entityLoads = statistics.getEntityLoadCount();
+        long cacheHits = statistics.getSecondLevelCacheHitCount();
+
+        // WHEN
+        Optional<User> user = userRepository.findByUsername("jeff");
+
+        // THEN
+        assertThat(user).isPresent();
+        assertThat(statistics.getNaturalIdQueryExecutionCount()).isEqualTo(naturalIdQueries);
+        assertThat(statistics.getEntityLoadCount()).isEqualTo(entityLoads);
+        assertThat(statistics.getSecondLevelCacheHitCount()).isGreaterThan(cacheHits);
+    }
 }
@@ -0,0 +1,227 @@
+package com.melih.bookmanager.repository.book;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.utils.BookFilter;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InMemoryBookRepositoryTest {
+
+    private InMemoryBookRepository bookRepository;
+
+    @BeforeEach
+    void setUp() {
+        bookRepository = new InMemoryBookRepository();
+    }
+
+    @Test
+    void givenRandomIsbns_whenEncoded_thenKeysKeepTheStringOrder() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            String isbn = randomIsbn(random);
+            String other = randomIsbn(random);
+
+            long key = IsbnKey.encode(isbn);
+            assertThat(IsbnKey.decode(key)).isEqualTo(isbn);
+            assertThat(Integer.signum(IsbnKey.compare(key, IsbnKey.encode(other))))
+                    .isEqualTo(Integer.signum(isbn.compareTo(other)));
+        }
+        assertThat(IsbnKey.encode("978-3-16-148410-20")).isEqualTo(IsbnKey.NOT_ENCODABLE);
+        assertThat(IsbnKey.encode("abc")).isEqualTo(IsbnKey.NOT_ENCODABLE);
+    }
+
+    @Test
+    void givenPackedAndLongIsbns_whenPaging_thenBooksFollowTheIsbnOrder() {
+        // GIVEN
+        List<String> isbns = new ArrayList<>(List.of("978-3-16-148410-20", "000-0-00-000000-0", "ISBN 1", "978-0132350884"));
+        IntStream.range(0, 50).forEach(i -> isbns.add(String.format("978%010d", i * 7919L)));
+        isbns.forEach(isbn -> bookRepository.save(new Book(isbn, "Title", "Author", 100)));
+
+        // WHEN
+        List<String> paged = new ArrayList<>();
+        List<Book> page = bookRepository.findAllByOrderByIsbnAsc(Limit.of(7));
+        while (!page.isEmpty()) {
+            page.forEach(book -> paged.add(book.getIsbn()));
+            page = bookRepository.findByIsbnGreaterThanOrderByIsbnAsc(paged.getLast(), Limit.of(7));
+        }
+
+        // THEN
+        assertThat(paged).isEqualTo(isbns.stream().sorted().toList());
+        assertThat(bookRepository.count()).isEqualTo(isbns.size());
+    }
+
+    @Test
+    void givenFilter_whenFindPage_thenOnlyMatchingBooksAreReturned() {
+        bookRepository.insertAll(List.of(
+                new Book("1", "Der Steppenwolf", "Hermann Hesse", 280),
+                new Book("2", "Siddhartha", "Hermann Hesse", 150),
+                new Book("3", "Der Process", "Franz Kafka", 250)));
+
+        List<Book> page = bookRepository.findPage(new BookFilter("Hermann Hesse", "Der", null, 300), null, 10);
+
+        assertThat(page).extracting(Book::getIsbn).containsExactly("1");
+    }
+
+    @Test
+    void givenStaleVersion_whenSave_thenOptimisticLockingFails() {
+        // GIVEN
+        bookRepository.save(new Book("1", "Siddhartha", "Hermann Hesse", 150));
+        Book first = bookRepository.findById("1").orElseThrow();
+        Book second = bookRepository.findById("1").orElseThrow();
+        first.setPages(160);
+        bookRepository.save(first);
+
+        // WHEN / THEN
+        second.setPages(170);
+        assertThatThrownBy(() -> bookRepository.save(second))
+                .isInstanceOf(ObjectOptimisticLockingFailureException.class);
+        assertThat(bookRepository.findById("1").orElseThrow().getPages()).isEqualTo(160);
+        assertThat(bookRepository.findById("1").orElseThrow().getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    void givenUpdates_whenUpdateAll_thenOnlyGivenFieldsAndMatchingVersionsChange() {
+        // GIVEN
+        bookRepository.insertAll(List.of(
+                new Book("1", "Siddhartha", "Hermann Hesse", 150),
+                new Book("978-3-16-148410-20", "Der Process", "Franz Kafka", 250)));
+
+        // WHEN
+        int[] counts = bookRepository.updateAll(List.of(
+                new BookUpdateRequest("1", null, null, 160, 0L),
+                new BookUpdateRequest("978-3-16-148410-20", "Das Schloss", null, null, 5L),
+                new BookUpdateRequest("unknown", "Title", null, null, null)));
+
+        // THEN
+        assertThat(counts).containsExactly(1, 0, 0);
+        Book updated = bookRepository.findById("1").orElseThrow();
+        assertThat(updated.getTitle()).isEqualTo("Siddhartha");
+        assertThat(updated.getPages()).isEqualTo(160);
+        assertThat(updated.getVersion()).isEqualTo(1);
+        assertThat(bookRepository.findById("978-3-16-148410-20").orElseThrow().getTitle()).isEqualTo("Der Process");
+    }
+
+    @Test
+    void givenExistingIsbn_whenInsertAll_thenNoBookIsInserted() {
+        bookRepository.save(new Book("2", "Siddhartha", "Hermann Hesse", 150));
+
+        assertThatThrownBy(() -> bookRepository.insertAll(List.of(
+                new Book("1", "Der Steppenwolf", "Hermann Hesse", 280),
+                new Book("2", "Siddhartha", "Hermann Hesse", 150))))
+                .isInstanceOf(DuplicateKeyException.class);
+        assertThat(bookRepository.existsById("1")).isFalse();
+    }
+
+    @Test
+    void givenKnownAndUnknownIsbns_whenDeleted_thenOnlyExistingBooksAreCounted() {
+        bookRepository.insertAll(IntStream.range(0, 100)
+                .mapToObj(i -> new Book(String.format("978%010d", i), "Title", "Author", 100))
+                .toList());
+
+        int deleted = bookRepository.deleteBooksByIsbnIn(List.of("9780000000001", "9780000000050", "unknown"));
+
+        assertThat(deleted).isEqualTo(2);
+        assertThat(bookRepository.count()).isEqualTo(98);
+        assertThat(bookRepository.existsById("9780000000050")).isFalse();
+        assertThat(bookRepository.existsById("9780000000051")).isTrue();
+    }
+
+    @Test
+    void givenConcurrentPairInserts_whenReadingAll_thenEveryScanSeesWholePairs() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Every insertAll adds two books in different stripes, a scan must never see just one of them
+            Future<?> writer = executor.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    bookRepository.insertAll(List.of(
+                            new Book(String.format("978%010d", 2 * i), "Title", "Author", 100),
+                            new Book(String.format("979%010d", 2 * i + 1), "Title", "Author", 100)));
+                }
+            });
+            Future<?> reader = executor.submit(() -> {
+                while (!writer.isDone()) {
+                    assertThat(bookRepository.findAll().size() % 2).isZero();
+                    assertThat(bookRepository.count() % 2).isZero();
+                }
+            });
+            writer.get();
+            reader.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(bookRepository.count()).isEqualTo(4_000);
+    }
+
+    @Test
+    void givenLongIsbnUpdatedDuringAScan_whenReadingAll_thenTheScanSeesTheBookAsItWasAtTheStart() {
+        // GIVEN two isbns that can't be packed, the second one is updated while the scan is at the first
+        bookRepository.insertAll(List.of(new Book("ISBN 1", "Title", "Author", 100), new Book("ISBN 2", "Old", "Old", 100)));
+        List<Book> scanned = new ArrayList<>();
+
+        // WHEN
+        bookRepository.forEachBook(book -> {
+            if (book.getIsbn().equals("ISBN 1")) {
+                bookRepository.updateAll(List.of(new BookUpdateRequest("ISBN 2", "New", "New", null, null)));
+            }
+            scanned.add(book);
+        });
+
+        // THEN
+        assertThat(scanned.getLast().getTitle()).isEqualTo("Old");
+        assertThat(scanned.getLast().getVersion()).isZero();
+        assertThat(bookRepository.findBookByIsbn("ISBN 2")).get().extracting(Book::getTitle).isEqualTo("New");
+    }
+
+    private static String randomIsbn(Random random) {
+        String alphabet = "-0123456789X";
+        StringBuilder isbn = new StringBuilder();
+        int length = 1 + random.nextInt(IsbnKey.MAX_LENGTH);
+        for (int i = 0; i < length; i++) {
+            isbn.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return isbn.toString();
+    }
+
+    @Test
+    void givenWritesInATransaction_whenItRollsBack_thenTheBooksAreAsBefore() {
+        // GIVEN
+        bookRepository.insertAll(List.of(new Book("978-0132350884", "Clean Code", "Robert C. Martin", 464),
+                new Book("ISBN 1", "Title", "Author", 100)));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            bookRepository.updateAll(List.of(new BookUpdateRequest("978-0132350884", "Changed", null, null, null)));
+            bookRepository.deleteById("ISBN 1");
+            bookRepository.insertAll(List.of(new Book("978-0201633610", "Design Patterns", "Gamma", 395)));
+
+            // WHEN
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        // THEN
+        assertThat(bookRepository.findBookByIsbn("978-0132350884")).get()
+                .extracting(Book::getTitle, Book::getVersion).containsExactly("Clean Code", 0L);
+        assertThat(bookRepository.existsById("ISBN 1")).isTrue();
+        assertThat(bookRepository.existsById("978-0201633610")).isFalse();
+        assertThat(TransactionSynchronizationManager.getResourceMap()).isEmpty();
+    }
+}
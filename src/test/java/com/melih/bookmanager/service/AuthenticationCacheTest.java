@@ -0,0 +1,57 @@
+package com.melih.bookmanager.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AuthenticationCacheTest {
+
+    private AuthenticationCache authenticationCache;
+    private final Authentication authentication = UsernamePasswordAuthenticationToken.authenticated("jeff", null, List.of());
+
+    @BeforeEach
+    void setUp() {
+        authenticationCache = new AuthenticationCache(Duration.ofMinutes(5), 100);
+    }
+
+    @Test
+    void givenCachedLogin_whenGetWithOtherPassword_thenMiss() {
+        // GIVEN
+        authenticationCache.put("jeff", "secret", authentication, authenticationCache.generation("jeff"));
+
+        // WHEN & THEN
+        assertThat(authenticationCache.get("jeff", "secret")).isSameAs(authentication);
+        assertThat(authenticationCache.get("jeff", "other")).isNull();
+    }
+
+    @Test
+    void givenLoginStartedBeforeEviction_whenPut_thenOldCredentialsAreNotCached() {
+        // GIVEN the login read the generation, then the password changed and was committed
+        long generation = authenticationCache.generation("jeff");
+        authenticationCache.onUserChanged(UserChangedEvent.credentialsChanged("jeff"));
+
+        // WHEN the login finishes its BCrypt check against the old hash
+        authenticationCache.put("jeff", "old", authentication, generation);
+
+        // THEN
+        assertThat(authenticationCache.get("jeff", "old")).isNull();
+    }
+
+    @Test
+    void givenReadingListChange_whenOnUserChanged_thenLoginStaysCached() {
+        // GIVEN
+        authenticationCache.put("jeff", "secret", authentication, authenticationCache.generation("jeff"));
+
+        // WHEN
+        authenticationCache.onUserChanged(UserChangedEvent.readingListsChanged("jeff"));
+
+        // THEN
+        assertThat(authenticationCache.get("jeff", "secret")).isSameAs(authentication);
+    }
+}
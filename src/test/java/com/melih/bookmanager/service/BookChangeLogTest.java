@@ -0,0 +1,221 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.api.model.BookChangeEntry;
+import com.melih.bookmanager.api.model.BookChangeType;
+import com.melih.bookmanager.exception.Book.ChangeLogTruncatedException;
+import com.melih.bookmanager.repository.book.BookChangeRepository;
+import com.melih.bookmanager.repository.book.InMemoryBookRepository;
+import com.melih.bookmanager.utils.BookChange;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BookChangeLogTest {
+
+    @TempDir
+    private Path directory;
+
+    private final List<BookChangeLog> opened = new ArrayList<>();
+    private final Outbox outbox = new Outbox();
+    private final InMemoryBookRepository bookRepository = new InMemoryBookRepository();
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(BookChangeLog::stop);
+    }
+
+    @Test
+    void givenChanges_whenReadSinceASequence_thenLaterChangesComeInOrder() throws IOException {
+        // GIVEN
+        BookChangeLog changeLog = open(DataSize.ofMegabytes(1), 4);
+        Book book = new Book("978-3-16-148410-0", "Der Prozess", "Franz Kafka", 250);
+        bookRepository.saveAll(List.of(book, new Book("978-0132350884", null, null, 0)));
+        bookRepository.save(book);
+
+        // WHEN
+        changeLog.capture(BookChangedEvent.inserted(List.of("978-3-16-148410-0", "978-0132350884")));
+        changeLog.capture(BookChangedEvent.deleted(List.of("978-0132350884")));
+        changeLog.copyFromOutbox();
+
+        // THEN
+        List<BookChange> changes = read(changeLog, 0, 10);
+        assertThat(changes).extracting(BookChange::getSequence).containsExactly(1L, 2L, 3L);
+        assertThat(changes).extracting(BookChange::getType).containsExactly("INSERTED", "INSERTED", "DELETED");
+        assertThat(changes.getFirst().getBook().getTitle()).isEqualTo("Der Prozess");
+        assertThat(changes.getFirst().getBook().getVersion()).isEqualTo(1);
+        assertThat(changes.get(1).getBook().getTitle()).isNull();
+        assertThat(changes.get(2).getBook()).isNull();
+        assertThat(read(changeLog, 1, 1)).extracting(BookChange::getSequence).containsExactly(2L);
+    }
+
+    @Test
+    void givenTornLastEntry_whenReopened_thenEntryIsCutOffAndSequenceContinues() throws IOException {
+        // GIVEN
+        BookChangeLog changeLog = open(DataSize.ofMegabytes(1), 4);
+        changeLog.capture(BookChangedEvent.deleted(List.of("1", "2")));
+        changeLog.copyFromOutbox();
+        changeLog.stop();
+        Path segment = directory.resolve(String.format("%020d.log", 1));
+        // Half an entry, as left behind by a crash in the middle of a write
+        Files.write(segment, new byte[]{0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        // WHEN
+        BookChangeLog reopened = open(DataSize.ofMegabytes(1), 4);
+        reopened.capture(BookChangedEvent.deleted(List.of("3")));
+        reopened.copyFromOutbox();
+
+        // THEN
+        assertThat(reopened.lastSequence()).isEqualTo(3);
+        assertThat(read(reopened, 0, 10)).extracting(BookChange::getIsbn).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    void givenMoreSegmentsThanKept_whenReadingDroppedChanges_thenLogIsTruncated() throws IOException {
+        // GIVEN
+        BookChangeLog changeLog = open(DataSize.ofBytes(100), 2);
+
+        // WHEN
+        IntStream.range(0, 20).forEach(i -> {
+            changeLog.capture(BookChangedEvent.deleted(List.of("isbn-" + i)));
+            changeLog.copyFromOutbox();
+        });
+
+        // THEN
+        assertThatThrownBy(() -> changeLog.checkAvailable(0)).isInstanceOf(ChangeLogTruncatedException.class);
+        long first = read(changeLog, 0, 100).getFirst().getSequence();
+        changeLog.checkAvailable(first - 1);
+        assertThat(read(changeLog, first - 1, 100)).extracting(BookChange::getSequence)
+                .containsExactlyElementsOf(IntStream.rangeClosed((int) first, 20).mapToObj(Long::valueOf).toList());
+    }
+
+    @Test
+    void givenSecondInstanceOnTheSameDirectory_whenAppending_thenOnlyTheFirstOneWrites() throws IOException {
+        // GIVEN
+        BookChangeLog writer = open(DataSize.ofMegabytes(1), 4);
+        BookChangeLog reader = open(DataSize.ofMegabytes(1), 4);
+
+        // WHEN
+        reader.capture(BookChangedEvent.deleted(List.of("1")));
+        reader.copyFromOutbox();
+        writer.copyFromOutbox();
+
+        // THEN
+        assertThat(read(reader, 0, 10)).extracting(BookChange::getIsbn).containsExactly("1");
+    }
+
+    @Test
+    void givenOutboxDroppedUncopiedChanges_whenCopying_thenLogStartsOverAndOldCursorsAreTruncated() throws IOException {
+        // GIVEN
+        BookChangeLog changeLog = open(DataSize.ofMegabytes(1), 4);
+        changeLog.capture(BookChangedEvent.deleted(List.of("1")));
+        changeLog.copyFromOutbox();
+        changeLog.capture(BookChangedEvent.deleted(List.of("2", "3")));
+        changeLog.capture(BookChangedEvent.deleted(List.of("4")));
+        outbox.entries.removeIf(entry -> entry.getSequence() < 4);
+
+        // WHEN
+        changeLog.copyFromOutbox();
+
+        // THEN
+        assertThatThrownBy(() -> changeLog.checkAvailable(1)).isInstanceOf(ChangeLogTruncatedException.class);
+        changeLog.checkAvailable(3);
+        assertThat(read(changeLog, 3, 10)).extracting(BookChange::getSequence).containsExactly(4L);
+    }
+
+    @Test
+    void givenLogOfAnotherDatabase_whenStarted_thenLogStartsOverAfterTheOutbox() throws IOException {
+        // GIVEN
+        BookChangeLog changeLog = open(DataSize.ofMegabytes(1), 4);
+        changeLog.capture(BookChangedEvent.deleted(List.of("1", "2")));
+        changeLog.copyFromOutbox();
+        changeLog.stop();
+        outbox.entries.clear();
+        outbox.lastSequence = 0;
+
+        // WHEN
+        BookChangeLog reopened = open(DataSize.ofMegabytes(1), 4);
+        reopened.capture(BookChangedEvent.deleted(List.of("3")));
+        reopened.copyFromOutbox();
+
+        // THEN
+        assertThat(read(reopened, 0, 10)).extracting(BookChange::getIsbn).containsExactly("3");
+    }
+
+    @Test
+    void givenNeverStarted_whenStopped_thenNothingIsThrown() {
+        // GIVEN
+        BookChangeLog changeLog = new BookChangeLog(outbox, bookRepository, directory, DataSize.ofMegabytes(1), 4, false,
+                Duration.ofHours(1), Duration.ofDays(1));
+
+        // WHEN, THEN
+        changeLog.stop();
+        assertThat(changeLog.isRunning()).isFalse();
+    }
+
+    private BookChangeLog open(DataSize segmentSize, int maxSegments) {
+        // Copies only when the test asks for it, apart from the first poll at the start
+        BookChangeLog changeLog = new BookChangeLog(outbox, bookRepository, directory, segmentSize, maxSegments, false,
+                Duration.ofHours(1), Duration.ofDays(1));
+        changeLog.start();
+        opened.add(changeLog);
+        return changeLog;
+    }
+
+    // The outbox table without a database
+    private static class Outbox extends BookChangeRepository {
+        private final List<BookChangeEntry> entries = new ArrayList<>();
+        private long lastSequence;
+
+        Outbox() {
+            super(null);
+        }
+
+        @Override
+        public synchronized void append(BookChangeType type, Collection<String> isbns) {
+            for (String isbn : isbns) {
+                entries.add(new BookChangeEntry(++lastSequence, Instant.now(), type, isbn));
+            }
+        }
+
+        @Override
+        public void createCounter() {
+        }
+
+        @Override
+        public synchronized long lastSequence() {
+            return lastSequence;
+        }
+
+        @Override
+        public synchronized List<BookChangeEntry> findAfter(long sequence, int limit) {
+            return entries.stream().filter(entry -> entry.getSequence() > sequence).limit(limit).toList();
+        }
+
+        @Override
+        public synchronized int deleteOlderThan(Instant changedAt) {
+            return 0;
+        }
+    }
+
+    private static List<BookChange> read(BookChangeLog changeLog, long since, int limit) throws IOException {
+        List<BookChange> changes = new ArrayList<>();
+        changeLog.read(since, limit, changes::add);
+        return changes;
+    }
+}
@@ -0,0 +1,53 @@
+package com.melih.bookmanager.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.config.CacheConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookEtagsTest {
+
+    private BookEtags bookEtags;
+
+    @BeforeEach
+    void setUp() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.registerCustomCache(CacheConfig.BOOK_ETAGS_CACHE, Caffeine.newBuilder().build());
+        OffHeapCatalog disabledCatalog = new OffHeapCatalog(false, 10_000, DataSize.ofMegabytes(1), new SimpleMeterRegistry());
+        bookEtags = new BookEtags(cacheManager, disabledCatalog);
+    }
+
+    @Test
+    void givenRememberedBook_whenFind_thenItsEtagIsKnown() {
+        // GIVEN
+        Book book = new Book("978-0132350884", "Clean Code", "Robert C. Martin", 464);
+
+        // WHEN
+        String etag = bookEtags.remember(book, bookEtags.generation(book.getIsbn()));
+
+        // THEN
+        assertThat(bookEtags.find(book.getIsbn())).isEqualTo(etag).isEqualTo(BookEtags.etagOf(book));
+    }
+
+    @Test
+    void givenReadStartedBeforeUpdateCommitted_whenRemembered_thenOldEtagIsNotCached() {
+        // GIVEN the read took the generation and loaded the old row, then the update was committed
+        Book old = new Book("978-0132350884", "Clean Code", "Robert C. Martin", 464);
+        long generation = bookEtags.generation(old.getIsbn());
+        bookEtags.onBooksChanged(BookChangedEvent.updated(List.of(old.getIsbn())));
+
+        // WHEN
+        bookEtags.remember(old, generation);
+
+        // THEN
+        assertThat(bookEtags.find(old.getIsbn())).isNull();
+    }
+}
@@ -0,0 +1,120 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.exception.Book.ImportJobNotFoundException;
+import com.melih.bookmanager.utils.BookBulkResponse;
+import com.melih.bookmanager.utils.BookImportStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BookImportServiceTest {
+
+    @Mock
+    private BookService bookService;
+
+    private BookImportService bookImportService;
+
+    @BeforeEach
+    void setUp() {
+        // Jobs run on the calling thread, chunks of two books
+        bookImportService = new BookImportService(bookService, new SyncTaskExecutor(), 2, Duration.ofHours(1));
+    }
+
+    @Test
+    void givenPayload_whenSubmit_thenEveryChunkIsImportedOnItsOwn() {
+        // GIVEN
+        Book first = new Book("1", "T1", "A1", 10);
+        Book second = new Book("2", "T2", "A2", 20);
+        Book third = new Book("3", "T3", "A3", 30);
+        when(bookService.addBooksBulk(List.of(first, second)))
+                .thenReturn(new BookBulkResponse(1, List.of("2"), List.of()));
+        when(bookService.addBooksBulk(List.of(third)))
+                .thenReturn(new BookBulkResponse(1, List.of(), List.of()));
+
+        // WHEN
+        BookImportStatus submitted = bookImportService.submit(List.of(first, second, third));
+        BookImportStatus status = bookImportService.getStatus(submitted.getId());
+
+        // THEN
+        assertThat(status.getState()).isEqualTo("COMPLETED");
+        assertThat(status.getTotal()).isEqualTo(3);
+        assertThat(status.getProcessed()).isEqualTo(3);
+        assertThat(status.getInserted()).isEqualTo(2);
+        assertThat(status.getConflictingIsbns()).containsExactly("2");
+    }
+
+    @Test
+    void givenFailingChunk_whenSubmit_thenJobFailsAndKeepsProgress() {
+        // GIVEN
+        List<Book> books = List.of(new Book("1", "T1", "A1", 10), new Book("2", "T2", "A2", 20),
+                new Book("3", "T3", "A3", 30));
+        when(bookService.addBooksBulk(books.subList(0, 2)))
+                .thenReturn(new BookBulkResponse(2, List.of(), List.of()));
+        when(bookService.addBooksBulk(books.subList(2, 3)))
+                .thenThrow(new IllegalStateException("Database gone"));
+
+        // WHEN
+        BookImportStatus status = bookImportService.getStatus(bookImportService.submit(books).getId());
+
+        // THEN
+        assertThat(status.getState()).isEqualTo("FAILED");
+        assertThat(status.getInserted()).isEqualTo(2);
+        assertThat(status.getError()).isEqualTo("Database gone");
+    }
+
+    @Test
+    void givenQueuedJob_whenCancel_thenNothingIsImported() {
+        // GIVEN
+        List<Runnable> queue = new ArrayList<>();
+        bookImportService = new BookImportService(bookService, queue::add, 2, Duration.ofHours(1));
+        UUID id = bookImportService.submit(List.of(new Book("1", "T1", "A1", 10))).getId();
+
+        // WHEN
+        BookImportStatus cancelled = bookImportService.cancel(id);
+        queue.forEach(Runnable::run);
+
+        // THEN
+        assertThat(cancelled.getState()).isEqualTo("CANCELLED");
+        verify(bookService, never()).addBooksBulk(any());
+    }
+
+    @Test
+    void givenStreamedBooks_whenIngest_thenBooksAreWrittenChunkByChunk() {
+        // GIVEN
+        List<Book> books = List.of(new Book("1", "T1", "A1", 10), new Book("2", "T2", "A2", 20),
+                new Book("3", "T3", "A3", 30));
+        when(bookService.addBooksBulk(anyList()))
+                .thenAnswer(invocation -> new BookBulkResponse(invocation.<List<Book>>getArgument(0).size(),
+                        List.of(), List.of()));
+
+        // WHEN
+        BookImportStatus status = bookImportService.ingest(books.iterator());
+
+        // THEN
+        verify(bookService).addBooksBulk(books.subList(0, 2));
+        verify(bookService).addBooksBulk(books.subList(2, 3));
+        assertThat(status.getState()).isEqualTo("COMPLETED");
+        assertThat(status.getTotal()).isEqualTo(-1);
+        assertThat(status.getInserted()).isEqualTo(3);
+    }
+
+    @Test
+    void givenUnknownId_whenGetStatus_thenThrowsException() {
+        assertThatThrownBy(() -> bookImportService.getStatus(UUID.randomUUID()))
+                .isInstanceOf(ImportJobNotFoundException.class);
+    }
+}
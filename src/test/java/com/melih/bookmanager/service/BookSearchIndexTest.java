@@ -0,0 +1,113 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import com.melih.bookmanager.utils.BookSearchResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BookSearchIndexTest {
+
+    private BookSearchIndex bookSearchIndex;
+
+    @BeforeEach
+    void setUp() {
+        // Without the off-heap catalog the index keeps its own copies
+        bookSearchIndex = new BookSearchIndex(catalog(false));
+        bookSearchIndex.put(new Book("1", "Der Steppenwolf", "Hermann Hesse", 280));
+        bookSearchIndex.put(new Book("2", "Siddhartha", "Hermann Hesse", 150));
+        bookSearchIndex.put(new Book("3", "Hafen der verlorenen Träume", "Anna Hessel", 320));
+        bookSearchIndex.put(new Book("4", "Der Process", "Franz Kafka", 250));
+    }
+
+    @Test
+    void givenAuthorPrefix_whenSearch_thenExactMatchesRankFirst() {
+        // WHEN
+        BookSearchResponse response = bookSearchIndex.search("hesse", 0, 10);
+
+        // THEN
+        assertThat(response.getTotal()).isEqualTo(3);
+        assertThat(response.getBooks()).extracting(Book::getIsbn).containsExactly("1", "2", "3");
+    }
+
+    @Test
+    void givenSeveralTerms_whenSearch_thenEveryTermHasToMatch() {
+        // Case and accents are ignored
+        BookSearchResponse response = bookSearchIndex.search("TRAUME hess", 0, 10);
+
+        assertThat(response.getBooks()).extracting(Book::getIsbn).containsExactly("3");
+    }
+
+    @Test
+    void givenSmallPages_whenSearch_thenPagesFollowTheRanking() {
+        BookSearchResponse firstPage = bookSearchIndex.search("der", 0, 1);
+        BookSearchResponse secondPage = bookSearchIndex.search("der", 1, 1);
+        BookSearchResponse thirdPage = bookSearchIndex.search("der", 2, 1);
+
+        assertThat(firstPage.getTotal()).isEqualTo(3);
+        assertThat(firstPage.getBooks()).extracting(Book::getIsbn).containsExactly("1");
+        assertThat(secondPage.getBooks()).extracting(Book::getIsbn).containsExactly("3");
+        assertThat(thirdPage.getBooks()).extracting(Book::getIsbn).containsExactly("4");
+    }
+
+    @Test
+    void givenUpdatedAndRemovedBooks_whenSearch_thenOldTermsAreGone() {
+        // GIVEN
+        bookSearchIndex.put(new Book("2", "Narziss und Goldmund", "Hermann Hesse", 320));
+        bookSearchIndex.remove("4");
+
+        // THEN
+        assertThat(bookSearchIndex.search("siddhartha", 0, 10).getTotal()).isZero();
+        assertThat(bookSearchIndex.search("goldmund", 0, 10).getBooks()).extracting(Book::getIsbn).containsExactly("2");
+        assertThat(bookSearchIndex.search("kafka", 0, 10).getTotal()).isZero();
+        assertThat(bookSearchIndex.size()).isEqualTo(3);
+    }
+
+    @Test
+    void givenIndexBuiltOffToTheSide_whenReplacing_thenSearchesSeeOnlyTheNewContent() {
+        // GIVEN
+        BookSearchIndex built = new BookSearchIndex(catalog(false));
+        built.put(new Book("5", "Der Zauberberg", "Thomas Mann", 1000));
+
+        // WHEN
+        assertThat(bookSearchIndex.search("hesse", 0, 10).getTotal()).isEqualTo(3);
+        bookSearchIndex.replaceWith(built);
+
+        // THEN
+        assertThat(bookSearchIndex.search("hesse", 0, 10).getTotal()).isZero();
+        assertThat(bookSearchIndex.search("der", 0, 10).getBooks()).extracting(Book::getIsbn).containsExactly("5");
+        assertThat(bookSearchIndex.size()).isEqualTo(1);
+    }
+
+    @Test
+    void givenOffHeapCatalog_whenSearch_thenHitsAreReadFromTheCatalog() {
+        // GIVEN
+        OffHeapCatalog catalog = catalog(true);
+        BookSearchIndex index = new BookSearchIndex(catalog);
+        List<Book> books = List.of(new Book("978-1", "Der Steppenwolf", "Hermann Hesse", 280),
+                new Book("978-2", "Siddhartha", "Hermann Hesse", 150));
+        catalog.rebuild(books::forEach);
+        books.forEach(index::put);
+        // Can't be packed, so the index holds a copy
+        Book unpacked = new Book("ISBN 3", "Demian", "Hermann Hesse", 170);
+        catalog.put(List.of(unpacked));
+        index.put(unpacked);
+
+        // WHEN
+        catalog.remove(List.of("978-2"));
+        BookSearchResponse response = index.search("hesse", 0, 10);
+
+        // THEN a book removed from the catalog but not from the index yet is left out
+        assertThat(response.getBooks()).extracting(Book::getIsbn).containsExactly("ISBN 3", "978-1");
+        assertThat(response.getBooks().getLast().getTitle()).isEqualTo("Der Steppenwolf");
+    }
+
+    private static OffHeapCatalog catalog(boolean enabled) {
+        return new OffHeapCatalog(enabled, 10_000, DataSize.ofMegabytes(64), new SimpleMeterRegistry());
+    }
+}
@@ -4,14 +4,26 @@ import com.melih.bookmanager.api.model.Book;
 
 import com.melih.bookmanager.exception.Book.BookAlreadyExistsException;
 import com.melih.bookmanager.exception.Book.BookNotFoundException;
+import com.melih.bookmanager.exception.Book.BookVersionMismatchException;
 import com.melih.bookmanager.repository.book.BookRepository;
+import com.melih.bookmanager.utils.BookBulkResponse;
+import com.melih.bookmanager.utils.BookFilter;
+import com.melih.bookmanager.utils.BookUpdateRequest;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -23,6 +35,18 @@ public class BookServiceTest {
     @Mock
     private BookRepository bookRepository;
 
+    @Spy
+    private MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    private BookSearchIndex bookSearchIndex;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private OffHeapCatalog offHeapCatalog;
+
     @InjectMocks
     private BookService bookService;
 
@@ -31,52 +55,136 @@ public class BookServiceTest {
         // GIVEN
         String isbn = "978-3-16-148410-0";
         Book expectedBook = new Book(isbn, "Der Wind am Ende der Welt", "Franz Kafka", 300);
-        when(bookRepository.findById(isbn)).thenReturn(Optional.of(expectedBook));
+        when(bookRepository.findBookByIsbn(isbn)).thenReturn(Optional.of(expectedBook));
 
         // WHEN
         Book result = bookService.getBookByIsbn(isbn);
 
         // THEN
         assertThat(result).isNotNull();
-        assertThat(result.getISBN()).isEqualTo(isbn);
-        verify(bookRepository).findById(isbn);
+        assertThat(result.getIsbn()).isEqualTo(isbn);
+        verify(bookRepository).findBookByIsbn(isbn);
     }
 
     @Test
     void givenNonExistentIsbn_whenGetBookByISBN_thenThrowsException() {
         // GIVEN
         String isbn = "999";
-        when(bookRepository.findById(isbn)).thenReturn(Optional.empty());
+        when(bookRepository.findBookByIsbn(isbn)).thenReturn(Optional.empty());
 
         // WHEN & THEN
         assertThatThrownBy(() -> bookService.getBookByIsbn(isbn))
                 .isInstanceOf(BookNotFoundException.class);
     }
 
+    @Test
+    void givenIsbnInOffHeapCatalog_whenGetBookByISBN_thenRepositoryIsNotQueried() {
+        // GIVEN
+        String isbn = "978-3-16-148410-0";
+        Book expectedBook = new Book(isbn, "Der Prozess", "Franz Kafka", 250);
+        when(offHeapCatalog.covers(isbn)).thenReturn(true);
+        when(offHeapCatalog.find(isbn)).thenReturn(Optional.of(expectedBook));
+
+        // WHEN
+        Book result = bookService.getBookByIsbn(isbn);
+
+        // THEN
+        assertThat(result).isEqualTo(expectedBook);
+        verifyNoInteractions(bookRepository);
+    }
+
+    @Test
+    void givenOffHeapCatalogWithoutTheIsbn_whenGetBookByISBN_thenThrowsException() {
+        // GIVEN
+        when(offHeapCatalog.covers("999")).thenReturn(true);
+        when(offHeapCatalog.find("999")).thenReturn(Optional.empty());
+
+        // WHEN & THEN
+        assertThatThrownBy(() -> bookService.getBookByIsbn("999"))
+                .isInstanceOf(BookNotFoundException.class);
+        verifyNoInteractions(bookRepository);
+    }
+
+    @Test
+    void givenNoCursor_whenGetBooksPage_thenFirstPageIsLoaded() {
+        // GIVEN
+        List<Book> firstPage = List.of(new Book("1", "T1", "A1", 10));
+        when(bookRepository.findAllByOrderByIsbnAsc(Limit.of(1))).thenReturn(firstPage);
+
+        // WHEN
+        List<Book> result = bookService.getBooksPage(null, 1);
+
+        // THEN
+        assertThat(result).isEqualTo(firstPage);
+        verify(bookRepository, never()).findByIsbnGreaterThanOrderByIsbnAsc(anyString(), any());
+    }
+
+    @Test
+    void givenCursor_whenGetBooksPage_thenPageStartsAfterCursor() {
+        // GIVEN
+        List<Book> nextPage = List.of(new Book("2", "T2", "A2", 20));
+        when(bookRepository.findByIsbnGreaterThanOrderByIsbnAsc("1", Limit.of(10))).thenReturn(nextPage);
+
+        // WHEN
+        List<Book> result = bookService.getBooksPage("1", 10);
+
+        // THEN
+        assertThat(result).isEqualTo(nextPage);
+        verify(bookRepository, never()).findAllByOrderByIsbnAsc(any());
+    }
+
+    @Test
+    void givenFilter_whenGetBooksPage_thenFilteredQueryIsUsed() {
+        // GIVEN
+        BookFilter filter = new BookFilter("Hermann Hesse", null, 100, null);
+        List<Book> page = List.of(new Book("1", "Siddhartha", "Hermann Hesse", 150));
+        when(bookRepository.findPage(filter, "0", 10)).thenReturn(page);
+
+        // WHEN
+        List<Book> result = bookService.getBooksPage(filter, "0", 10);
+
+        // THEN
+        assertThat(result).isEqualTo(page);
+        verify(bookRepository, never()).findByIsbnGreaterThanOrderByIsbnAsc(anyString(), any());
+    }
+
     @Test
     void givenNewBook_whenAddingBook_thenBookIsSaved() {
         // GIVEN
         Book newBook = new Book("999-3-16-148410-5", "Faust", "Goethe", 92);
-        when(bookRepository.existsById(newBook.getISBN())).thenReturn(false);
+        when(bookRepository.existsById(newBook.getIsbn())).thenReturn(false);
 
         // WHEN
         bookService.addBook(newBook);
 
         // THEN
-        verify(bookRepository, times(1)).save(newBook);
+        verify(bookRepository, times(1)).insertAll(List.of(newBook));
+    }
+
+    @Test
+    void givenBookAddedConcurrently_whenAddingBook_thenThrowsConflictException() {
+        // GIVEN the existence check ran before the other request inserted the book
+        Book newBook = new Book("999-3-16-148410-5", "Faust", "Goethe", 92);
+        when(bookRepository.existsById(newBook.getIsbn())).thenReturn(false);
+        doThrow(new DuplicateKeyException("duplicate")).when(bookRepository).insertAll(List.of(newBook));
+
+        // WHEN & THEN
+        assertThatThrownBy(() -> bookService.addBook(newBook))
+                .isInstanceOf(BookAlreadyExistsException.class);
+        verify(eventPublisher, never()).publishEvent(any());
     }
 
     @Test
     void givenDuplicateIsbn_whenAddingBook_thenThrowsConflictException() {
         // GIVEN
         Book existingBook = new Book("978-3-16-148410-0", "Titel", "Autor", 300);
-        when(bookRepository.existsById(existingBook.getISBN())).thenReturn(true);
+        when(bookRepository.existsById(existingBook.getIsbn())).thenReturn(true);
 
         // WHEN & THEN
         assertThatThrownBy(() -> bookService.addBook(existingBook))
                 .isInstanceOf(BookAlreadyExistsException.class);
 
-        verify(bookRepository, never()).save(any());
+        verify(bookRepository, never()).insertAll(any());
     }
 
     @Test
@@ -109,13 +217,80 @@ public class BookServiceTest {
     void givenBookWithExistingIsbn_whenUpdateBook_thenBookIsSaved() {
         // GIVEN
         Book updateData = new Book("978-3-16-148410-0", "New title", "New author", 240);
-        when(bookRepository.existsById(updateData.getISBN())).thenReturn(true);
+        Book stored = new Book("978-3-16-148410-0", "Old title", "Old author", 200);
+        stored.setVersion(3);
+        when(bookRepository.findById(updateData.getIsbn())).thenReturn(Optional.of(stored));
+
+        // WHEN
+        bookService.updateBook(updateData, null);
+
+        // THEN
+        verify(bookRepository).save(stored);
+        assertThat(stored.getTitle()).isEqualTo("New title");
+        assertThat(stored.getPages()).isEqualTo(240);
+        assertThat(stored.getVersion()).isEqualTo(3);
+    }
+
+    @Test
+    void givenOutdatedVersion_whenUpdateBook_thenThrowsMismatchException() {
+        // GIVEN
+        Book read = new Book("1", "Title", "Author", 100);
+        read.setVersion(3);
+        Book stored = new Book("1", "Title", "Author", 100);
+        stored.setVersion(4);
+        when(bookRepository.findById("1")).thenReturn(Optional.of(stored));
+
+        // WHEN & THEN
+        assertThatThrownBy(() -> bookService.updateBook(new Book("1", "New", "Author", 100), BookEtags.etagOf(read)))
+                .isInstanceOf(BookVersionMismatchException.class);
+        verify(bookRepository, never()).save(any());
+    }
+
+    @Test
+    void givenEtagOfDeletedAndReaddedBook_whenUpdateBook_thenThrowsMismatchException() {
+        // GIVEN both copies have version 0
+        Book beforeDelete = new Book("1", "Title", "Author", 100);
+        Book readded = new Book("1", "Other title", "Author", 100);
+        when(bookRepository.findById("1")).thenReturn(Optional.of(readded));
+
+        // WHEN & THEN
+        assertThatThrownBy(() -> bookService.updateBook(new Book("1", "New", "Author", 100), BookEtags.etagOf(beforeDelete)))
+                .isInstanceOf(BookVersionMismatchException.class);
+        verify(bookRepository, never()).save(any());
+    }
+
+    @Test
+    void givenStaleVersionInBulk_whenUpdateBulk_thenRowIsReportedAsConflict() {
+        // GIVEN
+        BookUpdateRequest current = new BookUpdateRequest("1", "New title", null, null, 2L);
+        BookUpdateRequest stale = new BookUpdateRequest("2", "Other title", null, null, 0L);
+        when(bookRepository.findExistingIsbns(List.of("1", "2"))).thenReturn(List.of("1", "2"));
+        when(bookRepository.updateAll(List.of(current, stale))).thenReturn(new int[]{1, 0});
 
         // WHEN
-        bookService.updateBook(updateData);
+        BookBulkResponse response = bookService.updateBooksBulk(List.of(current, stale));
 
         // THEN
-        verify(bookRepository).save(updateData);
+        assertThat(response.getAffected()).isEqualTo(1);
+        assertThat(response.getConflictingIsbns()).containsExactly("2");
+        assertThat(response.getMissingIsbns()).isEmpty();
+    }
+
+    @Test
+    void givenKnownAndUnknownIsbns_whenUpdateBulk_thenOnlyKnownAreUpdated() {
+        // GIVEN
+        BookUpdateRequest known = new BookUpdateRequest("1", "New title", null, null);
+        BookUpdateRequest unknown = new BookUpdateRequest("999", null, "Author", 10);
+        when(bookRepository.findExistingIsbns(List.of("1", "999"))).thenReturn(List.of("1"));
+        when(bookRepository.updateAll(List.of(known))).thenReturn(new int[]{1});
+
+        // WHEN
+        BookBulkResponse response = bookService.updateBooksBulk(List.of(known, unknown));
+
+        // THEN
+        verify(bookRepository, never()).saveAll(any());
+        assertThat(response.getAffected()).isEqualTo(1);
+        assertThat(response.getMissingIsbns()).containsExactly("999");
     }
 
     @Test
@@ -125,27 +300,59 @@ public class BookServiceTest {
                 new Book("1", "T1", "A1", 10),
                 new Book("2", "T2", "A2", 20)
         );
-        when(bookRepository.existsById(anyString())).thenReturn(false);
+        when(bookRepository.findExistingIsbns(List.of("1", "2"))).thenReturn(List.of());
 
         // WHEN
-        bookService.addBooksBulk(newBooks);
+        BookBulkResponse response = bookService.addBooksBulk(newBooks);
 
         // THEN
-        verify(bookRepository, times(newBooks.size())).save(any(Book.class));
+        verify(bookRepository).insertAll(newBooks);
+        verify(bookRepository, never()).save(any(Book.class));
+        assertThat(response.getAffected()).isEqualTo(2);
+        assertThat(response.getConflictingIsbns()).isEmpty();
     }
 
     @Test
-    void givenMixedIsbns_whenRemoveBulk_thenTransactionalBehavior() {
+    void givenBulkWithExistingAndDuplicateIsbns_whenAddBulk_thenOnlyNewBooksAreInserted() {
+        // GIVEN
+        Book existing = new Book("1", "T1", "A1", 10);
+        Book fresh = new Book("2", "T2", "A2", 20);
+        Book duplicate = new Book("2", "T2 again", "A2", 20);
+        when(bookRepository.findExistingIsbns(List.of("1", "2", "2"))).thenReturn(List.of("1"));
+
+        // WHEN
+        BookBulkResponse response = bookService.addBooksBulk(List.of(existing, fresh, duplicate));
+
+        // THEN
+        verify(bookRepository).insertAll(List.of(fresh));
+        assertThat(response.getAffected()).isEqualTo(1);
+        assertThat(response.getConflictingIsbns()).containsExactly("1", "2");
+        assertThat(meterRegistry.get("bookmanager.books.bulk.size").tag("operation", "insert").summary().totalAmount())
+                .isEqualTo(3);
+        assertThat(meterRegistry.get("bookmanager.books.bulk.skipped").tag("reason", "conflict").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void givenMixedIsbns_whenRemoveBulk_thenExistingAreDeletedAndMissingReported() {
         // GIVEN
         String existing = "1";
         String nonExisting = "999";
         List<String> isbns = List.of(existing, nonExisting);
 
-        when(bookRepository.existsById(existing)).thenReturn(true);
-        when(bookRepository.existsById(nonExisting)).thenReturn(false);
+        when(bookRepository.findExistingIsbns(isbns)).thenReturn(List.of(existing));
+        when(bookRepository.deleteBooksByIsbnIn(Set.of(existing))).thenReturn(1);
 
-        // WHEN & THEN
-        assertThatThrownBy(() -> bookService.removeBooksBulk(isbns))
-                .isInstanceOf(BookNotFoundException.class);
+        // WHEN
+        BookBulkResponse response = bookService.removeBooksBulk(isbns);
+
+        // THEN
+        verify(bookRepository).deleteCurrentlyReadingEntries(Set.of(existing));
+        verify(bookRepository).deleteReadBookEntries(Set.of(existing));
+        verify(bookRepository, never()).deleteById(anyString());
+        assertThat(response.getAffected()).isEqualTo(1);
+        assertThat(response.getMissingIsbns()).containsExactly(nonExisting);
+        // Only the deleted isbn leaves the search index
+        verify(eventPublisher).publishEvent(BookChangedEvent.deleted(List.of(existing)));
     }
 }
\ No newline at end of file
@@ -0,0 +1,192 @@
+package com.melih.bookmanager.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Several instances on one host, the datagrams go over the loopback interface
+public class MulticastInvalidationBusTest {
+    private static final String EVERYTHING = "everything";
+
+    private int port;
+    private final List<MulticastInvalidationBus> started = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws SocketException {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            port = socket.getLocalPort();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        started.forEach(MulticastInvalidationBus::stop);
+    }
+
+    @Test
+    void givenTwoInstances_whenInvalidationsArePublished_thenTheOtherInstanceGetsOneCoalescedBatch() throws InterruptedException {
+        // GIVEN
+        MulticastInvalidationBus first = start();
+        MulticastInvalidationBus second = start();
+        BlockingQueue<Object> firstReceived = listen(first);
+        BlockingQueue<Object> secondReceived = listen(second);
+
+        // WHEN
+        first.publish(List.of("978-0132350884", "978-3-16-148410-0"), List.of());
+        first.publish(List.of("978-0132350884"), List.of("jeff"));
+        first.flush();
+
+        // THEN
+        assertThat(secondReceived.poll(5, TimeUnit.SECONDS))
+                .isEqualTo(List.of(Set.of("978-0132350884", "978-3-16-148410-0"), Set.of("jeff")));
+        assertThat(secondReceived.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(firstReceived.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void givenMoreIsbnsThanFitIntoOneDatagram_whenEncoded_thenTheyAreSplitAndAllArrive() {
+        // GIVEN
+        MulticastInvalidationBus sender = create();
+        MulticastInvalidationBus receiver = create();
+        BlockingQueue<Object> received = listen(receiver);
+        List<String> isbns = IntStream.range(0, 500).mapToObj(i -> String.format("978-1-00-%06d-1", i)).toList();
+
+        // WHEN
+        List<ByteBuffer> datagrams = sender.encode(isbns, List.of("jeff"), false);
+        datagrams.forEach(receiver::handle);
+
+        // THEN
+        assertThat(datagrams).hasSizeGreaterThan(1)
+                .allMatch(datagram -> datagram.remaining() <= MulticastInvalidationBus.MAX_DATAGRAM_BYTES);
+        Set<String> receivedIsbns = new HashSet<>();
+        Set<String> receivedUsernames = new HashSet<>();
+        for (Object batch : received) {
+            receivedIsbns.addAll(((List<Set<String>>) batch).get(0));
+            receivedUsernames.addAll(((List<Set<String>>) batch).get(1));
+        }
+        assertThat(receivedIsbns).containsExactlyInAnyOrderElementsOf(isbns);
+        assertThat(receivedUsernames).containsExactly("jeff");
+    }
+
+    @Test
+    void givenALostDatagram_whenTheNextOneArrives_thenEverythingIsInvalidated() {
+        // GIVEN
+        MulticastInvalidationBus sender = create();
+        MulticastInvalidationBus receiver = create();
+        BlockingQueue<Object> received = listen(receiver);
+        ByteBuffer firstDatagram = sender.encode(List.of("1"), List.of(), false).getFirst();
+        sender.encode(List.of("2"), List.of(), false);
+        ByteBuffer thirdDatagram = sender.encode(List.of("3"), List.of(), false).getFirst();
+
+        // WHEN
+        receiver.handle(firstDatagram);
+        receiver.handle(thirdDatagram);
+
+        // THEN
+        assertThat(received).containsExactly(List.of(Set.of("1"), Set.of()), EVERYTHING);
+    }
+
+    @Test
+    void givenForgedOrAlteredDatagrams_whenReceived_thenTheyAreDropped() {
+        // GIVEN
+        MulticastInvalidationBus receiver = create();
+        BlockingQueue<Object> received = listen(receiver);
+        ByteBuffer forged = create("guessed").encode(List.of(), List.of(), true).getFirst();
+        ByteBuffer altered = create().encode(List.of("1"), List.of(), false).getFirst();
+        altered.put(altered.limit() - 33, (byte) '2');
+
+        // WHEN
+        receiver.handle(forged);
+        receiver.handle(altered);
+
+        // THEN
+        assertThat(received).isEmpty();
+    }
+
+    @Test
+    void givenRecordedDatagrams_whenReplayed_thenTheyAreDropped() {
+        // GIVEN
+        MulticastInvalidationBus sender = create();
+        MulticastInvalidationBus receiver = create();
+        BlockingQueue<Object> received = listen(receiver);
+        ByteBuffer everything = sender.encode(List.of(), List.of(), true).getFirst();
+        ByteBuffer next = sender.encode(List.of("1"), List.of(), false).getFirst();
+
+        // WHEN
+        receiver.handle(everything.duplicate());
+        receiver.handle(next.duplicate());
+        receiver.handle(everything.duplicate());
+        receiver.handle(next.duplicate());
+
+        // THEN
+        assertThat(received).containsExactly(EVERYTHING, List.of(Set.of("1"), Set.of()));
+    }
+
+    @Test
+    void givenADatagramOlderThanTheMaxAge_whenAFreshReceiverGetsIt_thenItIsDropped() {
+        // GIVEN a receiver that hasn't seen the sender yet
+        MulticastInvalidationBus sender = new MulticastInvalidationBus("239.255.42.99", port, "lo", 0, Duration.ofHours(1), 1000,
+                Duration.ofSeconds(5), "secret") {
+            @Override
+            long now() {
+                return System.currentTimeMillis() - Duration.ofMinutes(1).toMillis();
+            }
+        };
+        MulticastInvalidationBus receiver = create();
+        BlockingQueue<Object> received = listen(receiver);
+
+        // WHEN
+        receiver.handle(sender.encode(List.of(), List.of(), true).getFirst());
+
+        // THEN
+        assertThat(received).isEmpty();
+    }
+
+    private MulticastInvalidationBus create() {
+        return create("secret");
+    }
+
+    private MulticastInvalidationBus create(String secret) {
+        // Flushed by the tests, not by the timer
+        return new MulticastInvalidationBus("239.255.42.99", port, "lo", 0, Duration.ofHours(1), 1000, Duration.ofSeconds(5), secret);
+    }
+
+    private MulticastInvalidationBus start() {
+        MulticastInvalidationBus bus = create();
+        bus.start();
+        started.add(bus);
+        return bus;
+    }
+
+    private static BlockingQueue<Object> listen(MulticastInvalidationBus bus) {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        bus.subscribe(new InvalidationBus.Listener() {
+            @Override
+            public void invalidate(Set<String> isbns, Set<String> usernames) {
+                received.add(List.of(isbns, usernames));
+            }
+
+            @Override
+            public void invalidateAll() {
+                received.add(EVERYTHING);
+            }
+        });
+        return received;
+    }
+}
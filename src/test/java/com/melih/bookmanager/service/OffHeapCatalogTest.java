@@ -0,0 +1,310 @@
+package com.melih.bookmanager.service;
+
+import com.melih.bookmanager.api.model.Book;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class OffHeapCatalogTest {
+
+    private OffHeapCatalog catalog;
+
+    @BeforeEach
+    void setUp() {
+        // A tiny merge size, so the tests go through the merge of the delta as well
+        catalog = new OffHeapCatalog(true, 4, DataSize.ofMegabytes(64), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void givenNoBuild_whenAsked_thenNothingIsCovered() {
+        assertThat(catalog.covers("978-3-16-148410-0")).isFalse();
+        assertThat(catalog.coversAllBooks()).isFalse();
+    }
+
+    @Test
+    void givenDisabledCatalog_whenRebuilt_thenNothingIsCovered() {
+        OffHeapCatalog disabled = new OffHeapCatalog(false, 4, DataSize.ofMegabytes(64), new SimpleMeterRegistry());
+
+        disabled.rebuild(consumer -> consumer.accept(book("978-3-16-148410-0", 1)));
+
+        assertThat(disabled.coversAllBooks()).isFalse();
+    }
+
+    @Test
+    void givenUnorderedBooks_whenRebuilt_thenLookupsAndPagesFollowTheIsbnOrder() {
+        // GIVEN
+        List<Book> books = new ArrayList<>();
+        IntStream.range(0, 3000).forEach(i -> books.add(book(String.format("978-%09d", i * 7919L % 1_000_003), i)));
+        Collections.shuffle(books, new Random(42));
+
+        // WHEN
+        catalog.rebuild(books::forEach);
+
+        // THEN
+        Book found = catalog.find(books.getFirst().getIsbn()).orElseThrow();
+        assertThat(found.getTitle()).isEqualTo(books.getFirst().getTitle());
+        assertThat(found.getAuthor()).isEqualTo(books.getFirst().getAuthor());
+        assertThat(found.getPages()).isEqualTo(books.getFirst().getPages());
+        assertThat(found.getVersion()).isEqualTo(books.getFirst().getVersion());
+        assertThat(catalog.find("978-000000001")).isEmpty();
+        assertThat(pagedIsbns(13)).isEqualTo(books.stream().map(Book::getIsbn).sorted().toList());
+        assertThat(catalog.size()).isEqualTo(books.size());
+    }
+
+    @Test
+    void givenChanges_whenPatched_thenCatalogMatchesAMapWithTheSameChanges() {
+        // GIVEN
+        TreeMap<String, Book> expected = new TreeMap<>();
+        IntStream.range(0, 200).forEach(i -> expected.put(String.format("978-%09d", i * 2), book(String.format("978-%09d", i * 2), i)));
+        catalog.rebuild(consumer -> expected.values().forEach(consumer));
+        Random random = new Random(7);
+
+        // WHEN
+        for (int round = 0; round < 300; round++) {
+            String isbn = String.format("978-%09d", random.nextInt(500));
+            if (random.nextInt(3) == 0) {
+                expected.remove(isbn);
+                catalog.remove(List.of(isbn));
+            } else {
+                Book changed = book(isbn, round);
+                expected.put(isbn, changed);
+                catalog.put(List.of(changed));
+            }
+        }
+
+        // THEN
+        assertThat(pagedIsbns(9)).isEqualTo(List.copyOf(expected.keySet()));
+        expected.values().forEach(book ->
+                assertThat(catalog.find(book.getIsbn()).orElseThrow().getTitle()).isEqualTo(book.getTitle()));
+        assertThat(catalog.size()).isEqualTo(expected.size());
+    }
+
+    @Test
+    void givenIsbnThatCantBePacked_whenStored_thenOnlyThePagesFallBackToTheDatabase() {
+        // GIVEN
+        catalog.rebuild(consumer -> consumer.accept(book("978-3-16-148410-0", 1)));
+
+        // WHEN
+        catalog.put(List.of(book("ISBN 1", 2)));
+
+        // THEN
+        assertThat(catalog.covers("ISBN 1")).isFalse();
+        assertThat(catalog.covers("978-3-16-148410-0")).isTrue();
+        assertThat(catalog.coversAllBooks()).isFalse();
+
+        catalog.remove(List.of("ISBN 1"));
+        assertThat(catalog.coversAllBooks()).isTrue();
+    }
+
+    @Test
+    void givenSharedTitlesAndAuthors_whenRebuilt_thenEachStringIsStoredOnce() {
+        OffHeapStringDictionary dictionary = new OffHeapStringDictionary();
+
+        IntStream.range(0, 100_000).forEach(i -> dictionary.intern("Author " + (i % 1000)));
+
+        assertThat(dictionary.size()).isEqualTo(1000);
+        assertThat(dictionary.view().get(dictionary.intern("Author 999"))).isEqualTo("Author 999");
+        assertThat(dictionary.intern(null)).isEqualTo(OffHeapStringDictionary.NULL_ID);
+    }
+
+    @Test
+    void givenDeletedBooks_whenMerged_thenUnusedStringsAreDropped() {
+        // GIVEN
+        catalog.rebuild(consumer -> IntStream.range(0, 100).forEach(i ->
+                consumer.accept(new Book(String.format("978-%09d", i), "Title " + i, "Author " + i, 100))));
+
+        // WHEN
+        IntStream.range(0, 90).forEach(i -> catalog.remove(List.of(String.format("978-%09d", i))));
+
+        // THEN
+        assertThat(catalog.stringCount()).isLessThan(200);
+        assertThat(catalog.size()).isEqualTo(10);
+        assertThat(catalog.find("978-000000095").orElseThrow().getTitle()).isEqualTo("Title 95");
+        assertThat(catalog.find("978-000000095").orElseThrow().getAuthor()).isEqualTo("Author 95");
+    }
+
+    @Test
+    void givenTooSmallBound_whenChanged_thenChangesStayOnTheHeap() {
+        // GIVEN room for the strings and the first records only
+        OffHeapCatalog bounded = new OffHeapCatalog(true, 4, DataSize.ofKilobytes(160), new SimpleMeterRegistry());
+        bounded.rebuild(consumer -> IntStream.range(0, 1000).forEach(i -> consumer.accept(book(String.format("978-%09d", i), i))));
+        long before = bounded.offHeapBytes();
+
+        // WHEN
+        IntStream.range(1000, 3000).forEach(i -> bounded.put(List.of(book(String.format("978-%09d", i), i))));
+
+        // THEN
+        assertThat(bounded.offHeapBytes()).isEqualTo(before);
+        assertThat(bounded.size()).isEqualTo(3000);
+        assertThat(bounded.find("978-000002999").orElseThrow().getPages()).isEqualTo(3099);
+    }
+
+    @Test
+    void givenCatalogLargerThanTheBound_whenRebuilt_thenBooksAreLeftToTheRepository() {
+        OffHeapCatalog bounded = new OffHeapCatalog(true, 4, DataSize.ofKilobytes(160), new SimpleMeterRegistry());
+
+        bounded.rebuild(consumer -> IntStream.range(0, 10_000).forEach(i -> consumer.accept(book(String.format("978-%09d", i), i))));
+
+        assertThat(bounded.ready()).isFalse();
+        assertThat(bounded.covers("978-000000001")).isFalse();
+    }
+
+    @Test
+    void givenWrittenSnapshot_whenLoaded_thenCatalogContinuesWithTheSameBooksAndSequence(@TempDir Path directory) throws IOException {
+        // GIVEN
+        Path file = directory.resolve("catalog.snapshot");
+        catalog.rebuild(consumer -> IntStream.range(0, 100).forEach(i -> consumer.accept(book(String.format("978-%09d", i), i))));
+        catalog.put(List.of(book("ISBN 1", 1), book("978-000000005", 7)));
+        CatalogSnapshotFile.write(file, catalog.image().orElseThrow(), 42);
+
+        // WHEN
+        OffHeapCatalog loaded = new OffHeapCatalog(true, 4, DataSize.ofMegabytes(64), new SimpleMeterRegistry());
+        CatalogSnapshotFile.Contents contents = CatalogSnapshotFile.read(file);
+        loaded.load(contents.image(), contents.outboxSequence());
+
+        // THEN
+        assertThat(loaded.sequence()).isEqualTo(catalog.sequence());
+        assertThat(loaded.loadedOutboxSequence()).hasValue(42);
+        assertThat(loaded.size()).isEqualTo(101);
+        assertThat(loaded.covers("ISBN 1")).isFalse();
+        assertThat(loaded.find("978-000000005").orElseThrow().getVersion()).isEqualTo(7);
+
+        // The mapped buffers are read-only, new strings go to a copy
+        loaded.put(List.of(new Book("978-000000500", "A new title", "A new author", 10)));
+        assertThat(loaded.find("978-000000500").orElseThrow().getTitle()).isEqualTo("A new title");
+        assertThat(loaded.find("978-000000001").orElseThrow().getTitle()).isEqualTo("Title 1");
+    }
+
+    @Test
+    void givenCorruptSnapshot_whenRead_thenItIsRejected(@TempDir Path directory) throws IOException {
+        // GIVEN
+        Path file = directory.resolve("catalog.snapshot");
+        catalog.rebuild(consumer -> consumer.accept(book("978-3-16-148410-0", 1)));
+        CatalogSnapshotFile.write(file, catalog.image().orElseThrow(), CatalogSnapshotFile.NO_OUTBOX_SEQUENCE);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        // WHEN & THEN
+        assertThatThrownBy(() -> CatalogSnapshotFile.read(file))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("checksum");
+    }
+
+    @Test
+    void givenDatabaseChangedSinceTheSnapshot_whenReconciled_thenOnlyChangedBooksAreCandidates() {
+        // GIVEN
+        catalog.rebuild(consumer -> IntStream.range(0, 10).forEach(i -> consumer.accept(book(String.format("978-%09d", i), 0))));
+        Map<String, Book> database = new LinkedHashMap<>();
+        IntStream.range(1, 10).forEach(i -> database.put(String.format("978-%09d", i), book(String.format("978-%09d", i), 0)));
+        database.put("978-000000003", book("978-000000003", 1));
+        database.put("978-000000042", book("978-000000042", 0));
+
+        // WHEN
+        List<String> candidates = catalog.reconcileCandidates(database.values()::forEach);
+        // Changed by a request while the reconciliation ran, the newer state must win
+        catalog.remove(List.of("978-000000042"));
+        List<Book> refreshed = catalog.refresh(List.of(book("978-000000003", 1), book("978-000000042", 0)));
+        List<String> forgotten = catalog.forget(List.of("978-000000000"));
+        catalog.reconciled();
+
+        // THEN
+        assertThat(candidates).containsExactlyInAnyOrder("978-000000003", "978-000000042", "978-000000000");
+        assertThat(refreshed).extracting(Book::getIsbn).containsExactly("978-000000003");
+        assertThat(forgotten).containsExactly("978-000000000");
+        assertThat(catalog.find("978-000000003").orElseThrow().getVersion()).isEqualTo(1);
+        assertThat(catalog.find("978-000000042")).isEmpty();
+        assertThat(catalog.size()).isEqualTo(9);
+    }
+
+    @Test
+    void givenBookDeletedAndAddedAgain_whenReconciled_thenItIsACandidateDespiteTheSameVersion() {
+        // GIVEN
+        catalog.rebuild(consumer -> consumer.accept(new Book("978-000000001", "Old title", "Author", 100)));
+
+        // WHEN
+        List<String> candidates = catalog.reconcileCandidates(action -> action.accept(new Book("978-000000001", "New title", "Author", 100)));
+
+        // THEN
+        assertThat(candidates).containsExactly("978-000000001");
+    }
+
+    @Test
+    void givenLoadedSnapshot_whenNotReconciledYet_thenReadsGoToTheRepository(@TempDir Path directory) throws IOException {
+        // GIVEN
+        Path file = directory.resolve("catalog.snapshot");
+        catalog.rebuild(consumer -> consumer.accept(book("978-000000001", 1)));
+        CatalogSnapshotFile.write(file, catalog.image().orElseThrow(), CatalogSnapshotFile.NO_OUTBOX_SEQUENCE);
+        OffHeapCatalog loaded = new OffHeapCatalog(true, 4, DataSize.ofMegabytes(64), new SimpleMeterRegistry());
+
+        // WHEN
+        loaded.load(CatalogSnapshotFile.read(file).image(), CatalogSnapshotFile.NO_OUTBOX_SEQUENCE);
+
+        // THEN
+        assertThat(loaded.loadedOutboxSequence()).isEmpty();
+        assertThat(loaded.covers("978-000000001")).isFalse();
+        assertThat(loaded.coversAllBooks()).isFalse();
+        loaded.reconcileCandidates(action -> action.accept(book("978-000000001", 1)));
+        loaded.reconciled();
+        assertThat(loaded.covers("978-000000001")).isTrue();
+        assertThat(loaded.coversAllBooks()).isTrue();
+    }
+
+    @Test
+    void givenChangesDuringARebuild_whenPublished_thenTheyDidntWaitAndAreOnTopOfTheNewBase() throws Exception {
+        // GIVEN
+        catalog.rebuild(consumer -> consumer.accept(book("978-000000001", 1)));
+        Book changed = book("978-000000002", 7);
+
+        // WHEN another thread changes books while the rebuild reads the database
+        catalog.rebuild(consumer -> {
+            consumer.accept(book("978-000000001", 1));
+            consumer.accept(book("978-000000002", 2));
+            CompletableFuture.runAsync(() -> {
+                catalog.put(List.of(changed));
+                catalog.remove(List.of("978-000000001"));
+            }).orTimeout(5, TimeUnit.SECONDS).join();
+            consumer.accept(book("978-000000003", 3));
+        });
+
+        // THEN
+        assertThat(catalog.find("978-000000001")).isEmpty();
+        assertThat(catalog.find("978-000000002")).get().extracting(Book::getVersion).isEqualTo(7L);
+        assertThat(pagedIsbns(10)).containsExactly("978-000000002", "978-000000003");
+    }
+
+    private List<String> pagedIsbns(int limit) {
+        List<String> isbns = new ArrayList<>();
+        List<Book> page = catalog.page(null, limit);
+        while (!page.isEmpty()) {
+            page.forEach(book -> isbns.add(book.getIsbn()));
+            page = catalog.page(isbns.getLast(), limit);
+        }
+        return isbns;
+    }
+
+    private static Book book(String isbn, int i) {
+        Book book = new Book(isbn, "Title " + i % 50, "Author " + i % 20, 100 + i);
+        book.setVersion(i);
+        return book;
+    }
+}
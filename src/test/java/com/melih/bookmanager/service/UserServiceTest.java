@@ -8,14 +8,20 @@ import com.melih.bookmanager.exception.User.InactiveAccountException;
 import com.melih.bookmanager.exception.User.UsernameAlreadyExistsException;
 import com.melih.bookmanager.repository.book.BookRepository;
 import com.melih.bookmanager.repository.user.UserRepository;
+import com.melih.bookmanager.utils.UserResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -35,6 +41,9 @@ public class UserServiceTest {
     @Mock
     private PasswordEncoder passwordEncoder;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private UserService userService;
 
@@ -61,6 +70,41 @@ public class UserServiceTest {
         verify(userRepository).findByUsername(username);
     }
 
+    @Test
+    void givenExistingUsername_whenGetUserProfile_thenFirstPagesAndCountsAreLoaded() {
+        // GIVEN
+        Book reading = new Book("1", "T1", "A1", 10);
+        Book read = new Book("2", "T2", "A2", 20);
+        Pageable firstPage = PageRequest.of(0, UserService.PROFILE_PAGE_SIZE);
+        when(userRepository.findByUsername(username)).thenReturn(Optional.of(testUser));
+        when(userRepository.findCurrentlyReadingByUsername(username, firstPage)).thenReturn(List.of(reading));
+        when(userRepository.countCurrentlyReadingByUsername(username)).thenReturn(1L);
+        when(userRepository.findReadBooksByUsername(username, firstPage)).thenReturn(List.of(read));
+        when(userRepository.countReadBooksByUsername(username)).thenReturn(UserService.PROFILE_PAGE_SIZE + 1L);
+
+        // WHEN
+        UserResponse result = userService.getUserProfile(username);
+
+        // THEN
+        assertThat(result.getUsername()).isEqualTo(username);
+        assertThat(result.getCurrentlyReading()).containsExactly(reading);
+        assertThat(result.getCurrentlyReadingNext()).isNull();
+        assertThat(result.getReadBooks()).containsExactly(read);
+        assertThat(result.getReadBooksCount()).isEqualTo(UserService.PROFILE_PAGE_SIZE + 1L);
+        assertThat(result.getReadBooksNext()).isEqualTo("/user/jeff/read?page=1&size=" + UserService.PROFILE_PAGE_SIZE);
+    }
+
+    @Test
+    void givenUnknownUsername_whenGetReadBooks_thenThrowUsernameNotFoundException() {
+        // GIVEN
+        when(userRepository.existsByUsername(username)).thenReturn(false);
+
+        // WHEN & THEN
+        assertThatThrownBy(() -> userService.getReadBooks(username, 0, 10))
+                .isInstanceOf(UsernameNotFoundException.class);
+        verify(userRepository, never()).findReadBooksByUsername(anyString(), any());
+    }
+
     @Test
     void givenNewUsername_whenRegister_thenNewUserIsRegistered() {
         // WHEN
@@ -126,6 +170,7 @@ public class UserServiceTest {
 
         // THEN
         verify(userRepository).save(argThat(user -> !user.isActive()));
+        verify(eventPublisher).publishEvent(UserChangedEvent.credentialsChanged(username));
     }
 
     @Test
@@ -143,6 +188,7 @@ public class UserServiceTest {
 
         // THEN
         verify(userRepository).save(argThat(user -> user.getPassword().equals(newEncoded)));
+        verify(eventPublisher).publishEvent(UserChangedEvent.credentialsChanged(username));
     }
 
     @Test